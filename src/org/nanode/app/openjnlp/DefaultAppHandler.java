@@ -19,17 +19,21 @@
 package org.nanode.app.openjnlp;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Enumeration;
 
 import org.nanode.app.openjnlp.desktop.Gooey;
+import org.nanode.jnlp.JNLPCacheWarmer;
 import org.nanode.jnlp.JNLPParser;
 import org.nanode.launcher.Launcher;
 import org.nanode.launcher.Reference;
 import org.nanode.launcher.Resources;
 import org.nanode.launcher.cache.Cache;
 import org.nanode.launcher.cache.CacheEntry;
+import org.nanode.launcher.cache.CacheScrubber;
+import org.nanode.launcher.cache.CacheServer;
+import org.nanode.launcher.cache.FileCache;
 
 
 /**
@@ -53,12 +57,34 @@ public class DefaultAppHandler implements AppHandler {
 
 
     /**
-     * Creates a default handler using the default cache.
+     * Creates a default handler using the default cache. If the default cache is a file cache it
+     * is scrubbed periodically in the background. The cache is also warmed in the background if
+     * warming is scheduled, and served to other launchers if
+     * <code>org.nanode.launcher.cache.serverPort</code> is set.
      *
      * @see     Cache#getDefaultCache
+     * @see     CacheScrubber
+     * @see     JNLPCacheWarmer
+     * @see     CacheServer
      */
     public DefaultAppHandler() {
         primaryCache = Cache.getDefaultCache();
+
+        if (primaryCache instanceof FileCache) {
+            new CacheScrubber((FileCache) primaryCache).start();
+
+            Integer port = Integer.getInteger(CacheServer.SERVER_PORT_PROPERTY);
+
+            if (port != null) {
+                try {
+                    new CacheServer((FileCache) primaryCache, port.intValue()).start();
+                } catch (IOException e) {
+                    System.err.println("Unable to serve cache on port " + port + " - " + e.getMessage());
+                }
+            }
+        }
+
+        new JNLPCacheWarmer(primaryCache).start();
     }
 
     /**
@@ -125,19 +151,11 @@ public class DefaultAppHandler implements AppHandler {
         try {
             CacheEntry entry = JNLPParser.parseDescriptor(getPrimaryCache(), url);
 
-            // make sure eager jars are up-to-date
-            for (Enumeration enum = entry.getDescriptor().getResources().eagerJars(); enum.hasMoreElements();) {
-                Reference jarRef = (Reference) enum.nextElement();
-
-                entry.addResource(jarRef);
-            }
+            // make sure eager jars and nativelibs are up-to-date, as far as the update check allows
+            Reference[] eager = entry.getDescriptor().getResources().eagerReferences();
 
-            // make sure eager nativelibs are up-to-date
-            for (Enumeration enum = entry.getDescriptor().getResources().eagerNativelibs(); enum.hasMoreElements();) {
-                Reference libRef = (Reference) enum.nextElement();
-
-                entry.addResource(libRef);
-            }
+            JNLPParser.updateResources(entry, eager, true);
+            JNLPParser.reportSkippedRevalidations(entry, eager);
 
             Launcher.launchExternal(entry.getDescriptor());
         } catch (Exception e) {
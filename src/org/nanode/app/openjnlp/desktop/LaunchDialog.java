@@ -30,7 +30,7 @@ import java.awt.event.ActionListener;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import javax.swing.BorderFactory;
@@ -52,6 +52,7 @@ import org.nanode.launcher.cache.CacheEntry;
 import org.nanode.launcher.cache.CachedResource;
 
 import org.nanode.jnlp.JNLPParser;
+import org.nanode.jnlp.JNLPSpecification;
 
 
 public class LaunchDialog extends JDialog implements Observer, ActionListener {
@@ -71,6 +72,8 @@ public class LaunchDialog extends JDialog implements Observer, ActionListener {
     protected JButton cancelButton;
 
     boolean shouldAbort;
+    int rsrcChecked;		// number of eager resources that have started updating
+    int rsrcCount;			// number of eager resources being updated
 
 
     public LaunchDialog(Frame owner) {
@@ -103,6 +106,12 @@ public class LaunchDialog extends JDialog implements Observer, ActionListener {
         shouldAbort = true;
         updater.abortUpdate();
 
+        synchronized (this) {
+            if (cacheEntry != null) {
+                cacheEntry.abortUpdates();
+            }
+        }
+
         try {
             SwingUtilities.invokeLater(new Runnable() {
                     public void run() {
@@ -127,7 +136,16 @@ public class LaunchDialog extends JDialog implements Observer, ActionListener {
         }
 
         if (rsrc != null) {
-            updater.setResource(rsrc);
+            int checked;
+            int count;
+
+            synchronized (this) {
+                checked = ++rsrcChecked;
+                count = rsrcCount;
+            }
+
+            updater.addResource(rsrc);
+            setProgress(Math.min(checked, count), count);
         }
     }
 
@@ -162,25 +180,41 @@ public class LaunchDialog extends JDialog implements Observer, ActionListener {
                     if (des == null) {
                         JOptionPane.showMessageDialog(null, errmsg, "Launch Failure", JOptionPane.ERROR_MESSAGE);
                     } else {
-                        ArrayList rsrc = new ArrayList();
+                        Reference[] refs = des.getResources().eagerReferences();
 
-                        // add eager jars to list
-                        for (Enumeration enum = des.getResources().eagerJars(); enum.hasMoreElements();) {
-                            rsrc.add(enum.nextElement());
+                        // update all eager resources at once, progress comes in through update()
+                        synchronized (LaunchDialog.this) {
+                            rsrcChecked = 0;
+                            rsrcCount = refs.length;
                         }
 
-                        // add eager nativelibs to list
-                        for (Enumeration enum = des.getResources().eagerNativelibs(); enum.hasMoreElements();) {
-                            rsrc.add(enum.nextElement());
+                        updater.clear();
+
+                        String policy = JNLPSpecification.POLICY_ALWAYS;
+
+                        if (des.getContext() instanceof JNLPSpecification) {
+                            policy = ((JNLPSpecification) des.getContext()).getUpdatePolicy();
+                        }
+
+                        // other update policies ask before any new version is used
+                        boolean promote = JNLPSpecification.POLICY_ALWAYS.equals(policy);
+
+                        if (!shouldAbort) {
+                            setMessage("Checking " + refs.length + " resources", " ");
+                            JNLPParser.updateResources(entry, refs, promote);
+                            JNLPParser.reportSkippedRevalidations(entry, refs);
                         }
 
-                        Reference[] refs = (Reference[]) rsrc.toArray(new Reference[0]);
+                        if (!shouldAbort && !promote && entry.hasStagedResources()) {
+                            boolean use = (JOptionPane.showConfirmDialog(null, "An update is available for " + entry.getTitle() + ".\nUse the update now?",
+                                                                         "Update Available", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION);
 
-                        for (int i = 0; !shouldAbort && i < refs.length; i++) {
-                            setProgress(i + 1, refs.length);
+                            if (use) {
+                                entry.promoteStaged();
+                            }
 
-                            setMessage("Checking " + refs[i].getURL().getFile().substring(refs[i].getURL().getFile().lastIndexOf("/") + 1), " ");
-                            entry.addResource(refs[i]);
+                            // without the update the app may not be run at all
+                            shouldAbort = (!use && JNLPSpecification.POLICY_PROMPT_RUN.equals(policy));
                         }
 
                         if (!shouldAbort) {
@@ -348,18 +382,21 @@ public class LaunchDialog extends JDialog implements Observer, ActionListener {
 
 
     class Updater implements Runnable {
-        CachedResource rsrc;
+        List rsrcs;			// CachedResource objects updated for the current launch
         StringBuffer textBuffer;
 
 
         Updater() {
+            rsrcs = new ArrayList();
             textBuffer = new StringBuffer();
         }
 
         public void run() {
             for (;;) {
-                if (!shouldAbort && rsrc != null) {
-                    updateMessage();
+                CachedResource[] active = inFlight();
+
+                if (!shouldAbort && active.length > 0) {
+                    updateMessage(active);
                 }
 
                 try {
@@ -369,34 +406,80 @@ public class LaunchDialog extends JDialog implements Observer, ActionListener {
         }
 
         synchronized void abortUpdate() {
-            if (rsrc != null) {
-                rsrc.abortUpdate();
+            for (int i = 0; i < rsrcs.size(); i++) {
+                ((CachedResource) rsrcs.get(i)).abortUpdate();
+            }
+        }
+
+        synchronized void addResource(CachedResource cr) {
+            if (!rsrcs.contains(cr)) {
+                rsrcs.add(cr);
             }
         }
 
-        synchronized void setResource(CachedResource cr) {
-            rsrc = cr;
+        synchronized void clear() {
+            rsrcs.clear();
+        }
+
+        synchronized CachedResource[] inFlight() {
+            List active = new ArrayList();
+
+            for (int i = 0; i < rsrcs.size(); i++) {
+                CachedResource cr = (CachedResource) rsrcs.get(i);
+
+                if (cr.isTransferring()) {
+                    active.add(cr);
+                }
+            }
+
+            return (CachedResource[]) active.toArray(new CachedResource[0]);
         }
 
-        void updateMessage() {
-            String fileName = rsrc.getReference().getURL().getFile();
+        void updateMessage(CachedResource[] active) {
+            long transferred = 0L;
+            long expected = 0L;
+            long resumed = 0L;
+            int rate = 0;
+
+            for (int i = 0; i < active.length; i++) {
+                transferred += active[i].resumedAmount() + active[i].transferAmount();
+                expected += Math.max(active[i].expectedLength(), 0L);
+                resumed += active[i].resumedAmount();
+                rate += active[i].transferRate();
+            }
 
             textBuffer.setLength(0);
             textBuffer.append("Loading ");
-            textBuffer.append(fileName.substring(fileName.lastIndexOf("/") + 1));
-            textBuffer.append(" from ");
-            textBuffer.append(rsrc.getReference().getURL().getHost());
+
+            if (active.length == 1) {
+                String fileName = active[0].getReference().getURL().getFile();
+
+                textBuffer.append(fileName.substring(fileName.lastIndexOf("/") + 1));
+                textBuffer.append(" from ");
+                textBuffer.append(active[0].getReference().getURL().getHost());
+            } else {
+                textBuffer.append(active.length);
+                textBuffer.append(" resources");
+            }
 
             String msg = textBuffer.toString();
 
             textBuffer.setLength(0);
             textBuffer.append("Transferred ");
-            textBuffer.append(Long.toString(rsrc.transferAmount() / 1024L));
+            textBuffer.append(Long.toString(transferred / 1024L));
             textBuffer.append("KB of ");
-            textBuffer.append(Long.toString(rsrc.expectedLength() / 1024L));
+            textBuffer.append(Long.toString(expected / 1024L));
             textBuffer.append("KB (");
-            textBuffer.append(Integer.toString(rsrc.transferRate() / 1024));
-            textBuffer.append("KB/s)");
+            textBuffer.append(Integer.toString(rate / 1024));
+            textBuffer.append("KB/s");
+
+            if (resumed > 0L) {
+                textBuffer.append(", resumed at ");
+                textBuffer.append(Long.toString(resumed / 1024L));
+                textBuffer.append("KB");
+            }
+
+            textBuffer.append(")");
 
             setMessage(msg, textBuffer.toString());
         }
@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.File;
+
+
+/**
+ * A single micro-benchmark. The runner calls <code>setUp</code> once with an empty temporary
+ * directory, then calls <code>run</code> repeatedly while timing it, and finally calls
+ * <code>tearDown</code>. Benchmarks only use the temporary directory and <code>file:</code>
+ * URLs, so results do not depend on the network.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see BenchmarkRunner
+ */
+public abstract class Benchmark {
+    private String name;
+
+
+    /**
+     * Creates a benchmark with the specified name. The name is the key used in results and
+     * baselines, so it should not change between releases.
+     *
+     * @param   name  the benchmark name
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of this benchmark.
+     *
+     * @return  benchmark name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares this benchmark. This implementation does nothing.
+     *
+     * @param   dir  an empty temporary directory for this benchmark
+     * @throws  Exception if the benchmark can not be prepared
+     */
+    public void setUp(File dir) throws Exception {
+    }
+
+    /**
+     * Runs the measured operation the specified number of times. The result should depend on
+     * the work done so that it can not be optimized away.
+     *
+     * @param   ops  number of operations
+     * @return  a value computed from the operations
+     * @throws  Exception if an operation fails
+     */
+    public abstract int run(int ops) throws Exception;
+
+    /**
+     * Releases anything held by this benchmark. This implementation does nothing.
+     *
+     * @throws  Exception if the benchmark can not be cleaned up
+     */
+    public void tearDown() throws Exception {
+    }
+
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+ * Runs the benchmarks and reports the average time of each operation in microseconds. Each
+ * benchmark is first run for a number of warmup iterations, then measured over a number of
+ * iterations of a fixed duration.
+ * <p>
+ * Results can be saved to a properties file of (benchmark name, microseconds per operation) and
+ * a saved file can be given as a baseline, in which case the change from the baseline is
+ * reported as well. Keeping the results of each release gives baselines to track between
+ * releases. The options are:
+ * <blockquote><pre>
+ * -warmup <em>n</em>       warmup iterations (default 3)
+ * -iterations <em>n</em>   measured iterations (default 5)
+ * -time <em>ms</em>        duration of each iteration (default 1000)
+ * -filter <em>text</em>    only run benchmarks whose name contains the text
+ * -baseline <em>file</em>  compare against results saved earlier
+ * -save <em>file</em>      save the results
+ * </pre></blockquote>
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class BenchmarkRunner {
+    private static final DecimalFormat timeFormat = new DecimalFormat("0.000");
+    private static final DecimalFormat changeFormat = new DecimalFormat("+0.0;-0.0");
+
+    /** consumes the results of the benchmarks so their work can not be optimized away */
+    private static volatile int sink;
+
+
+    private int warmup;
+    private int iterations;
+    private long iterationMillis;
+
+
+    /**
+     * Creates a runner with the specified iteration counts and duration.
+     *
+     * @param   warmup           number of warmup iterations
+     * @param   iterations       number of measured iterations
+     * @param   iterationMillis  duration of each iteration in milliseconds
+     */
+    public BenchmarkRunner(int warmup, int iterations, long iterationMillis) {
+        this.warmup = warmup;
+        this.iterations = Math.max(iterations, 1);
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Measures a benchmark. The benchmark is set up in a new temporary directory that is removed
+     * afterwards.
+     *
+     * @param   b  the benchmark
+     * @return  microseconds per operation for each measured iteration
+     * @throws  Exception if the benchmark fails
+     */
+    public double[] measure(Benchmark b) throws Exception {
+        File dir = File.createTempFile("bench", "");
+
+        dir.delete();
+        dir.mkdirs();
+
+        try {
+            b.setUp(dir);
+
+            // find a batch size that takes long enough to be timed with a millisecond clock
+            int batch = 1;
+
+            while (batch < (1 << 24) && timeBatch(b, batch) < 20L) {
+                batch <<= 1;
+            }
+
+            for (int i = 0; i < warmup; i++) {
+                iteration(b, batch);
+            }
+
+            double[] results = new double[iterations];
+
+            for (int i = 0; i < iterations; i++) {
+                results[i] = iteration(b, batch);
+            }
+
+            return results;
+        } finally {
+            try {
+                b.tearDown();
+            } finally {
+                deltree(dir);
+            }
+        }
+    }
+
+    /**
+     * Runs batches of operations for one iteration.
+     *
+     * @param   b      the benchmark
+     * @param   batch  operations per batch
+     * @return  microseconds per operation
+     * @throws  Exception if the benchmark fails
+     */
+    private double iteration(Benchmark b, int batch) throws Exception {
+        long ops = 0L;
+        long start = System.currentTimeMillis();
+        long elapsed;
+
+        do {
+            sink += b.run(batch);
+            ops += batch;
+        } while ((elapsed = System.currentTimeMillis() - start) < iterationMillis);
+
+        return (elapsed * 1000.0) / ops;
+    }
+
+    private static long timeBatch(Benchmark b, int batch) throws Exception {
+        long start = System.currentTimeMillis();
+
+        sink += b.run(batch);
+
+        return System.currentTimeMillis() - start;
+    }
+
+
+    /**
+     * Returns all of the benchmarks.
+     *
+     * @return  array of benchmarks
+     */
+    public static Benchmark[] benchmarks() {
+        return new Benchmark[] {
+            new ParserBenchmark("parser.small", 3),
+            new ParserBenchmark("parser.large", 250),
+            new VersionBenchmark("version.compareTo", false),
+            new VersionBenchmark("version.parseVersions", true),
+            new ReferenceBenchmark("reference.equals", false),
+            new ReferenceBenchmark("reference.hashCode", true),
+            new EntryPersistenceBenchmark("entry.read", false),
+            new EntryPersistenceBenchmark("entry.write", true),
+            new DescriptorLookupBenchmark("cache.entryFromDescriptorURL.10", 10),
+            new DescriptorLookupBenchmark("cache.entryFromDescriptorURL.100", 100),
+            new DescriptorLookupBenchmark("cache.entryFromDescriptorURL.1000", 1000),
+            new ClassLoaderBenchmark("classloader.findClass.hit", 50, true),
+            new ClassLoaderBenchmark("classloader.findClass.miss", 50, false),
+            new TransferBenchmark("transfer.legacy.256m", TransferBenchmark.LEGACY, 256),
+            new TransferBenchmark("transfer.stream.256m", TransferBenchmark.STREAM, 256),
+            new TransferBenchmark("transfer.file.256m", TransferBenchmark.FILE, 256)
+        };
+    }
+
+    public static void main(String[] args) {
+        int warmup = 3;
+        int iterations = 5;
+        long millis = 1000L;
+        String filter = null;
+        File baselineFile = null;
+        File saveFile = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-warmup".equals(args[i])) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if ("-iterations".equals(args[i])) {
+                    iterations = Integer.parseInt(args[++i]);
+                } else if ("-time".equals(args[i])) {
+                    millis = Long.parseLong(args[++i]);
+                } else if ("-filter".equals(args[i])) {
+                    filter = args[++i];
+                } else if ("-baseline".equals(args[i])) {
+                    baselineFile = new File(args[++i]);
+                } else if ("-save".equals(args[i])) {
+                    saveFile = new File(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("usage: BenchmarkRunner [-warmup n] [-iterations n] [-time ms] [-filter text] [-baseline file] [-save file]");
+            System.exit(1);
+        }
+
+        Properties baseline = new Properties();
+
+        if (baselineFile != null && baselineFile.isFile()) {
+            try {
+                InputStream is = new FileInputStream(baselineFile);
+
+                baseline.load(is);
+                is.close();
+            } catch (IOException e) {
+                System.err.println("Unable to read baseline " + baselineFile + " - " + e);
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, millis);
+        Benchmark[] all = benchmarks();
+        Properties results = new Properties();
+        List failed = new ArrayList();
+
+        System.out.println("benchmark                                  us/op       +/-   baseline   change%");
+
+        for (int i = 0; i < all.length; i++) {
+            if (filter != null && all[i].getName().indexOf(filter) < 0) {
+                continue;
+            }
+
+            double[] r;
+
+            try {
+                r = runner.measure(all[i]);
+            } catch (Exception e) {
+                System.err.println(all[i].getName() + " failed - " + e);
+                failed.add(all[i].getName());
+                continue;
+            }
+
+            double sum = 0.0;
+            double min = Double.MAX_VALUE;
+            double max = 0.0;
+
+            for (int j = 0; j < r.length; j++) {
+                sum += r[j];
+                min = Math.min(min, r[j]);
+                max = Math.max(max, r[j]);
+            }
+
+            double mean = sum / r.length;
+            String base = baseline.getProperty(all[i].getName());
+            StringBuffer sb = new StringBuffer();
+
+            column(sb, all[i].getName(), 36, false);
+            column(sb, timeFormat.format(mean), 12, true);
+            column(sb, timeFormat.format((max - min) / 2.0), 10, true);
+
+            if (base != null) {
+                double b = Double.parseDouble(base);
+
+                column(sb, timeFormat.format(b), 11, true);
+                column(sb, changeFormat.format((mean - b) * 100.0 / b), 10, true);
+            }
+
+            System.out.println(sb);
+            results.setProperty(all[i].getName(), timeFormat.format(mean));
+        }
+
+        if (saveFile != null) {
+            try {
+                if (saveFile.getParentFile() != null) {
+                    saveFile.getParentFile().mkdirs();
+                }
+
+                OutputStream os = new FileOutputStream(saveFile);
+
+                results.store(os, "OpenJNLP benchmark results in microseconds per operation; java " + System.getProperty("java.version")
+                                  + ", " + System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+                os.close();
+            } catch (IOException e) {
+                System.err.println("Unable to save results to " + saveFile + " - " + e);
+            }
+        }
+
+        if (failed.size() > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void column(StringBuffer sb, String s, int width, boolean right) {
+        if (!right) {
+            sb.append(s);
+        }
+
+        for (int i = s.length(); i < width; i++) {
+            sb.append(' ');
+        }
+
+        if (right) {
+            sb.append(s);
+        }
+    }
+
+    static void deltree(File f) {
+        File[] contents = f.listFiles();
+
+        for (int i = 0; contents != null && i < contents.length; i++) {
+            deltree(contents[i]);
+        }
+
+        f.delete();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.nanode.jnlp.JNLPParser;
+import org.nanode.launcher.cache.CacheEntry;
+import org.nanode.launcher.cache.FileCache;
+
+
+/**
+ * Measures finding classes with the class loader of a cache entry whose class path has many
+ * jars. Each jar holds one small class. A hit loads the class in the last jar with a new class
+ * loader each time; a miss looks for a class that is in none of the jars.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class ClassLoaderBenchmark extends Benchmark {
+    private int jars;
+    private boolean hit;
+
+    private CacheEntry entry;
+    private ClassLoader loader;
+
+
+    public ClassLoaderBenchmark(String name, int jars, boolean hit) {
+        super(name);
+
+        this.jars = jars;
+        this.hit = hit;
+    }
+
+    public void setUp(File dir) throws Exception {
+        File jarDir = new File(dir, "jars");
+        StringBuffer sb = new StringBuffer();
+
+        jarDir.mkdirs();
+
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<jnlp spec=\"1.0+\" codebase=\"").append(dir.toURL()).append("\" href=\"app.jnlp\">\n");
+        sb.append("  <information><title>ClassLoader</title><vendor>Bench</vendor></information>\n");
+        sb.append("  <resources>\n");
+
+        for (int i = 0; i < jars; i++) {
+            JarOutputStream jos = new JarOutputStream(new FileOutputStream(new File(jarDir, "lib" + i + ".jar")));
+
+            jos.putNextEntry(new ZipEntry("bench/C" + i + ".class"));
+            jos.write(emptyClass("bench/C" + i));
+            jos.close();
+
+            sb.append("    <jar href=\"jars/lib").append(i).append(".jar\" />\n");
+        }
+
+        sb.append("  </resources>\n");
+        sb.append("  <application-desc main-class=\"bench.C0\" />\n");
+        sb.append("</jnlp>\n");
+
+        File jnlp = new File(dir, "app.jnlp");
+        OutputStream os = new FileOutputStream(jnlp);
+
+        os.write(sb.toString().getBytes("UTF-8"));
+        os.close();
+
+        entry = JNLPParser.parseDescriptor(new FileCache(new File(dir, "cache")), jnlp.toURL());
+        entry.addResources(entry.getDescriptor().getResources().eagerReferences());
+
+        loader = entry.createClassLoader();
+    }
+
+    public int run(int ops) throws Exception {
+        int n = 0;
+        String name = (hit) ? "bench.C" + (jars - 1) : "bench.Missing";
+
+        for (int i = 0; i < ops; i++) {
+            try {
+                ClassLoader cl = (hit) ? entry.createClassLoader() : loader;
+
+                n += cl.loadClass(name).getName().length();
+            } catch (ClassNotFoundException e) {
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Returns the bytes of a class file for a class with no members.
+     *
+     * @param   name  the internal name of the class
+     * @return  class file bytes
+     * @throws  IOException never
+     */
+    private static byte[] emptyClass(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xcafebabe);
+        out.writeShort(3);				// minor version
+        out.writeShort(45);				// major version
+        out.writeShort(5);				// constant pool count + 1
+        out.writeByte(7);				// #1 class #2
+        out.writeShort(2);
+        out.writeByte(1);				// #2 utf8 name
+        out.writeUTF(name);
+        out.writeByte(7);				// #3 class #4
+        out.writeShort(4);
+        out.writeByte(1);				// #4 utf8 superclass name
+        out.writeUTF("java/lang/Object");
+        out.writeShort(0x0021);			// public super
+        out.writeShort(1);				// this class
+        out.writeShort(3);				// super class
+        out.writeShort(0);				// interfaces
+        out.writeShort(0);				// fields
+        out.writeShort(0);				// methods
+        out.writeShort(0);				// attributes
+        out.close();
+
+        return bytes.toByteArray();
+    }
+}
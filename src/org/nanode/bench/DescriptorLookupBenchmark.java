@@ -0,0 +1,82 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.File;
+import java.net.URL;
+
+import org.nanode.launcher.cache.CacheEntry;
+import org.nanode.launcher.cache.FileCache;
+
+
+/**
+ * Measures looking up a cache entry by its descriptor URL in a cache with a given number of
+ * cache entries.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class DescriptorLookupBenchmark extends Benchmark {
+    private int entries;
+
+    private FileCache cache;
+    private URL[] urls;
+
+
+    public DescriptorLookupBenchmark(String name, int entries) {
+        super(name);
+
+        this.entries = entries;
+    }
+
+    public void setUp(File dir) throws Exception {
+        BenchCache bc = new BenchCache(new File(dir, "cache"));
+
+        urls = new URL[entries];
+
+        for (int i = 0; i < entries; i++) {
+            urls[i] = new File(dir, "app" + i + ".jnlp").toURL();
+            bc.entry("Vendor" + (i % 10), "App" + i).setMetaInfo(CacheEntry.METAKEY_DESCRIPTOR, urls[i].toString());
+        }
+
+        cache = bc;
+        cache.flush();
+    }
+
+    public int run(int ops) {
+        int n = 0;
+
+        for (int i = 0; i < ops; i++) {
+            if (cache.entryFromDescriptorURL(urls[i % entries]) != null) {
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+
+    private static class BenchCache extends FileCache {
+        BenchCache(File dir) {
+            super(dir);
+        }
+
+        CacheEntry entry(String vendor, String title) {
+            return establishEntry(vendor, title);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.File;
+import java.net.URL;
+
+import org.nanode.launcher.Reference;
+import org.nanode.launcher.Version;
+import org.nanode.launcher.cache.FileCache;
+import org.nanode.launcher.cache.FileCacheEntry;
+
+
+/**
+ * Measures reading or writing the persistent info of a cache entry with a typical amount of
+ * meta info and cached resources.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class EntryPersistenceBenchmark extends Benchmark {
+    private boolean write;
+    private BenchEntry entry;
+
+
+    public EntryPersistenceBenchmark(String name, boolean write) {
+        super(name);
+
+        this.write = write;
+    }
+
+    public void setUp(File dir) throws Exception {
+        FileCache cache = new FileCache(new File(dir, "cache"));
+
+        entry = new BenchEntry(cache, new File(dir, "entries"));
+
+        entry.setMetaInfo("descriptor", new File(dir, "app.jnlp").toURL().toString());
+        entry.setMetaInfo("icon", new File(dir, "icon.gif").toURL().toString());
+        entry.setMetaInfo("lastlaunch", Long.toString(System.currentTimeMillis()));
+        entry.setMetaInfo("launchcount", "12");
+
+        // lazy resources are added without being downloaded
+        for (int i = 0; i < 50; i++) {
+            URL url = new File(dir, "jars/lib" + i + ".jar").toURL();
+
+            entry.addResource(new Reference(url, Version.parseVersions("1." + i), true));
+        }
+
+        entry.write();
+    }
+
+    public int run(int ops) {
+        for (int i = 0; i < ops; i++) {
+            if (write) {
+                entry.write();
+            } else {
+                entry.read();
+            }
+        }
+
+        return ops;
+    }
+
+
+    private static class BenchEntry extends FileCacheEntry {
+        BenchEntry(FileCache cache, File base) {
+            super(cache, base, "Nanode LLC", "Bench");
+        }
+
+        void read() {
+            readPersistence();
+        }
+
+        void write() {
+            writePersistence();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.nanode.jnlp.JNLPParser;
+import org.nanode.launcher.cache.FileCache;
+
+
+/**
+ * Measures parsing a JNLP descriptor held in memory. The size of the descriptor is set by the
+ * number of jars it references; a quarter as many nativelibs and properties are added as well.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class ParserBenchmark extends Benchmark {
+    private int jars;
+
+    private byte[] data;
+    private URL source;
+    private FileCache cache;
+
+
+    public ParserBenchmark(String name, int jars) {
+        super(name);
+
+        this.jars = jars;
+    }
+
+    public void setUp(File dir) throws Exception {
+        cache = new FileCache(new File(dir, "cache"));
+        source = new File(dir, "app.jnlp").toURL();
+        data = descriptor(jars).getBytes("UTF-8");
+    }
+
+    public int run(int ops) throws Exception {
+        int n = 0;
+
+        for (int i = 0; i < ops; i++) {
+            JNLPParser parser = new BytesParser();
+
+            parser.parse();
+            n += parser.getDescriptor().hashCode();
+        }
+
+        return n;
+    }
+
+    /**
+     * Returns the text of a descriptor that references the specified number of jars.
+     *
+     * @param   jars  number of jars
+     * @return  descriptor text
+     */
+    static String descriptor(int jars) {
+        StringBuffer sb = new StringBuffer();
+
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<jnlp spec=\"1.0+\" codebase=\"file:/tmp/bench/\" href=\"app.jnlp\">\n");
+        sb.append("  <information>\n");
+        sb.append("    <title>Bench</title>\n");
+        sb.append("    <vendor>Nanode LLC</vendor>\n");
+        sb.append("    <homepage href=\"index.html\" />\n");
+        sb.append("    <icon href=\"icon.gif\" />\n");
+        sb.append("    <offline-allowed />\n");
+        sb.append("    <description>A descriptor for benchmarking the parser</description>\n");
+        sb.append("  </information>\n");
+        sb.append("  <resources>\n");
+        sb.append("    <j2se version=\"1.4+ 1.3\" />\n");
+
+        for (int i = 0; i < jars; i++) {
+            sb.append("    <jar href=\"jars/lib").append(i).append(".jar\"");
+
+            if (i == 0) {
+                sb.append(" main=\"true\"");
+            } else if (i % 3 == 0) {
+                sb.append(" download=\"lazy\"");
+            }
+
+            sb.append(" />\n");
+        }
+
+        for (int i = 0; i < jars / 4; i++) {
+            sb.append("    <nativelib href=\"jars/native").append(i).append(".jar\" />\n");
+            sb.append("    <property name=\"bench.property").append(i).append("\" value=\"").append(i).append("\" />\n");
+        }
+
+        sb.append("  </resources>\n");
+        sb.append("  <application-desc main-class=\"bench.Main\">\n");
+        sb.append("    <argument>-verbose</argument>\n");
+        sb.append("  </application-desc>\n");
+        sb.append("</jnlp>\n");
+
+        return sb.toString();
+    }
+
+
+    private class BytesParser extends JNLPParser {
+        BytesParser() {
+            this.cache = ParserBenchmark.this.cache;
+        }
+
+        public URL getSourceURL() {
+            return source;
+        }
+
+        protected InputStream openInputStream() {
+            return new ByteArrayInputStream(data);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.File;
+
+import org.nanode.launcher.Reference;
+import org.nanode.launcher.Version;
+
+
+/**
+ * Measures comparing references, or computing their hash codes. The references use
+ * <code>file:</code> URLs so that <code>URL.equals</code> never resolves a host.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class ReferenceBenchmark extends Benchmark {
+    private boolean hash;
+    private Reference[] refs;
+
+
+    public ReferenceBenchmark(String name, boolean hash) {
+        super(name);
+
+        this.hash = hash;
+    }
+
+    public void setUp(File dir) throws Exception {
+        refs = new Reference[64];
+
+        for (int i = 0; i < refs.length; i++) {
+            File f = new File(dir, "lib" + (i / 2) + ".jar");
+            Version[] vers = ((i & 1) == 0) ? new Version[0] : Version.parseVersions("1." + (i % 4) + " 2.0");
+
+            refs[i] = new Reference(f.toURL(), vers, false);
+        }
+    }
+
+    public int run(int ops) {
+        int n = 0;
+
+        if (hash) {
+            for (int i = 0; i < ops; i++) {
+                n += refs[i & 63].hashCode();
+            }
+        } else {
+            for (int i = 0; i < ops; i++) {
+                if (refs[i & 63].equals(refs[(i + (i >> 6)) & 63])) {
+                    n++;
+                }
+            }
+        }
+
+        return n;
+    }
+}
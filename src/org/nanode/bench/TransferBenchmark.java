@@ -0,0 +1,123 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.nanode.launcher.cache.TransferEngine;
+
+
+/**
+ * Measures copying a large file the way a cached resource is updated. The legacy mode copies
+ * through a 1 KB array and works out the transfer rate on every read, as updates used to; the
+ * stream mode copies a stream (as a download is) with the transfer engine; the file mode imports
+ * a file with the transfer engine. Each operation copies the whole file.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class TransferBenchmark extends Benchmark {
+    public static final int LEGACY = 0;
+    public static final int STREAM = 1;
+    public static final int FILE = 2;
+
+
+    private int mode;
+    private int megabytes;
+
+    private File src;
+    private File dst;
+    private TransferEngine engine;
+
+
+    public TransferBenchmark(String name, int mode, int megabytes) {
+        super(name);
+
+        this.mode = mode;
+        this.megabytes = megabytes;
+    }
+
+    public void setUp(File dir) throws Exception {
+        src = new File(dir, "big.jar");
+        dst = new File(dir, "copy.jar");
+        engine = new TransferEngine();
+
+        byte[] block = new byte[1024 * 1024];
+        OutputStream os = new FileOutputStream(src);
+
+        for (int i = 0; i < megabytes; i++) {
+            block[i % block.length] = (byte) i;
+            os.write(block);
+        }
+
+        os.close();
+    }
+
+    public int run(int ops) throws Exception {
+        long n = 0L;
+
+        for (int i = 0; i < ops; i++) {
+            FileInputStream fis = new FileInputStream(src);
+            FileOutputStream fos = new FileOutputStream(dst);
+
+            try {
+                if (mode == FILE) {
+                    n += engine.transferFile(fis.getChannel(), fos.getChannel(), new TransferEngine.Meter());
+                } else {
+                    // hide the file stream so it is copied as a stream
+                    InputStream in = new FilterInputStream(fis) { };
+
+                    n += (mode == STREAM) ? engine.transfer(in, fos, new TransferEngine.Meter()) : legacyCopy(in, fos);
+                }
+            } finally {
+                fos.close();
+                fis.close();
+            }
+        }
+
+        return (int) n;
+    }
+
+    /**
+     * Copies a stream the way updates did before the transfer engine.
+     */
+    private static long legacyCopy(InputStream in, OutputStream out) throws Exception {
+        byte[] buffer = new byte[1024];
+        long amount = 0L;
+        long startMillis = System.currentTimeMillis();
+        int rate = 0;
+        int secs;
+
+        for (int read = 0; (read = in.read(buffer)) != -1;) {
+            out.write(buffer, 0, read);
+
+            if ((secs = (int) ((System.currentTimeMillis() - startMillis) / 1000L)) == 0) {
+                secs = 1;
+            }
+
+            amount += read;
+            rate = (int) (amount / (long) secs);
+        }
+
+        return amount + (rate & 0);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.bench;
+
+import org.nanode.launcher.Version;
+
+
+/**
+ * Measures comparing version-ids, or parsing version strings into version-ids.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class VersionBenchmark extends Benchmark {
+    private static final String[] versionStrings = {
+        "1.3", "1.3.1", "1.3.1_02", "1.4", "1.4+", "1.4.0_01", "1.4.1", "1.4.2-beta", "1.4.2_05", "1.4*", "2.0", "0.7.2"
+    };
+
+
+    private boolean parse;
+    private Version[] versions;
+
+
+    public VersionBenchmark(String name, boolean parse) {
+        super(name);
+
+        this.parse = parse;
+
+        versions = new Version[versionStrings.length];
+
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = new Version(versionStrings[i]);
+        }
+    }
+
+    public int run(int ops) {
+        int n = 0;
+
+        if (parse) {
+            for (int i = 0; i < ops; i++) {
+                n += Version.parseVersions("1.3+ 1.4.2_05 1.4* 2.0-beta").length;
+            }
+        } else {
+            for (int i = 0; i < ops; i++) {
+                n += versions[i % versions.length].compareTo(versions[(i * 7 + 3) % versions.length]);
+            }
+        }
+
+        return n;
+    }
+}
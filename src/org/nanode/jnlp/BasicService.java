@@ -19,6 +19,8 @@ package org.nanode.jnlp;
 
 import java.net.URL;
 
+import org.nanode.launcher.cache.Cache;
+
 
 /**
  * Implements the JNLP BasicService which provides a set of methods for querying and interacting
@@ -45,12 +47,13 @@ public class BasicService implements javax.jnlp.BasicService {
 
     /**
      * Indicates if the app is running offline. Returns the "best guess" of the offline state
-     * of app.
+     * of app, which is whether the cache has been set offline.
      *
      * @return  <code>true</code> if the app is running offline; <code>false</code> otherwise
+     * @see     Cache#isOffline
      */
     public boolean isOffline() {
-        return false;
+        return Cache.isOffline();
     }
 
     /**
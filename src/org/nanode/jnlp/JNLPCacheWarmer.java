@@ -0,0 +1,128 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.jnlp;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Iterator;
+
+import org.nanode.launcher.Descriptor;
+import org.nanode.launcher.cache.Cache;
+import org.nanode.launcher.cache.CacheEntry;
+import org.nanode.launcher.cache.CacheWarmer;
+
+
+/**
+ * A cache warmer that re-parses the jnlp file of each cache entry after warming it, so that jars
+ * and nativelibs added to the jnlp file are warmed too. This can be run on its own to warm the
+ * default cache without a user interface, either once or on the schedule set by the
+ * <code>org.nanode.launcher.cache.warm*</code> system properties.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CacheWarmer
+ */
+public class JNLPCacheWarmer extends CacheWarmer {
+    /**
+     * Creates a warmer for the specified cache.
+     *
+     * @param   cache  the cache to warm
+     */
+    public JNLPCacheWarmer(Cache cache) {
+        super(cache);
+    }
+
+    /**
+     * Returns the descriptor of a cache entry parsed from its warmed jnlp file. If the jnlp file
+     * can not be parsed the descriptor the cache entry already has is returned.
+     *
+     * @param   entry  the cache entry
+     * @return  the descriptor or <code>null</code> if not known
+     */
+    protected Descriptor refreshDescriptor(CacheEntry entry) {
+        if (entry.getMetaInfo(CacheEntry.METAKEY_DESCRIPTOR) == null) {
+            return entry.getDescriptor();
+        }
+
+        try {
+            new JNLPParser.CachedJNLPParser(entry).parse();
+            JNLPParser.updateMetaInfo(entry);
+        } catch (ParseException e) {
+            System.err.println("Unable to parse descriptor of " + entry.getTitle() + " - " + e.getMessage());
+        }
+
+        return entry.getDescriptor();
+    }
+
+
+    /**
+     * Warms the default cache. With <code>-once</code> every cache entry is warmed once and the
+     * results are printed, otherwise the cache is warmed on schedule until the VM is stopped.
+     *
+     * @param   args  command line arguments
+     */
+    public static void main(String[] args) {
+        boolean once = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-once".equals(args[i])) {
+                once = true;
+            } else {
+                System.out.println("Usage: org.nanode.jnlp.JNLPCacheWarmer [-once]");
+                System.out.println();
+                System.out.println("where options include:");
+                System.out.println("    -once      warm every cache entry once and exit");
+                System.out.println();
+                System.out.println("Without -once the cache is warmed on the schedule set by the");
+                System.out.println(CacheWarmer.WARM_INTERVAL_PROPERTY + " and");
+                System.out.println(CacheWarmer.WARM_TIMES_PROPERTY + " system properties.");
+
+                return;
+            }
+        }
+
+        Cache cache = Cache.getDefaultCache();
+        CacheWarmer warmer = new JNLPCacheWarmer(cache);
+
+        if (once) {
+            warmer.warm();
+            cache.flush();
+
+            for (Iterator iter = cache.entries(); iter.hasNext();) {
+                CacheEntry entry = (CacheEntry) iter.next();
+                String result = entry.getMetaInfo(CacheEntry.METAKEY_WARMRESULT);
+
+                if (result != null) {
+                    System.out.println(entry.getTitle() + ": " + result + " (checked updated failed) at " + new Date(entry.getLastWarm()));
+                }
+            }
+
+            System.exit(0);
+        }
+
+        if (!warmer.isScheduled()) {
+            System.err.println("No warming scheduled; set " + CacheWarmer.WARM_INTERVAL_PROPERTY + " or " + CacheWarmer.WARM_TIMES_PROPERTY);
+            System.exit(1);
+        }
+
+        try {
+            warmer.runScheduled();
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+}
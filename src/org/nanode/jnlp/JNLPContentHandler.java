@@ -51,7 +51,7 @@ public class JNLPContentHandler extends DefaultHandler {
         "j2ee-application-client-permissions", "j2se", "jar", "jnlp",
         "jre", "nativelib", "offline-allowed", "package",
         "param", "property", "resources", "security",
-        "title", "vendor" };
+        "title", "update", "vendor" };
 
     private static final int TAG_UNKNOWN = -1;
     private static final int TAG_ALL_PERMISSIONS = 0;
@@ -79,7 +79,8 @@ public class JNLPContentHandler extends DefaultHandler {
     private static final int TAG_RESOURCES = 22;
     private static final int TAG_SECURITY = 23;
     private static final int TAG_TITLE = 24;
-    private static final int TAG_VENDOR = 25;
+    private static final int TAG_UPDATE = 25;
+    private static final int TAG_VENDOR = 26;
 
 
     Cache cache;
@@ -195,6 +196,7 @@ public class JNLPContentHandler extends DefaultHandler {
             case TAG_RESOURCES:			tagResources(attrs);		break;
             case TAG_SECURITY:			tagSecurity(attrs);			break;
             case TAG_TITLE:				tagTitle(attrs);			break;
+            case TAG_UPDATE:			tagUpdate(attrs);			break;
             case TAG_VENDOR:			tagVendor(attrs);			break;
             default:
                 //throw new SAXException("unknown start tag " + localName);
@@ -228,6 +230,7 @@ public class JNLPContentHandler extends DefaultHandler {
             case TAG_RESOURCES:			tagResources(null);			break;
             case TAG_SECURITY:			tagSecurity(null);			break;
             case TAG_TITLE:				tagTitle(null);				break;
+            case TAG_UPDATE:			tagUpdate(null);			break;
             case TAG_VENDOR:			tagVendor(null);			break;
             default:
                 //throw new SAXException("unknown end tag " + localName);
@@ -688,6 +691,14 @@ public class JNLPContentHandler extends DefaultHandler {
         }
     }
 
+    protected void tagUpdate(Attributes attrs) throws SAXException {
+        changeState(TAG_UPDATE, (attrs != null), TAG_JNLP);
+
+        if (attrs != null) {
+            jnlpSpec.setUpdate(attrs.getValue("check"), attrs.getValue("policy"));
+        }
+    }
+
     protected void tagVendor(Attributes attrs) throws SAXException {
         changeState(TAG_VENDOR, (attrs != null), TAG_INFORMATION);
 
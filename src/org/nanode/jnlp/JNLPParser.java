@@ -26,8 +26,13 @@ import java.net.URLConnection;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.nanode.launcher.Descriptor;
 import org.nanode.launcher.Launcher;
@@ -36,6 +41,7 @@ import org.nanode.launcher.Reference;
 import org.nanode.launcher.cache.Cache;
 import org.nanode.launcher.cache.CacheEntry;
 import org.nanode.launcher.cache.CachedResource;
+import org.nanode.launcher.cache.ContentEncoding;
 import org.nanode.launcher.cache.FileCache;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
@@ -58,6 +64,14 @@ public abstract class JNLPParser implements LauncherParser {
     /** the file extension for jnlp files, defined as <code>.jnlp</code> */
     public static final String JNLP_FILE_EXTENSION = ".jnlp";
 
+    /** system property with the milliseconds to wait for an update check with a timeout */
+    public static final String UPDATE_TIMEOUT_PROPERTY = "org.nanode.launcher.cache.updateTimeout";
+
+    /** system property that, when <code>true</code>, reports resources used without revalidation */
+    public static final String VERBOSE_PROPERTY = "org.nanode.launcher.cache.verbose";
+
+    private static final long DEFAULT_UPDATE_TIMEOUT = 1500L;
+
     private static final String[] options = { "-extclasspath", "-extcmd", "-extmain",
                                               "-help", "-internal",  "-setlibpath","-version",
                                              };
@@ -224,19 +238,11 @@ public abstract class JNLPParser implements LauncherParser {
         CacheEntry entry = parseDescriptor(cache, url);
         Descriptor des = getEntryDescriptor(entry);
 
-        // make sure eager jars are up-to-date
-        for (Enumeration enum = des.getResources().eagerJars(); enum.hasMoreElements();) {
-            Reference jarRef = (Reference) enum.nextElement();
-
-            entry.addResource(jarRef);
-        }
+        // make sure eager jars and nativelibs are up-to-date, as far as the update check allows
+        Reference[] eager = des.getResources().eagerReferences();
 
-        // make sure eager nativelibs are up-to-date
-        for (Enumeration enum = des.getResources().eagerNativelibs(); enum.hasMoreElements();) {
-            Reference libRef = (Reference) enum.nextElement();
-
-            entry.addResource(libRef);
-        }
+        updateResources(entry, eager, true);
+        reportSkippedRevalidations(entry, eager);
 
         if (internal) {
             Launcher.launchInternal(des, setLibPath);
@@ -318,6 +324,173 @@ public abstract class JNLPParser implements LauncherParser {
         return entry;
     }
 
+    /**
+     * Brings the referenced resources of a cache entry up to date for launching, as the
+     * <code>&lt;update&gt;</code> element of its descriptor asks.
+     * <p>
+     * If staged versions may be promoted, those staged by an earlier check are promoted first.
+     * With a check of <code>always</code> the resources are then updated before returning.
+     * Otherwise only the resources that are not cached yet are downloaded before returning, while
+     * newer versions of the others are staged in a background thread for the next launch. With a
+     * check of <code>timeout</code> this waits up to
+     * <code>org.nanode.launcher.cache.updateTimeout</code> milliseconds for the background check,
+     * and promotes what it staged if it finishes in time. A background check does not keep the
+     * virtual machine running, and is aborted if it exits first.
+     * <p>
+     * If staged versions may not be promoted, because the update policy asks the user first,
+     * no cached resource is replaced whatever the check. The resources that are not cached yet
+     * are downloaded, newer versions of the others are staged, and this waits for the check to
+     * finish. Promoting what is staged is then left to the caller, once the user agrees.
+     *
+     * @param   entry    the cache entry holding the resources
+     * @param   refs     the referenced resources to launch with
+     * @param   promote  whether staged versions may be promoted without asking, as the update
+     *                   policy allows
+     * @return  <code>true</code> if the update check goes on in the background; <code>false</code>
+     *          otherwise
+     * @see     JNLPSpecification#getUpdateCheck
+     * @see     CacheEntry#stageResources
+     */
+    public static boolean updateResources(final CacheEntry entry, Reference[] refs, boolean promote) {
+        Descriptor des = entry.getDescriptor();
+        String check = JNLPSpecification.CHECK_ALWAYS;
+
+        if (des != null && des.getContext() instanceof JNLPSpecification) {
+            check = ((JNLPSpecification) des.getContext()).getUpdateCheck();
+        }
+
+        if (promote) {
+            entry.promoteStaged();
+        }
+
+        if (promote && JNLPSpecification.CHECK_ALWAYS.equals(check)) {
+            entry.addResources(refs);
+
+            return false;
+        }
+
+        // URLs compared as strings, so no host names are resolved
+        Map byUrl = new HashMap();
+
+        for (Enumeration e = entry.cachedResources(); e.hasMoreElements();) {
+            CachedResource rsrc = (CachedResource) e.nextElement();
+
+            byUrl.put(rsrc.getReference().getURL().toString(), rsrc);
+        }
+
+        // resources not downloaded yet can not wait for the next launch
+        List cached = new ArrayList();
+        List missing = new ArrayList();
+
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i] == null) {
+                continue;
+            }
+
+            CachedResource cr = (CachedResource) byUrl.get(refs[i].getURL().toString());
+
+            ((cr != null && cr.length() > 0L) ? cached : missing).add(refs[i]);
+        }
+
+        if (missing.size() > 0) {
+            entry.addResources((Reference[]) missing.toArray(new Reference[0]));
+        }
+
+        if (cached.size() == 0) {
+            return false;
+        }
+
+        final Reference[] stage = (Reference[]) cached.toArray(new Reference[0]);
+
+        // the user is asked about what is staged once the check is done
+        if (!promote) {
+            entry.stageResources(stage);
+
+            return false;
+        }
+
+        // a check still going on when the app exits stops cleanly, leaving partial downloads to resume
+        final Thread abort = new Thread("update abort " + entry.getTitle()) {
+                public void run() {
+                    entry.abortUpdates();
+                }
+            };
+
+        Thread t = new Thread("update check " + entry.getTitle()) {
+                public void run() {
+                    try {
+                        entry.stageResources(stage);
+                    } finally {
+                        try {
+                            Runtime.getRuntime().removeShutdownHook(abort);
+                        } catch (IllegalStateException e) {
+                            // already exiting
+                        }
+                    }
+                }
+            };
+
+        Runtime.getRuntime().addShutdownHook(abort);
+
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+
+        if (JNLPSpecification.CHECK_TIMEOUT.equals(check)) {
+            try {
+                t.join(Long.getLong(UPDATE_TIMEOUT_PROPERTY, DEFAULT_UPDATE_TIMEOUT).longValue());
+            } catch (InterruptedException e) {
+            }
+
+            if (!t.isAlive()) {
+                entry.promoteStaged();
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reports which of the referenced resources were used from the cache entry without being
+     * revalidated by their last update, either because they were still fresh or because the
+     * cache is offline or their host unreachable. Nothing is reported unless the
+     * <code>org.nanode.launcher.cache.verbose</code> system property is <code>true</code>.
+     *
+     * @param   entry  the cache entry holding the resources
+     * @param   refs   the referenced resources that were updated
+     * @see     CachedResource#isRevalidationSkipped
+     */
+    public static void reportSkippedRevalidations(CacheEntry entry, Reference[] refs) {
+        if (entry == null || refs == null || !Boolean.getBoolean(VERBOSE_PROPERTY)) {
+            return;
+        }
+
+        // URLs compared as strings, so no host names are resolved
+        Set urls = new HashSet();
+
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i] != null) {
+                urls.add(refs[i].getURL().toString());
+            }
+        }
+
+        for (Enumeration e = entry.cachedResources(); e.hasMoreElements();) {
+            CachedResource cr = (CachedResource) e.nextElement();
+
+            if (!cr.isRevalidationSkipped() || !urls.contains(cr.getReference().getURL().toString())) {
+                continue;
+            }
+
+            if (cr.isFresh()) {
+                System.out.println("Not revalidated, fresh until " + new Date(cr.getExpires()) + ": " + cr.getReference().getURL());
+            } else {
+                System.out.println("Not revalidated, offline or unreachable: " + cr.getReference().getURL());
+            }
+        }
+    }
+
     /**
      * Updates meta information in the specified cache entry. The meta information updated is
      * icon and descriptor urls, if defined. Updating only occurs on each meta information value
@@ -490,6 +663,8 @@ public abstract class JNLPParser implements LauncherParser {
         protected InputStream openInputStream() throws IOException {
             URLConnection uc = srcURL.openConnection();
 
+            ContentEncoding.accept(uc);
+
             // if using http and not an OK, throw error
             if (uc instanceof HttpURLConnection) {
                 HttpURLConnection huc = (HttpURLConnection) uc;
@@ -504,7 +679,7 @@ public abstract class JNLPParser implements LauncherParser {
                 throw new IOException("Bad MIME type: " + uc.getContentType());
             }
 
-            return srcURL.openStream();
+            return ContentEncoding.decode(uc, uc.getInputStream());
         }
     }
 
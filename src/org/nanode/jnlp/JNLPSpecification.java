@@ -31,11 +31,32 @@ import org.nanode.launcher.Version;
 public class JNLPSpecification {
     public static final Version[] DEFAULT_JNLP_VERSIONS = Version.parseVersions("1.0+");
 
+    /** check for updates before launching, however long it takes */
+    public static final String CHECK_ALWAYS = "always";
+
+    /** check for updates before launching for a short while, then launch and finish in the background */
+    public static final String CHECK_TIMEOUT = "timeout";
+
+    /** launch right away and check for updates in the background */
+    public static final String CHECK_BACKGROUND = "background";
+
+    /** use updates without asking */
+    public static final String POLICY_ALWAYS = "always";
+
+    /** ask whether to use updates, launching the current version if not */
+    public static final String POLICY_PROMPT_UPDATE = "prompt-update";
+
+    /** ask whether to use updates, not launching at all if not */
+    public static final String POLICY_PROMPT_RUN = "prompt-run";
+
 
     Reference jnlpRef;
     URL codebase;
     Version[] specification;
 
+    String updateCheck = CHECK_TIMEOUT;
+    String updatePolicy = POLICY_ALWAYS;
+
 
     public JNLPSpecification(Reference src, URL base) {
         this(src, base, null);
@@ -59,6 +80,43 @@ public class JNLPSpecification {
         return ((specification != null) ? specification : DEFAULT_JNLP_VERSIONS);
     }
 
+    /**
+     * Returns when to check for updates, as set by the <code>check</code> attribute of the
+     * <code>&lt;update&gt;</code> element.
+     *
+     * @return  <code>CHECK_ALWAYS</code>, <code>CHECK_TIMEOUT</code> or <code>CHECK_BACKGROUND</code>
+     */
+    public String getUpdateCheck() {
+        return updateCheck;
+    }
+
+    /**
+     * Returns what to do when an update is found, as set by the <code>policy</code> attribute of
+     * the <code>&lt;update&gt;</code> element.
+     *
+     * @return  <code>POLICY_ALWAYS</code>, <code>POLICY_PROMPT_UPDATE</code> or <code>POLICY_PROMPT_RUN</code>
+     */
+    public String getUpdatePolicy() {
+        return updatePolicy;
+    }
+
+    /**
+     * Sets the update check and policy. Values that are not known leave the default, which is
+     * to check with a timeout and always use updates.
+     *
+     * @param   check   when to check for updates
+     * @param   policy  what to do when an update is found
+     */
+    public void setUpdate(String check, String policy) {
+        if (CHECK_ALWAYS.equals(check) || CHECK_TIMEOUT.equals(check) || CHECK_BACKGROUND.equals(check)) {
+            updateCheck = check;
+        }
+
+        if (POLICY_ALWAYS.equals(policy) || POLICY_PROMPT_UPDATE.equals(policy) || POLICY_PROMPT_RUN.equals(policy)) {
+            updatePolicy = policy;
+        }
+    }
+
     public String getJNLPName() {
         return jnlpRef.getURL().getFile().substring(jnlpRef.getURL().getFile().lastIndexOf("/"));
     }
@@ -85,7 +143,11 @@ public class JNLPSpecification {
             }
         }
 
-        sb.append(")]");
+        sb.append("),update=");
+        sb.append(updateCheck);
+        sb.append('/');
+        sb.append(updatePolicy);
+        sb.append(']');
 
         return sb.toString();
     }
@@ -141,9 +141,14 @@ class AppContext implements Runnable {
         new Thread(stdin, "stdin").start();
         new Thread(stderr, "stderr").start();
 
+        // the app's cache entry is in use for as long as the process runs
+        appEntry.acquire();
+
         try {
             process.waitFor();
         } catch (InterruptedException e) {
+        } finally {
+            appEntry.release();
         }
 
         stdin.finish();
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
+import org.nanode.launcher.cache.Cache;
 import org.nanode.launcher.cache.CacheEntry;
 import org.nanode.launcher.cache.FileCache;
 import org.nanode.launcher.cache.FileCacheEntry;
@@ -139,6 +140,11 @@ public class Launcher {
         }
 
         cmd.add("-Djava.ext.dirs=" + launchDir);
+
+        // an app launched offline starts out offline, without trying to revalidate again
+        if (Cache.isOffline()) {
+            cmd.add("-D" + Cache.OFFLINE_PROPERTY + "=true");
+        }
         cmd.add(launchProperties.getProperty(propMain));
         cmd.add("-internal");
         cmd.add(launchDescriptor.getSource().getURL().toString());
@@ -425,6 +431,8 @@ public class Launcher {
 
         updateLauncher();		// make sure external launcher is up-to-date
 
+        des.getCacheEntry().flush();	// the external launcher reads the cache entry from disk
+
         Launcher launcher = new Launcher(des);
 
         try {
@@ -453,6 +461,12 @@ public class Launcher {
             return;         // can't launch if undefined
         }
 
+        des.getCacheEntry().recordLaunch();		// an external launch ends up here in the other VM
+        des.getCacheEntry().flush();
+
+        // the app runs in this virtual machine until it exits, so its entry stays in use
+        des.getCacheEntry().acquire();
+
         AppContext appContext = new AppContext(des, null);
 
         ThreadGroup appGroup = new ThreadGroup(getLaunchGroup(), des.getInformation().getDefaultTitle());
@@ -93,6 +93,35 @@ public class Reference {
         return versions;
     }
 
+    /**
+     * Returns whether or not this reference asks for particular version-ids of the url. An
+     * unversioned reference has only <code>Version.EMPTY_VERSION</code>.
+     *
+     * @return  <code>true</code> if this reference is versioned; <code>false</code> otherwise
+     */
+    public boolean isVersioned() {
+        return !(versions.length == 1 && versions[0].toString().length() == 0);
+    }
+
+    /**
+     * Returns whether or not the specified version-id satisfies this reference. It does if it
+     * matches any of the version-ids of this reference, taking their modifiers into account.
+     *
+     * @param   ver  the version-id to check
+     * @return  <code>true</code> if the version-id satisfies this reference; <code>false</code>
+     *          otherwise
+     * @see     Version#equals
+     */
+    public boolean matchesVersion(Version ver) {
+        for (int i = 0; i < versions.length; i++) {
+            if (versions[i].equals(ver)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Returns whether or not this resource should be treated as lazy-downloable.
      *
@@ -94,6 +94,26 @@ public class Resources {
         return new RsrcEnumeration(NativelibReference.class, false);
     }
 
+    /**
+     * Returns all of the eager references, jars followed by nativelibs. This is the set of
+     * resources that must be up-to-date in the cache before launching.
+     *
+     * @return  array of eager references
+     */
+    public Reference[] eagerReferences() {
+        List list = new ArrayList();
+
+        for (Enumeration e = eagerJars(); e.hasMoreElements();) {
+            list.add(e.nextElement());
+        }
+
+        for (Enumeration e = eagerNativelibs(); e.hasMoreElements();) {
+            list.add(e.nextElement());
+        }
+
+        return (Reference[]) list.toArray(new Reference[0]);
+    }
+
     public Enumeration jars() {
         return new RsrcEnumeration(Reference.class);
     }
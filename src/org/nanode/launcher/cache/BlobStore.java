@@ -0,0 +1,472 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+ * A store of resource bytes shared by all of the cache entries in a file cache. Each blob is a
+ * file named by the SHA-256 digest of its contents, so a resource used by many cache entries is
+ * only stored once. Blobs are reference counted and removed once no cached resource refers to
+ * them anymore.
+ * <p>
+ * The store also remembers which blob, validators and expiration time were last stored for each
+ * URL. A cached resource that is new to a cache entry adopts that blob instead of downloading the
+ * same bytes again, and while it is fresh does not even revalidate it.
+ * <p>
+ * Reference counts and the URL index are kept in <em>blobs.properties</em> in the store
+ * directory. Changes to it are made under a file lock so that several VMs can share the store.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see FileCache#getBlobStore
+ */
+public class BlobStore {
+    /** the digest algorithm used to name blobs */
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String indexFileName = "blobs.properties";
+    private static final String lockFileName = "blobs.lock";
+
+    private static final String REF_PREFIX = "ref.";
+    private static final String URL_PREFIX = "url.";
+    private static final String EXPIRES_PREFIX = "expires.";
+
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+
+    /** the directory holding the blobs */
+    private File blobDir;
+
+    /** whether new downloads are put in this store */
+    private boolean enabled;
+
+    private Properties index;		// reference counts and URL index
+    private long indexLastMod;		// last modified date of index file when last read
+
+
+    /**
+     * Creates a blob store in the specified directory. Nothing is created on disk until the
+     * first blob is stored.
+     *
+     * @param   dir      the directory for the blob store
+     * @param   enabled  whether new downloads should be put in this store
+     */
+    public BlobStore(File dir, boolean enabled) {
+        blobDir = dir;
+        this.enabled = enabled;
+
+        index = new Properties();
+        indexLastMod = 0L;
+    }
+
+    /**
+     * Returns the directory that holds the blobs.
+     *
+     * @return  blob directory
+     */
+    public File getDirectory() {
+        return blobDir;
+    }
+
+    /**
+     * Indicates whether new downloads are put in this store. Blobs already stored can always
+     * be read.
+     *
+     * @return  <code>true</code> if enabled; <code>false</code> otherwise
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the file holding the blob with the specified digest. The file may not exist.
+     *
+     * @param   digest  the hex-encoded digest of the blob
+     * @return  the blob file
+     */
+    public File blobFile(String digest) {
+        return new File(new File(blobDir, digest.substring(0, 2)), digest);
+    }
+
+    /**
+     * Indicates whether the blob with the specified digest is in this store.
+     *
+     * @param   digest  the hex-encoded digest of the blob
+     * @return  <code>true</code> if the blob is stored; <code>false</code> otherwise
+     */
+    public boolean contains(String digest) {
+        return (digest != null && blobFile(digest).isFile());
+    }
+
+    /**
+     * Moves the specified file into this store and acquires a reference to the resulting blob.
+     * If an identical blob is already stored the file is simply deleted.
+     *
+     * @param   f  the file to store
+     * @return  the hex-encoded digest of the blob
+     * @throws  IOException if the file can not be read or moved into the store
+     */
+    public String store(File f) throws IOException {
+        return store(f, digest(f));
+    }
+
+    /**
+     * Moves the specified file into this store and acquires a reference to the resulting blob,
+     * when the digest of the file is already known. This saves reading the file again.
+     *
+     * @param   f       the file to store
+     * @param   digest  the hex-encoded digest of the file
+     * @return  the hex-encoded digest of the blob
+     * @throws  IOException if the file can not be moved into the store
+     * @see     #store(File)
+     */
+    public String store(final File f, final String digest) throws IOException {
+        modifyIndex(new IndexChange() {
+                public void apply(Properties props) throws IOException {
+                    File blob = blobFile(digest);
+
+                    if (blob.isFile()) {
+                        f.delete();
+                    } else {
+                        blob.getParentFile().mkdirs();
+
+                        if (!f.renameTo(blob)) {
+                            throw new IOException("Unable to move " + f + " to " + blob);
+                        }
+                    }
+
+                    adjustCount(props, digest, 1);
+                }
+            });
+
+        return digest;
+    }
+
+    /**
+     * Acquires a reference to the blob with the specified digest.
+     *
+     * @param   digest  the hex-encoded digest of the blob
+     * @return  <code>true</code> if the blob is stored and a reference acquired; <code>false</code>
+     *          otherwise
+     */
+    public boolean acquire(final String digest) {
+        final boolean[] acquired = { false };
+
+        try {
+            modifyIndex(new IndexChange() {
+                    public void apply(Properties props) {
+                        if (contains(digest)) {
+                            adjustCount(props, digest, 1);
+                            acquired[0] = true;
+                        }
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+
+        return acquired[0];
+    }
+
+    /**
+     * Releases a reference to the blob with the specified digest. When the last reference is
+     * released the blob is removed from this store, along with any URLs that refer to it.
+     *
+     * @param   digest  the hex-encoded digest of the blob
+     */
+    public void release(final String digest) {
+        try {
+            modifyIndex(new IndexChange() {
+                    public void apply(Properties props) {
+                        if (adjustCount(props, digest, -1) > 0) {
+                            return;
+                        }
+
+                        blobFile(digest).delete();
+
+                        List stale = new ArrayList();
+
+                        for (Enumeration e = props.propertyNames(); e.hasMoreElements();) {
+                            String key = (String) e.nextElement();
+
+                            if (key.startsWith(URL_PREFIX) && props.getProperty(key).startsWith(digest)) {
+                                stale.add(key);
+                            }
+                        }
+
+                        for (Iterator iter = stale.iterator(); iter.hasNext();) {
+                            String key = (String) iter.next();
+
+                            props.remove(key);
+                            props.remove(EXPIRES_PREFIX + key.substring(URL_PREFIX.length()));
+                        }
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Records that the blob with the specified digest holds the referenced URL as described by
+     * the specified validators, and that it is fresh until the specified time.
+     *
+     * @param   url           the URL of the resource
+     * @param   digest        the hex-encoded digest of the blob
+     * @param   lastModified  the last-modified date of the resource
+     * @param   entityTag     the entity tag of the resource, or <code>null</code> if none
+     * @param   expires       the time until which the resource is fresh, or 0
+     */
+    public void remember(URL url, String digest, long lastModified, String entityTag, final long expires) {
+        final String key = URL_PREFIX + url.toString();
+        final String expiresKey = EXPIRES_PREFIX + url.toString();
+        final String value = digest + " " + lastModified + ((entityTag != null) ? " " + entityTag : "");
+
+        try {
+            modifyIndex(new IndexChange() {
+                    public void apply(Properties props) {
+                        props.setProperty(key, value);
+
+                        if (expires > 0L) {
+                            props.setProperty(expiresKey, Long.toString(expires));
+                        } else {
+                            props.remove(expiresKey);
+                        }
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Looks up the blob last stored for the specified URL. The result is an array of the
+     * digest, the last-modified date, the entity tag (which may be <code>null</code>) and the
+     * expiration time (<code>"0"</code> if none).
+     *
+     * @param   url  the URL of the resource
+     * @return  digest, validators and expiration time or <code>null</code> if no blob is stored
+     *          for the URL
+     */
+    public String[] lookup(URL url) {
+        String value;
+        String expires;
+
+        synchronized (this) {
+            readIndex();
+
+            value = index.getProperty(URL_PREFIX + url.toString());
+            expires = index.getProperty(EXPIRES_PREFIX + url.toString(), "0");
+        }
+
+        if (value == null) {
+            return null;
+        }
+
+        int i = value.indexOf(' ');
+        int j = value.indexOf(' ', i + 1);
+
+        if (i < 0) {
+            return null;
+        }
+
+        String[] rec = new String[4];
+        rec[0] = value.substring(0, i);
+        rec[1] = (j < 0) ? value.substring(i + 1) : value.substring(i + 1, j);
+        rec[2] = (j < 0) ? null : value.substring(j + 1);
+        rec[3] = expires;
+
+        return (contains(rec[0])) ? rec : null;
+    }
+
+    /**
+     * Returns the number of references to the blob with the specified digest.
+     *
+     * @param   digest  the hex-encoded digest of the blob
+     * @return  reference count
+     */
+    public synchronized int referenceCount(String digest) {
+        readIndex();
+
+        return Integer.parseInt(index.getProperty(REF_PREFIX + digest, "0"));
+    }
+
+    /**
+     * Re-reads the index file if it changed since it was last read.
+     */
+    private void readIndex() {
+        File f = new File(blobDir, indexFileName);
+        long mod = f.lastModified();
+
+        if (mod == indexLastMod) {
+            return;
+        }
+
+        Properties props = new Properties();
+
+        if (mod != 0L) {
+            try {
+                InputStream is = new FileInputStream(f);
+
+                props.load(is);
+                is.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+
+        index = props;
+        indexLastMod = mod;
+    }
+
+    /**
+     * Applies a change to the index while holding the store lock, then writes the index back.
+     * The index is written to a temporary file that is renamed over the index file.
+     *
+     * @param   change  the change to apply
+     * @throws  IOException if the store can not be locked or the index can not be written
+     */
+    private synchronized void modifyIndex(IndexChange change) throws IOException {
+        blobDir.mkdirs();
+
+        RandomAccessFile lockFile = new RandomAccessFile(new File(blobDir, lockFileName), "rw");
+        FileLock lock = null;
+
+        try {
+            lock = lockFile.getChannel().lock();
+
+            indexLastMod = -1L;		// always re-read while locked
+            readIndex();
+            change.apply(index);
+
+            File f = new File(blobDir, indexFileName);
+            File tmp = new File(blobDir, indexFileName + ".tmp");
+            OutputStream os = new FileOutputStream(tmp);
+
+            index.store(os, "OpenJNLP blob store");
+            os.close();
+
+            if (!tmp.renameTo(f) && !(f.delete() && tmp.renameTo(f))) {
+                throw new IOException("Unable to write " + f);
+            }
+
+            indexLastMod = f.lastModified();
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+
+            lockFile.close();
+        }
+    }
+
+    /**
+     * Adds the specified amount to the reference count of a blob, removing the count once it
+     * drops to zero.
+     *
+     * @param   props   the index
+     * @param   digest  the hex-encoded digest of the blob
+     * @param   amount  the amount to add
+     * @return  the new reference count
+     */
+    private static int adjustCount(Properties props, String digest, int amount) {
+        String key = REF_PREFIX + digest;
+        int count = Integer.parseInt(props.getProperty(key, "0")) + amount;
+
+        if (count > 0) {
+            props.setProperty(key, Integer.toString(count));
+        } else {
+            props.remove(key);
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Returns the hex-encoded digest of the contents of the specified file.
+     *
+     * @param   f  the file to digest
+     * @return  hex-encoded digest
+     * @throws  IOException if the file can not be read
+     */
+    public static String digest(File f) throws IOException {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        InputStream is = new FileInputStream(f);
+
+        try {
+            byte[] buffer = new byte[8192];
+
+            for (int read = 0; (read = is.read(buffer)) != -1;) {
+                md.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        return toHex(md.digest());
+    }
+
+    /**
+     * Returns the specified bytes as a string of lowercase hex digits.
+     *
+     * @param   bytes  the bytes to encode
+     * @return  hex-encoded string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuffer sb = new StringBuffer(bytes.length * 2);
+
+        for (int i = 0; i < bytes.length; i++) {
+            sb.append(hexDigits[(bytes[i] >> 4) & 0x0f]);
+            sb.append(hexDigits[bytes[i] & 0x0f]);
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * A change to the index applied while the store is locked.
+     */
+    private interface IndexChange {
+        void apply(Properties props) throws IOException;
+    }
+}
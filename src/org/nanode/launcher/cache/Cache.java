@@ -18,7 +18,9 @@
 package org.nanode.launcher.cache;
 
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.nanode.launcher.Descriptor;
 
@@ -35,12 +37,25 @@ import org.nanode.launcher.Descriptor;
 public abstract class Cache {
     public static final String CACHE_PROPERTY = "org.nanode.launcher.cache";
 
+    /** system property that starts the cache offline */
+    public static final String OFFLINE_PROPERTY = "org.nanode.launcher.cache.offline";
+
+    /** system property with the milliseconds a host that could not be reached is not tried again */
+    public static final String PROBE_INTERVAL_PROPERTY = "org.nanode.launcher.cache.probeInterval";
+
+    /** default milliseconds before a host that could not be reached is tried again */
+    public static final long DEFAULT_PROBE_INTERVAL = 60000L;
+
     protected static final String DEFAULT_CACHE = "org.nanode.launcher.cache.FileCache";
     protected static final CacheListener[] emptyList = new CacheListener[0];
 
 
     private static Cache defaultCache;         // the instance of the cache implementation
 
+    private static volatile boolean offline = Boolean.getBoolean(OFFLINE_PROPERTY);
+
+    private static final Map unreachable = new HashMap();		// host name to time it failed
+
     protected transient CacheListener[] listenerList = emptyList;
 
 
@@ -123,6 +138,19 @@ public abstract class Cache {
         }
     }
 
+    /**
+     * Tells listeners the results of scrubbing a cache entry. Scrub events are delivered as
+     * updates, with the type <code>CacheEvent.ENTRY_SCRUBBED</code>.
+     *
+     * @param   evt  the scrub event
+     * @see     CacheScrubber
+     */
+    protected void fireCacheEntryScrubbed(ScrubEvent evt) {
+        for (int i = 0; i < listenerList.length; i++) {
+            listenerList[i].cacheEntryUpdated(evt);
+        }
+    }
+
     public CacheEntry entryFromDescriptorURL(URL descURL) {
         String desc = descURL.toString();
 
@@ -141,6 +169,19 @@ public abstract class Cache {
 
     public abstract Iterator entries();
 
+    /**
+     * Writes out any changes to cache entries that have not been made persistent yet.
+     * <p>
+     * This implementation flushes each cache entry in turn.
+     *
+     * @see     CacheEntry#flush
+     */
+    public void flush() {
+        for (Iterator iter = entries(); iter.hasNext();) {
+            ((CacheEntry) iter.next()).flush();
+        }
+    }
+
 
     /**
      * Gets the default cache.
@@ -176,4 +217,83 @@ public abstract class Cache {
 
         return defaultCache;    // this will only be reached if successfully defined
     }
+
+    /**
+     * Indicates whether the cache is offline. This is set by the user, or by the
+     * <code>org.nanode.launcher.cache.offline</code> system property, and never changes by
+     * itself.
+     * <p>
+     * While offline, the cached resources of cache entries whose descriptor allows offline use
+     * are not revalidated.
+     *
+     * @return  <code>true</code> if offline; <code>false</code> otherwise
+     * @see     org.nanode.launcher.Information#allowOffline
+     * @see     #isUnreachable
+     */
+    public static boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Sets whether the cache is offline.
+     *
+     * @param   newOffline  <code>true</code> if offline; <code>false</code> otherwise
+     */
+    public static void setOffline(boolean newOffline) {
+        offline = newOffline;
+    }
+
+    /**
+     * Indicates whether the specified host could not be resolved or connected to recently. A
+     * host that failed is treated as unreachable for
+     * <code>org.nanode.launcher.cache.probeInterval</code> milliseconds, after which the next
+     * request probes it again.
+     * <p>
+     * Cached resources from an unreachable host are not revalidated if their cache entry allows
+     * offline use, as if the cache were offline.
+     *
+     * @param   host  the host name
+     * @return  <code>true</code> if the host is unreachable; <code>false</code> otherwise
+     * @see     #isOffline
+     */
+    public static boolean isUnreachable(String host) {
+        synchronized (unreachable) {
+            Long failed = (Long) unreachable.get(host);
+
+            if (failed == null) {
+                return false;
+            }
+
+            long interval = Long.getLong(PROBE_INTERVAL_PROPERTY, DEFAULT_PROBE_INTERVAL).longValue();
+
+            if (System.currentTimeMillis() - failed.longValue() < interval) {
+                return true;
+            }
+
+            unreachable.remove(host);
+
+            return false;
+        }
+    }
+
+    /**
+     * Records whether the specified host could be reached by the last request made to it.
+     *
+     * @param   host       the host name
+     * @param   reachable  <code>true</code> if the host responded; <code>false</code> if it could
+     *                     not be resolved or connected to
+     */
+    static void setReachable(String host, boolean reachable) {
+        if (host == null) {
+            return;
+        }
+
+        synchronized (unreachable) {
+            if (reachable) {
+                unreachable.remove(host);
+            } else {
+                unreachable.put(host, new Long(System.currentTimeMillis()));
+            }
+        }
+    }
 }
@@ -45,6 +45,18 @@ public abstract class CacheEntry extends Observable {
     /** meta info key for retrieving this cache entry's icon URL */
     public static final String METAKEY_ICON = "icon";
 
+    /** meta info key for retrieving when this cache entry was last launched */
+    public static final String METAKEY_LASTLAUNCH = "lastlaunch";
+
+    /** meta info key for retrieving how many times this cache entry has been launched */
+    public static final String METAKEY_LAUNCHCOUNT = "launchcount";
+
+    /** meta info key for retrieving when this cache entry was last warmed */
+    public static final String METAKEY_LASTWARM = "lastwarm";
+
+    /** meta info key for retrieving how many resources the last warming checked, updated and failed on */
+    public static final String METAKEY_WARMRESULT = "warmresult";
+
 
     /** the vendor name for this cache entry */
     protected String vendor;
@@ -55,6 +67,8 @@ public abstract class CacheEntry extends Observable {
     /** the key that uniquely identifies this cache entry within a cache */
     protected String entryKey;
 
+    private int useCount;		// number of users that hold this cache entry
+
 
     /**
      * Creates a cache entry with the specified vendor and title. Combined, these two
@@ -203,6 +217,200 @@ public abstract class CacheEntry extends Observable {
      */
     public abstract boolean addResource(Reference ref);
 
+    /**
+     * Adds each of the referenced resources to this cache entry, updating the eager ones, and
+     * returns when all of them have been dealt with. Any <code>null</code> references are ignored.
+     * <p>
+     * This implementation simply calls <code>addResource</code> for each reference in turn. A
+     * subclass may override this to update the resources in parallel.
+     *
+     * @param   refs  the referenced resources
+     * @return  the number of referenced resources that were not already in this cache entry
+     * @see     #addResource
+     */
+    public int addResources(Reference[] refs) {
+        int added = 0;
+
+        for (int i = 0; refs != null && i < refs.length; i++) {
+            if (refs[i] != null && addResource(refs[i])) {
+                added++;
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Adds each of the referenced resources to this cache entry like <code>addResources</code>,
+     * except that newer versions of eager resources that are already cached are staged instead
+     * of replacing them. Eager resources that are not cached yet are downloaded as usual.
+     * <p>
+     * This implementation simply calls <code>addResources</code>.
+     *
+     * @param   refs  the referenced resources
+     * @return  the number of referenced resources that were not already in this cache entry
+     * @see     CachedResource#stage
+     * @see     #promoteStaged
+     */
+    public int stageResources(Reference[] refs) {
+        return addResources(refs);
+    }
+
+    /**
+     * Indicates whether any of the cached resources in this cache entry has a staged version.
+     *
+     * @return  <code>true</code> if a version is staged; <code>false</code> otherwise
+     */
+    public boolean hasStagedResources() {
+        for (Enumeration e = cachedResources(); e.hasMoreElements();) {
+            if (((CachedResource) e.nextElement()).isStaged()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Makes the staged versions of the cached resources in this cache entry the cached
+     * resources. This is done before launching, so the app sees the versions downloaded in the
+     * background since it was last launched.
+     *
+     * @return  the number of cached resources promoted
+     * @see     CachedResource#promoteStaged
+     */
+    public int promoteStaged() {
+        int promoted = 0;
+
+        for (Enumeration e = cachedResources(); e.hasMoreElements();) {
+            if (((CachedResource) e.nextElement()).promoteStaged()) {
+                promoted++;
+            }
+        }
+
+        return promoted;
+    }
+
+    /**
+     * Aborts any updates of cached resources in this cache entry that are in progress. Resources
+     * waiting to be updated by <code>addResources</code> are skipped as well.
+     * <p>
+     * This implementation aborts the update of each cached resource in this cache entry.
+     *
+     * @see     CachedResource#abortUpdate
+     */
+    public void abortUpdates() {
+        for (Enumeration e = cachedResources(); e.hasMoreElements();) {
+            ((CachedResource) e.nextElement()).abortUpdate();
+        }
+    }
+
+    /**
+     * Writes out any changes to this cache entry that have not been made persistent yet. This
+     * is called before launching, so that a launched app sees an up-to-date cache entry.
+     * <p>
+     * This implementation does nothing; a subclass that defers writing should override it.
+     */
+    public void flush() {
+    }
+
+    /**
+     * Records that this cache entry is being launched, updating its last launch date and
+     * launch count.
+     *
+     * @see     #getLastLaunch
+     * @see     #getLaunchCount
+     */
+    public void recordLaunch() {
+        setMetaInfo(METAKEY_LASTLAUNCH, Long.toString(System.currentTimeMillis()));
+        setMetaInfo(METAKEY_LAUNCHCOUNT, Integer.toString(getLaunchCount() + 1));
+    }
+
+    /**
+     * Returns when this cache entry was last launched.
+     *
+     * @return  the last launch date or <code>0</code> if it was never launched
+     */
+    public long getLastLaunch() {
+        try {
+            return Long.parseLong(getMetaInfo(METAKEY_LASTLAUNCH));
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Returns how many times this cache entry has been launched.
+     *
+     * @return  the launch count
+     */
+    public int getLaunchCount() {
+        try {
+            return Integer.parseInt(getMetaInfo(METAKEY_LAUNCHCOUNT));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Records that the resources of this cache entry were warmed, updating its last warm date
+     * and the result of warming.
+     *
+     * @param   checked  the number of resources revalidated or downloaded
+     * @param   updated  the number of resources that changed
+     * @param   failed   the number of resources that could not be revalidated
+     * @see     #getLastWarm
+     * @see     CacheWarmer
+     */
+    public void recordWarm(int checked, int updated, int failed) {
+        setMetaInfo(METAKEY_LASTWARM, Long.toString(System.currentTimeMillis()));
+        setMetaInfo(METAKEY_WARMRESULT, checked + " " + updated + " " + failed);
+    }
+
+    /**
+     * Returns when the resources of this cache entry were last warmed.
+     *
+     * @return  the last warm date or <code>0</code> if it was never warmed
+     */
+    public long getLastWarm() {
+        try {
+            return Long.parseLong(getMetaInfo(METAKEY_LASTWARM));
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Marks this cache entry as in use, such as by a running app or an update of its resources.
+     * A cache entry that is in use is never evicted from its cache. Each call must be matched
+     * by a call to <code>release</code>.
+     *
+     * @see     #release
+     */
+    public synchronized void acquire() {
+        useCount++;
+    }
+
+    /**
+     * Releases a use of this cache entry that was marked by <code>acquire</code>.
+     *
+     * @see     #acquire
+     */
+    public synchronized void release() {
+        if (useCount > 0) {
+            useCount--;
+        }
+    }
+
+    /**
+     * Indicates whether this cache entry is in use.
+     *
+     * @return  <code>true</code> if this cache entry is in use; <code>false</code> otherwise
+     */
+    public synchronized boolean isInUse() {
+        return (useCount > 0);
+    }
+
     /**
      * Removes a referenced resource from this cache entry. This method should be overridden by a subclass.
      * <p>
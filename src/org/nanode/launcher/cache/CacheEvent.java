@@ -28,6 +28,9 @@ public class CacheEvent extends EventObject {
     public static final int ENTRY_REMOVED = 1;
     public static final int ENTRY_UPDATED = 2;
 
+    /** the cached resources of an entry were checked by the scrubber, see <code>ScrubEvent</code> */
+    public static final int ENTRY_SCRUBBED = 3;
+
 
     protected int type;
     protected CacheEntry entry;
@@ -0,0 +1,276 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Counters and histograms of what the cache is doing, across all caches in this virtual machine.
+ * The counters are:
+ * <ul>
+ *  <li>hits, where a cached resource is used without contacting its origin</li>
+ *  <li>misses, where a cached resource is downloaded</li>
+ *  <li>revalidations, where the origin reports that a cached resource is still current</li>
+ *  <li>bytes downloaded, in total and per host</li>
+ *  <li>reads and writes of cache entry index files</li>
+ * </ul>
+ * and the histograms are the latency of downloads and how long class loaders wait for lazy jars.
+ * <p>
+ * Recording a value allocates nothing, except the first time bytes are downloaded from a host.
+ * When the platform MBean server is available the metrics are registered with it under the
+ * name <code>org.nanode.launcher:type=CacheMetrics</code>.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+    /** the name the metrics are registered under with the platform MBean server */
+    public static final String OBJECT_NAME = "org.nanode.launcher:type=CacheMetrics";
+
+    /** upper bounds, in milliseconds, of the histogram buckets; the last bucket is unbounded */
+    private static final long[] bounds = { 1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 30000L };
+
+    private static CacheMetrics metrics;
+
+
+    private long hits;
+    private long misses;
+    private long revalidations;
+    private long bytesDownloaded;
+    private long indexReads;
+    private long indexWrites;
+
+    private Map hostBytes;			// (String, long[1]) of bytes downloaded per host
+
+    private long[] downloadLatency;
+    private long downloadLatencyTotal;
+
+    private long[] loaderWait;
+    private long loaderWaitTotal;
+
+
+    /**
+     * Creates a set of metrics with all values zero.
+     */
+    public CacheMetrics() {
+        hostBytes = new HashMap();
+        downloadLatency = new long[bounds.length + 1];
+        loaderWait = new long[bounds.length + 1];
+    }
+
+    /** Records that a cached resource was used without contacting its origin. */
+    public synchronized void recordHit() {
+        hits++;
+    }
+
+    /**
+     * Records that a cached resource was downloaded.
+     *
+     * @param   millis  how long the download took
+     */
+    public synchronized void recordMiss(long millis) {
+        misses++;
+        downloadLatency[bucket(millis)]++;
+        downloadLatencyTotal += millis;
+    }
+
+    /** Records that the origin reported a cached resource is still current. */
+    public synchronized void recordRevalidation() {
+        revalidations++;
+    }
+
+    /**
+     * Records bytes downloaded from a host.
+     *
+     * @param   host   the host
+     * @param   bytes  number of bytes downloaded
+     */
+    public synchronized void recordBytes(String host, long bytes) {
+        long[] count = (long[]) hostBytes.get(host);
+
+        if (count == null) {
+            hostBytes.put(host, count = new long[1]);
+        }
+
+        count[0] += bytes;
+        bytesDownloaded += bytes;
+    }
+
+    /** Records that a cache entry index file was read. */
+    public synchronized void recordIndexRead() {
+        indexReads++;
+    }
+
+    /** Records that a cache entry index file was written. */
+    public synchronized void recordIndexWrite() {
+        indexWrites++;
+    }
+
+    /**
+     * Records that a class loader waited for a lazy jar.
+     *
+     * @param   millis  how long the class loader waited
+     */
+    public synchronized void recordClassLoaderWait(long millis) {
+        loaderWait[bucket(millis)]++;
+        loaderWaitTotal += millis;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getRevalidations() {
+        return revalidations;
+    }
+
+    public synchronized long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * Returns the hosts that bytes have been downloaded from.
+     *
+     * @return  array of host names
+     */
+    public synchronized String[] getHosts() {
+        return (String[]) hostBytes.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Returns the number of bytes downloaded from a host.
+     *
+     * @param   host  the host
+     * @return  bytes downloaded
+     */
+    public synchronized long getBytesDownloaded(String host) {
+        long[] count = (long[]) hostBytes.get(host);
+
+        return (count != null) ? count[0] : 0L;
+    }
+
+    public synchronized long getIndexReads() {
+        return indexReads;
+    }
+
+    public synchronized long getIndexWrites() {
+        return indexWrites;
+    }
+
+    /**
+     * Returns the upper bounds of the histogram buckets. Each histogram has one more bucket than
+     * there are bounds, for values above the last bound.
+     *
+     * @return  bucket upper bounds in milliseconds
+     */
+    public long[] getHistogramBounds() {
+        return (long[]) bounds.clone();
+    }
+
+    public synchronized long[] getDownloadLatencyHistogram() {
+        return (long[]) downloadLatency.clone();
+    }
+
+    public synchronized long getDownloadLatencyTotal() {
+        return downloadLatencyTotal;
+    }
+
+    public synchronized long[] getClassLoaderWaitHistogram() {
+        return (long[]) loaderWait.clone();
+    }
+
+    public synchronized long getClassLoaderWaitTotal() {
+        return loaderWaitTotal;
+    }
+
+    /**
+     * Sets all counters and histograms back to zero.
+     */
+    public synchronized void reset() {
+        hits = misses = revalidations = bytesDownloaded = indexReads = indexWrites = 0L;
+        hostBytes.clear();
+
+        for (int i = 0; i < downloadLatency.length; i++) {
+            downloadLatency[i] = 0L;
+            loaderWait[i] = 0L;
+        }
+
+        downloadLatencyTotal = loaderWaitTotal = 0L;
+    }
+
+
+    /**
+     * Returns the histogram bucket for a time.
+     *
+     * @param   millis  the time
+     * @return  bucket index
+     */
+    private static int bucket(long millis) {
+        int i = 0;
+
+        while (i < bounds.length && millis > bounds[i]) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Returns the metrics shared by all caches in this virtual machine, registering them with the
+     * platform MBean server the first time.
+     *
+     * @return  the cache metrics
+     */
+    public static synchronized CacheMetrics getInstance() {
+        if (metrics == null) {
+            metrics = new CacheMetrics();
+            register(metrics);
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. This is done by reflection so the
+     * launcher still runs on virtual machines without JMX, where the metrics are simply not
+     * registered.
+     *
+     * @param   mbean  the metrics to register
+     */
+    private static void register(CacheMetrics mbean) {
+        try {
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            Class server = Class.forName("javax.management.MBeanServer");
+            Class name = Class.forName("javax.management.ObjectName");
+
+            Object mbs = factory.getMethod("getPlatformMBeanServer", null).invoke(null, null);
+            Object on = name.getConstructor(new Class[] { String.class }).newInstance(new Object[] { OBJECT_NAME });
+
+            server.getMethod("registerMBean", new Class[] { Object.class, name }).invoke(mbs, new Object[] { mbean, on });
+        } catch (ClassNotFoundException e) {
+            // no JMX in this virtual machine
+        } catch (Exception e) {
+            System.err.println("Unable to register cache metrics - " + e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+
+/**
+ * The management interface of the cache metrics, following the JMX standard MBean naming
+ * pattern. Times are in milliseconds and sizes in bytes.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see CacheMetrics
+ */
+public interface CacheMetricsMBean {
+    public long getHits();
+
+    public long getMisses();
+
+    public long getRevalidations();
+
+    public long getBytesDownloaded();
+
+    public String[] getHosts();
+
+    public long getBytesDownloaded(String host);
+
+    public long getIndexReads();
+
+    public long getIndexWrites();
+
+    public long[] getHistogramBounds();
+
+    public long[] getDownloadLatencyHistogram();
+
+    public long getDownloadLatencyTotal();
+
+    public long[] getClassLoaderWaitHistogram();
+
+    public long getClassLoaderWaitTotal();
+
+    public void reset();
+}
@@ -0,0 +1,387 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Checks the cached resources of a file cache against their recorded lengths and digests in
+ * the background. A cached resource is corrupt if its file is missing, has the wrong length or
+ * no longer matches the digest recorded when it was committed. A corrupt resource is downloaded
+ * again, or removed from its cache entry if that fails. Cache entries that are in use are
+ * checked but left alone, and so is a corrupt blob shared with a cache entry in use.
+ * <p>
+ * Reading is throttled to <code>org.nanode.launcher.cache.scrubRate</code> bytes per second
+ * (4 MB by default) shared by <code>org.nanode.launcher.cache.scrubThreads</code> low-priority
+ * threads (2 by default), so scrubbing does not compete with launching applications. A cached
+ * resource stored before digests were recorded has its current digest recorded the first time
+ * it is checked.
+ * <p>
+ * The results for each cache entry are delivered to cache listeners as a <code>ScrubEvent</code>.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     FileCachedResource#getChecksum
+ */
+public class CacheScrubber {
+    /** system property with milliseconds between scrubs, 0 to disable */
+    public static final String SCRUB_INTERVAL_PROPERTY = "org.nanode.launcher.cache.scrubInterval";
+
+    /** system property with the maximum bytes per second read while scrubbing */
+    public static final String SCRUB_RATE_PROPERTY = "org.nanode.launcher.cache.scrubRate";
+
+    /** system property with the number of threads used while scrubbing */
+    public static final String SCRUB_THREADS_PROPERTY = "org.nanode.launcher.cache.scrubThreads";
+
+    private static final long DEFAULT_SCRUB_INTERVAL = 24L * 60L * 60L * 1000L;
+    private static final long DEFAULT_SCRUB_RATE = 4L * 1024L * 1024L;
+    private static final int DEFAULT_SCRUB_THREADS = 2;
+
+    /** delay before the first scrub so it does not slow down starting up */
+    private static final long INITIAL_DELAY = 5L * 60L * 1000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    /** the cache being scrubbed */
+    private FileCache cache;
+
+    /** the thread scrubbing periodically, or <code>null</code> if not started */
+    private Thread thread;
+
+    private ThrottledTransferEngine throttle;		// keeps the scrub threads under the scrub rate
+
+
+    /**
+     * Creates a scrubber for the specified cache.
+     *
+     * @param   cache  the cache to scrub
+     */
+    public CacheScrubber(FileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Starts scrubbing the cache periodically in a daemon thread. Nothing is started if the
+     * scrub interval is 0.
+     */
+    public synchronized void start() {
+        final long interval = Long.getLong(SCRUB_INTERVAL_PROPERTY, DEFAULT_SCRUB_INTERVAL).longValue();
+
+        if (thread != null || interval <= 0L) {
+            return;
+        }
+
+        thread = new Thread("cache scrub") {
+                public void run() {
+                    try {
+                        Thread.sleep(Math.min(interval, INITIAL_DELAY));
+
+                        while (thread == this) {
+                            scrub();
+                            Thread.sleep(interval);
+                        }
+                    } catch (InterruptedException e) {
+                        // stopped
+                    }
+                }
+            };
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops scrubbing periodically. A scrub that is running finishes the cached resources it has
+     * started on.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Checks every cached resource in the cache once, repairing or evicting those that are
+     * corrupt. This blocks until the whole cache has been checked.
+     */
+    public void scrub() {
+        synchronized (this) {
+            throttle = new ThrottledTransferEngine(Long.getLong(SCRUB_RATE_PROPERTY, DEFAULT_SCRUB_RATE).longValue());
+        }
+
+        TaskBatch batch = new TaskBatch("scrub", Integer.getInteger(SCRUB_THREADS_PROPERTY, DEFAULT_SCRUB_THREADS).intValue(), Integer.MAX_VALUE);
+        batch.setPriority(Thread.MIN_PRIORITY);
+
+        final Map results = new HashMap();		// map of (FileCacheEntry, int[]) with checked/corrupt/repaired/evicted
+        List entries = new ArrayList();
+
+        for (Iterator iter = cache.entries(); iter.hasNext();) {
+            final FileCacheEntry entry = (FileCacheEntry) iter.next();
+
+            entries.add(entry);
+            results.put(entry, new int[4]);
+
+            for (Enumeration e = entry.cachedResources(); e.hasMoreElements();) {
+                Object o = e.nextElement();
+
+                if (!(o instanceof FileCachedResource)) {
+                    continue;
+                }
+
+                final FileCachedResource cr = (FileCachedResource) o;
+
+                batch.add(new Runnable() {
+                        public void run() {
+                            int result = scrubResource(entry, cr);
+
+                            if (result >= 0) {
+                                synchronized (results) {
+                                    int[] counts = (int[]) results.get(entry);
+
+                                    counts[0]++;
+
+                                    if (result > 0) {
+                                        counts[1]++;
+
+                                        if (result > 1) {
+                                            counts[result]++;
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    });
+            }
+        }
+
+        batch.run();
+
+        for (Iterator iter = entries.iterator(); iter.hasNext();) {
+            FileCacheEntry entry = (FileCacheEntry) iter.next();
+            int[] counts = (int[]) results.get(entry);
+
+            if (counts[0] > 0) {
+                cache.fireCacheEntryScrubbed(new ScrubEvent(cache, entry, counts[0], counts[1], counts[2], counts[3]));
+            }
+        }
+    }
+
+    /**
+     * Checks a single cached resource, repairing or evicting it if it is corrupt.
+     *
+     * @param   entry  the cache entry holding the cached resource
+     * @param   cr     the cached resource
+     * @return  -1 if not checked, 0 if intact, 1 if corrupt but in use, 2 if repaired or 3 if
+     *          evicted
+     */
+    private int scrubResource(FileCacheEntry entry, FileCachedResource cr) {
+        File f;
+        String digest;
+        String checksum;
+        long length;
+
+        synchronized (cr.getLock()) {
+            f = cr.getCacheFile();
+            digest = cr.getDigest();
+            checksum = cr.getChecksum();
+            length = cr.length();
+        }
+
+        // never downloaded
+        if (f == null || (!f.exists() && length <= 0L && digest == null)) {
+            return -1;
+        }
+
+        boolean corrupt = (!f.isFile() || f.length() != length);
+        String actual = null;
+
+        if (!corrupt) {
+            try {
+                actual = hash(f);
+            } catch (IOException e) {
+                corrupt = true;
+            }
+        }
+
+        synchronized (cr.getLock()) {
+            // skip a cached resource that was updated while it was being checked
+            if (!f.equals(cr.getCacheFile()) || !equal(digest, cr.getDigest()) || !equal(checksum, cr.getChecksum())) {
+                return -1;
+            }
+
+            if (!corrupt) {
+                String expected = (digest != null) ? digest : checksum;
+
+                if (expected == null) {
+                    cr.setChecksum(actual);
+                    entry.markDirty();
+
+                    return 0;
+                }
+
+                corrupt = !expected.equals(actual);
+            }
+        }
+
+        if (!corrupt) {
+            return 0;
+        }
+
+        System.err.println("Corrupt cached resource: " + cr.getReference().getURL());
+
+        // a corrupt blob is bad for every entry sharing it, so none of them may be in use
+        FileCacheEntry[] users = (digest != null) ? blobUsers(digest, entry) : new FileCacheEntry[] { entry };
+
+        return repairResource(users, 0, entry, cr, f, digest);
+    }
+
+    /**
+     * Repairs or evicts a corrupt cached resource, unless any of the specified cache entries is
+     * in use. Each cache entry is locked before it is checked and stays locked until the repair
+     * is done, so that none of them can be acquired in between, as when the cache is trimmed.
+     *
+     * @param   users   the cache entries that must not be in use, in the order they are locked
+     * @param   i       the index of the next cache entry to lock
+     * @param   entry   the cache entry holding the cached resource
+     * @param   cr      the cached resource
+     * @param   f       the file of the cached resource
+     * @param   digest  the digest of the blob holding the cached resource, or <code>null</code>
+     * @return  1 if corrupt but in use, 2 if repaired or 3 if evicted
+     */
+    private int repairResource(FileCacheEntry[] users, int i, FileCacheEntry entry, FileCachedResource cr, File f, String digest) {
+        if (i < users.length) {
+            synchronized (users[i]) {
+                return (users[i].isInUse()) ? 1 : repairResource(users, i + 1, entry, cr, f, digest);
+            }
+        }
+
+        // a corrupt blob must not be adopted again
+        if (digest != null) {
+            f.delete();
+        }
+
+        cr.purge();
+
+        if (cr.update() && cr.getCacheFile() != null && cr.getCacheFile().isFile()) {
+            return 2;
+        }
+
+        entry.removeResource(cr.getReference());
+
+        return 3;
+    }
+
+    /**
+     * Returns the cache entries holding the blob with the specified digest, including versions
+     * kept aside. They are sorted by directory so that every scrub thread locks them in the same
+     * order.
+     *
+     * @param   digest  the hex-encoded digest of the blob
+     * @param   entry   the cache entry known to hold the blob
+     * @return  the cache entries holding the blob
+     */
+    private FileCacheEntry[] blobUsers(String digest, FileCacheEntry entry) {
+        List users = new ArrayList();
+
+        users.add(entry);
+
+        for (Iterator iter = cache.entries(); iter.hasNext();) {
+            FileCacheEntry other = (FileCacheEntry) iter.next();
+
+            if (other == entry) {
+                continue;
+            }
+
+            for (Enumeration e = other.cachedResources(); e.hasMoreElements();) {
+                Object o = e.nextElement();
+
+                if (o instanceof FileCachedResource && Arrays.asList(((FileCachedResource) o).getDigests()).contains(digest)) {
+                    users.add(other);
+                    break;
+                }
+            }
+        }
+
+        Collections.sort(users, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    return ((FileCacheEntry) o1).entryDir.compareTo(((FileCacheEntry) o2).entryDir);
+                }
+            });
+
+        return (FileCacheEntry[]) users.toArray(new FileCacheEntry[users.size()]);
+    }
+
+    /**
+     * Returns the hex-encoded digest of a file, reading it no faster than the scrub rate.
+     *
+     * @param   f  the file to digest
+     * @return  hex-encoded digest
+     * @throws  IOException if the file can not be read
+     */
+    private String hash(File f) throws IOException {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance(BlobStore.DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        ThrottledTransferEngine engine;
+
+        synchronized (this) {
+            engine = throttle;
+        }
+
+        InputStream is = new FileInputStream(f);
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            for (int read = 0; (read = is.read(buffer)) != -1;) {
+                md.update(buffer, 0, read);
+                engine.throttle(read);
+            }
+        } finally {
+            is.close();
+        }
+
+        return BlobStore.toHex(md.digest());
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return (o1 == null) ? (o2 == null) : o1.equals(o2);
+    }
+}
@@ -0,0 +1,964 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+
+import org.nanode.launcher.Reference;
+import org.nanode.launcher.Version;
+
+
+/**
+ * Serves the resources of a file cache over HTTP to other launchers, as a caching reverse
+ * proxy in front of their origin servers. A resource is requested by its origin URL, either as
+ * the path <code>/http/host:port/path</code> (so that <code>http://server:port/http/host:port/</code>
+ * can stand in for the codebase <code>http://host:port/</code>) or as an absolute URL in the
+ * request line, the way a proxy is asked.
+ * <p>
+ * A resource that is not cached, or is no longer fresh, is updated from its origin first.
+ * Requests for a resource that is being updated wait for that update instead of starting
+ * another, so the origin sees one request however many launchers ask at once. Resources
+ * revalidated within the last <code>org.nanode.launcher.cache.serverTTL</code> milliseconds
+ * (1 minute by default) are served without revalidating them again. If the origin can not be
+ * reached, the cached resource is served as it is.
+ * <p>
+ * <code>GET</code> and <code>HEAD</code> are supported, with conditional requests
+ * (<code>If-None-Match</code>, <code>If-Modified-Since</code>) and single byte ranges
+ * (<code>Range</code>, <code>If-Range</code>). Version-based requests are passed on to the origin
+ * with their <code>version-id</code>; a patch is never served, only whole resources. The
+ * validators of the origin are passed on, along with the SHA-256 digest of the resource so that
+ * clients can verify what they were served.
+ * <p>
+ * Resources are kept in a cache entry for each origin directory, with the vendor
+ * <code>"OpenJNLP Cache Server"</code>. These cache entries are not launchable, but are evicted
+ * and scrubbed like any other.
+ * <p>
+ * Nothing is served unless <code>org.nanode.launcher.cache.serverOrigins</code> lists the
+ * origins that may be served, as a comma-separated list of URL prefixes. An origin URL is served
+ * if its protocol, host and port are those of a prefix and its path lies under the path of the
+ * prefix. The server only listens on <code>org.nanode.launcher.cache.serverAddress</code>, which
+ * is the loopback address unless set to the address of another interface.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     FileCache
+ */
+public class CacheServer {
+    /** system property with the port to serve on */
+    public static final String SERVER_PORT_PROPERTY = "org.nanode.launcher.cache.serverPort";
+
+    /** system property with the address of the interface to serve on */
+    public static final String SERVER_ADDRESS_PROPERTY = "org.nanode.launcher.cache.serverAddress";
+
+    /** system property with a comma-separated list of origin URL prefixes that may be served */
+    public static final String SERVER_ORIGINS_PROPERTY = "org.nanode.launcher.cache.serverOrigins";
+
+    /** system property with milliseconds a revalidated resource is served without revalidating it */
+    public static final String SERVER_TTL_PROPERTY = "org.nanode.launcher.cache.serverTTL";
+
+    /** system property with the maximum number of requests served at the same time */
+    public static final String SERVER_THREADS_PROPERTY = "org.nanode.launcher.cache.serverThreads";
+
+    /** the vendor of the cache entries holding served resources */
+    public static final String ENTRY_VENDOR = "OpenJNLP Cache Server";
+
+    private static final int DEFAULT_PORT = 8090;
+    private static final String DEFAULT_SERVER_ADDRESS = "127.0.0.1";
+    private static final int BACKLOG = 50;
+    private static final long DEFAULT_SERVER_TTL = 60L * 1000L;
+    private static final int DEFAULT_SERVER_THREADS = 32;
+
+    private static final int READ_TIMEOUT = 30 * 1000;
+    private static final int MAX_HEADER_LENGTH = 16 * 1024;
+
+
+    /** the cache being served */
+    private FileCache cache;
+
+    /** the port asked for, or 0 for any free port */
+    private int port;
+
+    private ServerSocket serverSocket;		// the listening socket, or null if not started
+    private Thread thread;					// the thread accepting connections, or null if not started
+
+    private int active;			// connections being served
+    private Map flights;		// map of (URL string, Flight) of resources being updated for a request
+
+
+    /**
+     * Creates a server for the specified cache. Nothing is served until it is started.
+     *
+     * @param   cache  the cache to serve
+     * @param   port   the port to serve on, or 0 for any free port
+     */
+    public CacheServer(FileCache cache, int port) {
+        this.cache = cache;
+        this.port = port;
+
+        flights = new HashMap();
+    }
+
+    /**
+     * Returns the cache this server serves.
+     *
+     * @return  the cache
+     */
+    public FileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the port this server serves on. Once started this is the port actually bound.
+     *
+     * @return  the port
+     */
+    public synchronized int getPort() {
+        return (serverSocket != null) ? serverSocket.getLocalPort() : port;
+    }
+
+    /**
+     * Starts serving in a daemon thread, on the interface named by
+     * <code>org.nanode.launcher.cache.serverAddress</code>.
+     *
+     * @throws  IOException if the address can not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        String address = System.getProperty(SERVER_ADDRESS_PROPERTY, DEFAULT_SERVER_ADDRESS);
+
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getByName(address));
+
+        thread = new Thread("cache server") {
+                public void run() {
+                    accept(serverSocket, this);
+                }
+            };
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops serving. Requests already being served are finished.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        thread = null;
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+
+        serverSocket = null;
+    }
+
+    /**
+     * Accepts connections until stopped, serving each in its own thread.
+     *
+     * @param   ss      the listening socket
+     * @param   runner  the thread accepting connections
+     */
+    private void accept(ServerSocket ss, Thread runner) {
+        int maxActive = Math.max(1, Integer.getInteger(SERVER_THREADS_PROPERTY, DEFAULT_SERVER_THREADS).intValue());
+
+        while (thread == runner) {
+            final Socket socket;
+
+            try {
+                synchronized (this) {
+                    while (active >= maxActive) {
+                        wait();
+                    }
+                }
+
+                socket = ss.accept();
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                if (thread == runner) {
+                    System.err.println(e);
+                }
+
+                continue;
+            }
+
+            synchronized (this) {
+                active++;
+            }
+
+            Thread t = new Thread("cache server request") {
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } catch (SocketException e) {
+                            // client went away
+                        } catch (IOException e) {
+                            System.err.println(e);
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) { }
+
+                            synchronized (CacheServer.this) {
+                                active--;
+                                CacheServer.this.notifyAll();
+                            }
+                        }
+                    }
+                };
+
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Reads a single request from a connection and writes the response.
+     *
+     * @param   socket  the connection
+     * @throws  IOException if reading the request or writing the response fails
+     */
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(READ_TIMEOUT);
+
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        String requestLine = readLine(in);
+        Map headers = new HashMap();		// map of (lowercase name, value)
+
+        if (requestLine == null) {
+            return;
+        }
+
+        for (String line; (line = readLine(in)) != null && line.length() > 0;) {
+            int colon = line.indexOf(':');
+
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+
+        StringTokenizer st = new StringTokenizer(requestLine, " ");
+
+        if (st.countTokens() != 3) {
+            sendError(out, 400, "Bad Request");
+            return;
+        }
+
+        String method = st.nextToken();
+        String target = st.nextToken();
+        boolean head = "HEAD".equals(method);
+
+        if (!head && !"GET".equals(method)) {
+            sendError(out, 501, "Not Implemented");
+            return;
+        }
+
+        Reference ref = originReference(target);
+
+        if (ref == null) {
+            sendError(out, 404, "Not Found");
+            return;
+        }
+
+        if (!isOriginAllowed(ref.getURL())) {
+            sendError(out, 403, "Forbidden");
+            return;
+        }
+
+        FileCacheEntry entry = entryFor(ref.getURL());
+
+        entry.acquire();
+
+        try {
+            CachedResource cr = fetch(entry, ref);
+            FileInputStream fis = null;
+            long lastModified;
+            String entityTag;
+            String versionId;
+            String digest;
+            long expires;
+
+            if (cr instanceof FileCachedResource) {
+                synchronized (cr.getLock()) {
+                    File f = ((FileCachedResource) cr).getCacheFile();
+
+                    if (cr.length() > 0L && f != null && f.isFile()) {
+                        fis = new FileInputStream(f);
+                    }
+
+                    lastModified = cr.getLastModified();
+                    entityTag = cr.getEntityTag();
+                    versionId = cr.getVersionId();
+                    expires = cr.getExpires();
+                    digest = ((FileCachedResource) cr).getDigest();
+
+                    if (digest == null) {
+                        digest = ((FileCachedResource) cr).getChecksum();
+                    }
+                }
+            } else {
+                lastModified = 0L;
+                entityTag = null;
+                versionId = null;
+                digest = null;
+                expires = 0L;
+            }
+
+            if (fis == null) {
+                if (cr != null) {
+                    entry.removeResource(cr.getReference());
+                }
+
+                sendError(out, 502, "Bad Gateway");
+                return;
+            }
+
+            try {
+                send(headers, head, ref.getURL().getPath(), fis.getChannel(), lastModified, entityTag, versionId, digest, expires,
+                     out, socket.getOutputStream());
+            } finally {
+                fis.close();
+            }
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Updates the referenced resource in the cache entry, unless another request is already
+     * doing so, in which case that update is waited for.
+     *
+     * @param   entry  the cache entry for the resource
+     * @param   ref    the referenced resource
+     * @return  the cached resource or <code>null</code> if it could not be added to the cache entry
+     */
+    private CachedResource fetch(FileCacheEntry entry, Reference ref) {
+        String url = ref.getURL().toString();
+
+        for (;;) {
+            Flight flight;
+            boolean leader = false;
+
+            synchronized (flights) {
+                if ((flight = (Flight) flights.get(url)) == null) {
+                    flight = new Flight();
+                    flights.put(url, flight);
+                    leader = true;
+                }
+            }
+
+            if (!leader) {
+                flight.await();
+
+                CachedResource cr = findResource(entry, url);
+
+                // the update just finished does for this request too if it got the wanted version
+                if (cr != null && (!ref.isVersioned() || (cr.getVersionId() != null && ref.matchesVersion(new Version(cr.getVersionId()))))) {
+                    return cr;
+                }
+
+                continue;
+            }
+
+            try {
+                entry.addResource(ref);
+
+                CachedResource cr = findResource(entry, url);
+
+                if (cr != null && !cr.isUpdateFailed() && cr.length() > 0L) {
+                    long ttl = Long.getLong(SERVER_TTL_PROPERTY, DEFAULT_SERVER_TTL).longValue();
+                    long now = System.currentTimeMillis();
+
+                    if (ttl > 0L && cr.getExpires() < now + ttl) {
+                        cr.setExpires(now + ttl);
+                        entry.markDirty();
+                    }
+                }
+
+                return cr;
+            } finally {
+                synchronized (flights) {
+                    flights.remove(url);
+                }
+
+                flight.finish();
+            }
+        }
+    }
+
+    /**
+     * Writes the response for a cached resource, honoring conditional and range requests.
+     *
+     * @param   headers       the request headers
+     * @param   head          whether only the headers are wanted
+     * @param   name          the path of the resource, for its content type
+     * @param   fc            the channel of the cached resource file
+     * @param   lastModified  the last-modified date of the cached resource, or 0 if unknown
+     * @param   entityTag     the entity tag of the cached resource, or <code>null</code> if unknown
+     * @param   versionId     the version-id of the cached resource, or <code>null</code> if none
+     * @param   digest        the hex-encoded SHA-256 digest of the cached resource, or <code>null</code> if unknown
+     * @param   expires       the time until which the cached resource is fresh, or 0
+     * @param   out           the buffered stream to the client
+     * @param   raw           the unbuffered stream to the client
+     * @throws  IOException if the response can not be written
+     */
+    private void send(Map headers, boolean head, String name, FileChannel fc, long lastModified, String entityTag, String versionId,
+                      String digest, long expires, OutputStream out, OutputStream raw) throws IOException {
+        long length = fc.size();
+        String tag = entityTag;
+        String lastMod = (lastModified != 0L) ? formatDate(lastModified) : null;
+
+        Map extra = new HashMap();
+        extra.put("Accept-Ranges", "bytes");
+
+        // the validators of the origin are passed on, so clients can revalidate at either
+        if (tag != null) {
+            extra.put("ETag", tag);
+        }
+
+        if (lastMod != null) {
+            extra.put("Last-Modified", lastMod);
+        }
+
+        if (versionId != null) {
+            extra.put("x-java-jnlp-version-id", versionId);
+        }
+
+        if (digest != null) {
+            extra.put(UpstreamCaches.DIGEST_HEADER, digest);
+        }
+
+        long maxAge = (expires - System.currentTimeMillis()) / 1000L;
+
+        if (maxAge > 0L) {
+            extra.put("Cache-Control", "max-age=" + maxAge);
+        }
+
+        if (isNotModified(headers, tag, lastModified)) {
+            sendHeaders(out, 304, "Not Modified", extra, -1L);
+            out.flush();
+            return;
+        }
+
+        long start = 0L;
+        long end = length - 1L;
+        int status = 200;
+        String range = (String) headers.get("range");
+        String ifRange = (String) headers.get("if-range");
+
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0
+         && (ifRange == null || ifRange.equals(tag) || ifRange.equals(lastMod))) {
+            String spec = range.substring(6).trim();
+            int dash = spec.indexOf('-');
+
+            try {
+                if (dash == 0) {
+                    start = Math.max(0L, length - Long.parseLong(spec.substring(1)));
+                } else if (dash > 0) {
+                    start = Long.parseLong(spec.substring(0, dash));
+
+                    if (dash < spec.length() - 1) {
+                        end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                    }
+                }
+
+                if (dash >= 0) {
+                    if (start >= length || start > end) {
+                        extra.put("Content-Range", "bytes */" + length);
+                        sendHeaders(out, 416, "Requested Range Not Satisfiable", extra, 0L);
+                        out.flush();
+                        return;
+                    }
+
+                    extra.put("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                    status = 206;
+                }
+            } catch (NumberFormatException e) {
+                start = 0L;
+                end = length - 1L;
+            }
+        }
+
+        extra.put("Content-Type", contentType(name));
+
+        sendHeaders(out, status, (status == 206) ? "Partial Content" : "OK", extra, end - start + 1L);
+        out.flush();
+
+        if (head) {
+            return;
+        }
+
+        WritableByteChannel wc = TransferEngine.channel(raw);
+
+        for (long pos = start, left = end - start + 1L; left > 0L;) {
+            long n = fc.transferTo(pos, left, wc);
+
+            if (n <= 0L) {
+                throw new IOException("Cached resource ended early");
+            }
+
+            pos += n;
+            left -= n;
+        }
+
+        raw.flush();
+    }
+
+    /**
+     * Indicates whether a conditional request is satisfied by the cached resource. An
+     * <code>If-None-Match</code> header wins over an <code>If-Modified-Since</code> header.
+     *
+     * @param   headers       the request headers
+     * @param   tag           the entity tag of the cached resource, or <code>null</code> if unknown
+     * @param   lastModified  the last-modified date of the cached resource, or 0 if unknown
+     * @return  <code>true</code> if <code>304 Not Modified</code> should be returned; <code>false</code> otherwise
+     */
+    private static boolean isNotModified(Map headers, String tag, long lastModified) {
+        String inm = (String) headers.get("if-none-match");
+
+        if (inm != null) {
+            for (StringTokenizer st = new StringTokenizer(inm, ","); st.hasMoreTokens();) {
+                String t = st.nextToken().trim();
+
+                if (t.startsWith("W/")) {
+                    t = t.substring(2);
+                }
+
+                if (t.equals("*") || t.equals(tag) || ("W/" + t).equals(tag)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        String ims = (String) headers.get("if-modified-since");
+
+        if (ims != null && lastModified != 0L) {
+            try {
+                return (lastModified / 1000L <= parseDate(ims) / 1000L);
+            } catch (ParseException e) {
+                // ignore a bad date
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the reference to the origin resource for a request target, or <code>null</code>
+     * if the target does not name an <code>http</code> or <code>https</code> URL. The
+     * <code>version-id</code> query argument becomes the version-ids of the reference; a
+     * <code>current-version-id</code> is dropped, as patches are not served.
+     *
+     * @param   target  the request target
+     * @return  reference to the origin resource
+     */
+    static Reference originReference(String target) {
+        int q = target.indexOf('?');
+        String path = (q < 0) ? target : target.substring(0, q);
+        String origin;
+
+        if (path.startsWith("http://") || path.startsWith("https://")) {
+            origin = path;
+        } else {
+            int a = path.indexOf('/', 1);
+            int b = (a < 0) ? -1 : path.indexOf('/', a + 1);
+
+            if (!path.startsWith("/") || b < 0) {
+                return null;
+            }
+
+            String protocol = path.substring(1, a);
+
+            if (!"http".equals(protocol) && !"https".equals(protocol)) {
+                return null;
+            }
+
+            origin = protocol + "://" + path.substring(a + 1);
+        }
+
+        Version[] vers = null;
+        StringBuffer query = new StringBuffer();
+
+        if (q >= 0) {
+            for (StringTokenizer st = new StringTokenizer(target.substring(q + 1), "&"); st.hasMoreTokens();) {
+                String arg = st.nextToken();
+
+                if (arg.startsWith("version-id=")) {
+                    try {
+                        vers = Version.parseVersions(URLDecoder.decode(arg.substring(11), "UTF-8"));
+                    } catch (UnsupportedEncodingException e) {
+                        throw new Error(e.getMessage());
+                    }
+                } else if (!arg.startsWith("current-version-id=")) {
+                    query.append((query.length() == 0) ? '?' : '&');
+                    query.append(arg);
+                }
+            }
+        }
+
+        try {
+            return new Reference(new URL(origin + query), vers, false);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the path on a cache server for an origin URL, as taken by this server.
+     *
+     * @param   url  the origin URL
+     * @return  the path on a cache server, starting with <code>/</code>
+     */
+    public static String serverPath(URL url) {
+        StringBuffer sb = new StringBuffer("/");
+
+        sb.append(url.getProtocol());
+        sb.append('/');
+        sb.append(url.getAuthority());
+        sb.append(url.getFile());
+
+        return sb.toString();
+    }
+
+    /**
+     * Indicates whether the origin URL may be served, as allowed by
+     * <code>org.nanode.launcher.cache.serverOrigins</code>. Nothing is allowed if it is not set.
+     *
+     * @param   url  the origin URL
+     * @return  <code>true</code> if the origin URL may be served; <code>false</code> otherwise
+     */
+    private static boolean isOriginAllowed(URL url) {
+        String origins = System.getProperty(SERVER_ORIGINS_PROPERTY);
+
+        if (origins == null || !isPlainPath(url.getPath())) {
+            return false;
+        }
+
+        for (StringTokenizer st = new StringTokenizer(origins, ", "); st.hasMoreTokens();) {
+            String origin = st.nextToken();
+
+            try {
+                if (isUnder(url, new URL(origin))) {
+                    return true;
+                }
+            } catch (MalformedURLException e) {
+                System.err.println("ignoring bad server origin: " + origin);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Indicates whether a URL lies under a URL prefix. The protocol, host and port must be the
+     * same, and the path of the URL must be the path of the prefix or continue it after a
+     * <code>/</code>.
+     *
+     * @param   url     the URL
+     * @param   prefix  the URL prefix
+     * @return  <code>true</code> if the URL lies under the prefix; <code>false</code> otherwise
+     */
+    private static boolean isUnder(URL url, URL prefix) {
+        if (!url.getProtocol().equalsIgnoreCase(prefix.getProtocol()) || !url.getHost().equalsIgnoreCase(prefix.getHost())) {
+            return false;
+        }
+
+        int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+        int prefixPort = (prefix.getPort() != -1) ? prefix.getPort() : prefix.getDefaultPort();
+
+        if (port != prefixPort) {
+            return false;
+        }
+
+        String path = url.getPath();
+        String prefixPath = prefix.getPath();
+
+        if (prefixPath.length() == 0 || prefixPath.endsWith("/")) {
+            return path.startsWith((prefixPath.length() == 0) ? "/" : prefixPath);
+        }
+
+        return (path.equals(prefixPath) || path.startsWith(prefixPath + "/"));
+    }
+
+    /**
+     * Indicates whether a path has no <code>.</code> or <code>..</code> segments, plain or
+     * encoded, that could lead the origin out of an allowed directory.
+     *
+     * @param   path  the path
+     * @return  <code>true</code> if the path is plain; <code>false</code> otherwise
+     */
+    private static boolean isPlainPath(String path) {
+        if (path.indexOf('\\') >= 0 || path.toLowerCase().indexOf("%2e") >= 0 || path.toLowerCase().indexOf("%2f") >= 0) {
+            return false;
+        }
+
+        for (StringTokenizer st = new StringTokenizer(path, "/"); st.hasMoreTokens();) {
+            String segment = st.nextToken();
+
+            if (segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the cache entry holding the resources of the directory of an origin URL.
+     *
+     * @param   url  the origin URL
+     * @return  the cache entry
+     */
+    private FileCacheEntry entryFor(URL url) {
+        String dir = url.getPath().substring(0, url.getPath().lastIndexOf('/') + 1);
+        String name = url.getProtocol() + "_" + url.getHost() + ((url.getPort() != -1) ? "_" + url.getPort() : "") + dir;
+        StringBuffer title = new StringBuffer(name.length());
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            title.append((Character.isLetterOrDigit(c) || c == '.' || c == '-') ? c : '_');
+        }
+
+        while (title.length() > 0 && title.charAt(title.length() - 1) == '_') {
+            title.setLength(title.length() - 1);
+        }
+
+        return cache.establishEntry(ENTRY_VENDOR, title.toString());
+    }
+
+    /**
+     * Returns the cached resource for a URL without counting it as a cache hit. URLs are compared
+     * as strings so no host names are resolved.
+     *
+     * @param   entry  the cache entry
+     * @param   url    the URL of the resource as a string
+     * @return  the cached resource or <code>null</code> if not in the cache entry
+     */
+    private static CachedResource findResource(CacheEntry entry, String url) {
+        for (Enumeration e = entry.cachedResources(); e.hasMoreElements();) {
+            CachedResource cr = (CachedResource) e.nextElement();
+
+            if (url.equals(cr.getReference().getURL().toString())) {
+                return cr;
+            }
+        }
+
+        return null;
+    }
+
+    private static void sendError(OutputStream out, int status, String reason) throws IOException {
+        byte[] body = (status + " " + reason + "\r\n").getBytes("ISO-8859-1");
+        Map extra = new HashMap();
+
+        extra.put("Content-Type", "text/plain");
+
+        sendHeaders(out, status, reason, extra, body.length);
+        out.write(body);
+        out.flush();
+    }
+
+    private static void sendHeaders(OutputStream out, int status, String reason, Map extra, long contentLength) throws IOException {
+        StringBuffer sb = new StringBuffer();
+
+        sb.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        sb.append("Date: ").append(formatDate(System.currentTimeMillis())).append("\r\n");
+        sb.append("Server: OpenJNLP\r\n");
+        sb.append("Connection: close\r\n");
+
+        for (Iterator iter = extra.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry me = (Map.Entry) iter.next();
+
+            sb.append(me.getKey()).append(": ").append(me.getValue()).append("\r\n");
+        }
+
+        if (contentLength >= 0L) {
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+
+        sb.append("\r\n");
+
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Reads a line of a request, without its line terminator.
+     *
+     * @param   in  the stream to read from
+     * @return  the line or <code>null</code> at the end of the stream
+     * @throws  IOException if reading fails or the line is too long
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuffer sb = new StringBuffer();
+
+        for (int c; (c = in.read()) != '\n';) {
+            if (c == -1) {
+                return (sb.length() > 0) ? sb.toString() : null;
+            }
+
+            if (c != '\r') {
+                if (sb.length() >= MAX_HEADER_LENGTH) {
+                    throw new IOException("Request header too long");
+                }
+
+                sb.append((char) c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String contentType(String name) {
+        if (name != null && name.endsWith(".jar")) {
+            return "application/java-archive";
+        }
+
+        if (name != null && name.endsWith(".jnlp")) {
+            return "application/x-java-jnlp-file";
+        }
+
+        String type = (name != null) ? URLConnection.guessContentTypeFromName(name) : null;
+
+        return (type != null) ? type : "application/octet-stream";
+    }
+
+    private static SimpleDateFormat httpDateFormat() {
+        SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        return df;
+    }
+
+    private static String formatDate(long millis) {
+        return httpDateFormat().format(new Date(millis));
+    }
+
+    private static long parseDate(String date) throws ParseException {
+        return httpDateFormat().parse(date).getTime();
+    }
+
+
+    /**
+     * Serves the default cache. The port is taken from <code>-port</code> or else
+     * <code>org.nanode.launcher.cache.serverPort</code>, and is 8090 if neither is given.
+     *
+     * @param   args  command line arguments
+     */
+    public static void main(String[] args) {
+        int port = Integer.getInteger(SERVER_PORT_PROPERTY, DEFAULT_PORT).intValue();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Usage: org.nanode.launcher.cache.CacheServer [-port <port>]");
+                return;
+            }
+        }
+
+        if (System.getProperty(SERVER_ORIGINS_PROPERTY) == null) {
+            System.err.println("No origins are allowed; set " + SERVER_ORIGINS_PROPERTY);
+        }
+
+        Cache cache = Cache.getDefaultCache();
+
+        if (!(cache instanceof FileCache)) {
+            System.err.println("The default cache is not a file cache");
+            System.exit(1);
+        }
+
+        CacheServer server = new CacheServer((FileCache) cache, port);
+
+        try {
+            server.start();
+            System.out.println("Serving cache on port " + server.getPort());
+
+            server.thread.join();
+        } catch (Exception e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * An update of a resource that other requests for it wait for.
+     */
+    private static class Flight {
+        private boolean done;
+
+        synchronized void finish() {
+            done = true;
+            notifyAll();
+        }
+
+        synchronized void await() {
+            boolean interrupted = false;
+
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
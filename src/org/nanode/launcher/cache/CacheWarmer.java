@@ -0,0 +1,518 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import org.nanode.launcher.Descriptor;
+import org.nanode.launcher.NativelibReference;
+import org.nanode.launcher.Reference;
+import org.nanode.launcher.Resources;
+
+
+/**
+ * Revalidates and downloads the resources of every cache entry ahead of time, so that launching
+ * an app finds its resources cached and fresh. Warming runs every
+ * <code>org.nanode.launcher.cache.warmInterval</code> milliseconds and at the times of day listed
+ * in <code>org.nanode.launcher.cache.warmTimes</code> (such as <code>"06:30,12:00"</code>); nothing
+ * is scheduled unless one of them is set. Each run is delayed by a random amount of up to
+ * <code>org.nanode.launcher.cache.warmJitter</code> milliseconds (15 minutes by default) so that
+ * many clients do not all hit the server at once.
+ * <p>
+ * The descriptor of a cache entry is warmed first, then all of its jars and nativelibs, lazy ones
+ * included. A resource is revalidated even if it is still fresh. Downloads are shared by
+ * <code>org.nanode.launcher.cache.warmThreads</code> low-priority threads (2 by default) and
+ * capped at <code>org.nanode.launcher.cache.warmRate</code> bytes per second if that is set.
+ * If <code>org.nanode.launcher.cache.warmTTL</code> is set, a resource that was warmed stays
+ * fresh for at least that many milliseconds, so launching does not revalidate it again. By
+ * default freshness is left to the server, and resources the server marked
+ * <code>no-cache</code> or <code>no-store</code> are never kept fresh.
+ * <p>
+ * Cache entries that are in use are skipped. The result of warming is recorded in the meta info
+ * of each cache entry.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CacheEntry#recordWarm
+ * @see     CachedResource#isFresh
+ */
+public class CacheWarmer {
+    /** system property with milliseconds between warming runs, 0 for none */
+    public static final String WARM_INTERVAL_PROPERTY = "org.nanode.launcher.cache.warmInterval";
+
+    /** system property with a comma-separated list of times of day (<code>HH:mm</code>) to warm at */
+    public static final String WARM_TIMES_PROPERTY = "org.nanode.launcher.cache.warmTimes";
+
+    /** system property with the maximum milliseconds each warming run is delayed by at random */
+    public static final String WARM_JITTER_PROPERTY = "org.nanode.launcher.cache.warmJitter";
+
+    /** system property with the maximum bytes per second downloaded while warming, 0 for no cap */
+    public static final String WARM_RATE_PROPERTY = "org.nanode.launcher.cache.warmRate";
+
+    /** system property with the number of threads used while warming */
+    public static final String WARM_THREADS_PROPERTY = "org.nanode.launcher.cache.warmThreads";
+
+    /** system property with milliseconds a warmed resource stays fresh, 0 to leave it to the server */
+    public static final String WARM_TTL_PROPERTY = "org.nanode.launcher.cache.warmTTL";
+
+    private static final long DEFAULT_WARM_INTERVAL = 0L;
+    private static final long DEFAULT_WARM_JITTER = 15L * 60L * 1000L;
+    private static final long DEFAULT_WARM_RATE = 0L;
+    private static final int DEFAULT_WARM_THREADS = 2;
+    private static final long DEFAULT_WARM_TTL = 0L;
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    // results of warming a single resource
+    private static final int NOT_CHECKED = -1;
+    private static final int CURRENT = 0;
+    private static final int UPDATED = 1;
+    private static final int FAILED = 2;
+
+
+    /** the cache being warmed */
+    private Cache cache;
+
+    /** the thread warming on schedule, or <code>null</code> if not started */
+    private Thread thread;
+
+    private Random random;
+
+
+    /**
+     * Creates a warmer for the specified cache.
+     *
+     * @param   cache  the cache to warm
+     */
+    public CacheWarmer(Cache cache) {
+        this.cache = cache;
+
+        random = new Random();
+    }
+
+    /**
+     * Returns the cache this warmer warms.
+     *
+     * @return  the cache
+     */
+    public Cache getCache() {
+        return cache;
+    }
+
+    /**
+     * Indicates whether warming is scheduled, by an interval or by times of day.
+     *
+     * @return  <code>true</code> if warming is scheduled; <code>false</code> otherwise
+     */
+    public boolean isScheduled() {
+        return (nextWarm(System.currentTimeMillis()) != 0L);
+    }
+
+    /**
+     * Starts warming the cache on schedule in a daemon thread. Nothing is started if warming is
+     * not scheduled.
+     *
+     * @see     #runScheduled
+     */
+    public synchronized void start() {
+        if (thread != null || !isScheduled()) {
+            return;
+        }
+
+        thread = new Thread("cache warm") {
+                public void run() {
+                    try {
+                        runScheduled();
+                    } catch (InterruptedException e) {
+                        // stopped
+                    }
+                }
+            };
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops warming on schedule. A run that is in progress finishes the resources it has started on.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Warms the cache on schedule in the current thread. This returns when warming is not
+     * scheduled and otherwise runs until the thread is interrupted.
+     *
+     * @throws  InterruptedException if the thread is interrupted while waiting for the next run
+     */
+    public void runScheduled() throws InterruptedException {
+        for (long next; (next = nextWarm(System.currentTimeMillis())) != 0L;) {
+            for (long wait; (wait = next - System.currentTimeMillis()) > 0L;) {
+                Thread.sleep(wait);
+            }
+
+            warm();
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Returns when the next warming run after the specified time is due, including the random
+     * delay.
+     *
+     * @param   now  the current time in milliseconds
+     * @return  the time of the next run in milliseconds or 0 if warming is not scheduled
+     */
+    public long nextWarm(long now) {
+        long next = Long.MAX_VALUE;
+        long interval = Long.getLong(WARM_INTERVAL_PROPERTY, DEFAULT_WARM_INTERVAL).longValue();
+
+        if (interval > 0L) {
+            next = now + interval;
+        }
+
+        String times = System.getProperty(WARM_TIMES_PROPERTY);
+
+        if (times != null) {
+            for (StringTokenizer st = new StringTokenizer(times, ", "); st.hasMoreTokens();) {
+                String time = st.nextToken();
+                int colon = time.indexOf(':');
+
+                try {
+                    Calendar cal = Calendar.getInstance();
+                    cal.setTimeInMillis(now);
+                    cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt((colon < 0) ? time : time.substring(0, colon)));
+                    cal.set(Calendar.MINUTE, (colon < 0) ? 0 : Integer.parseInt(time.substring(colon + 1)));
+                    cal.set(Calendar.SECOND, 0);
+                    cal.set(Calendar.MILLISECOND, 0);
+
+                    long at = cal.getTimeInMillis();
+
+                    if (at <= now) {
+                        cal.add(Calendar.DATE, 1);
+                        at = cal.getTimeInMillis();
+                    }
+
+                    next = Math.min(next, at);
+                } catch (NumberFormatException e) {
+                    System.err.println("ignoring bad warm time: " + time);
+                }
+            }
+        }
+
+        if (next == Long.MAX_VALUE) {
+            return 0L;
+        }
+
+        long jitter = Long.getLong(WARM_JITTER_PROPERTY, DEFAULT_WARM_JITTER).longValue();
+
+        if (jitter > 0L) {
+            next += (long) (random.nextDouble() * Math.min(jitter, DAY));
+        }
+
+        return next;
+    }
+
+    /**
+     * Warms every cache entry in the cache once. This blocks until all of them have been warmed.
+     */
+    public void warm() {
+        TransferEngine engine = createTransferEngine();
+
+        for (Iterator iter = cache.entries(); iter.hasNext();) {
+            warm((CacheEntry) iter.next(), engine);
+        }
+    }
+
+    /**
+     * Warms a single cache entry. This blocks until all of its resources have been warmed.
+     *
+     * @param   entry  the cache entry to warm
+     */
+    public void warm(CacheEntry entry) {
+        warm(entry, createTransferEngine());
+    }
+
+    /**
+     * Returns the descriptor of a cache entry after its jnlp file has been warmed, so that
+     * resources new to the jnlp file are warmed as well. This implementation returns the
+     * descriptor the cache entry already has; a subclass that can parse descriptors should
+     * override it.
+     *
+     * @param   entry  the cache entry
+     * @return  the descriptor or <code>null</code> if not known
+     */
+    protected Descriptor refreshDescriptor(CacheEntry entry) {
+        return entry.getDescriptor();
+    }
+
+    /**
+     * Warms the descriptor and then the other resources of a cache entry and records the result.
+     *
+     * @param   entry   the cache entry to warm
+     * @param   engine  the transfer engine for downloads, or <code>null</code> for the default
+     */
+    private void warm(final CacheEntry entry, final TransferEngine engine) {
+        if (entry.isInUse()) {
+            return;
+        }
+
+        final int[] counts = new int[3];		// checked/updated/failed
+
+        entry.acquire();
+
+        try {
+            String source = null;
+
+            try {
+                source = new URL(entry.getMetaInfo(CacheEntry.METAKEY_DESCRIPTOR)).toString();
+            } catch (MalformedURLException e) {
+                // no jnlp file
+            }
+
+            Map byUrl = resourceMap(entry);
+            CachedResource cr = (source != null) ? (CachedResource) byUrl.get(source) : null;
+
+            if (cr != null) {
+                tally(counts, warmResource(entry, cr, engine));
+            }
+
+            int threads = Integer.getInteger(WARM_THREADS_PROPERTY, DEFAULT_WARM_THREADS).intValue();
+
+            TaskBatch batch = new TaskBatch("warm", threads, threads);
+            batch.setPriority(Thread.MIN_PRIORITY);
+
+            Reference[] refs = references(entry, refreshDescriptor(entry));
+            boolean added = false;
+
+            // a resource new to the cache entry is added as lazy so it is only downloaded below
+            for (int i = 0; i < refs.length; i++) {
+                if (!byUrl.containsKey(refs[i].getURL().toString()) && entry.addResource(lazyReference(refs[i]))) {
+                    added = true;
+                }
+            }
+
+            if (added) {
+                byUrl = resourceMap(entry);
+            }
+
+            for (int i = 0; i < refs.length; i++) {
+                String url = refs[i].getURL().toString();
+
+                if (url.equals(source)) {
+                    continue;
+                }
+
+                final CachedResource res = (CachedResource) byUrl.get(url);
+
+                if (res == null) {
+                    continue;
+                }
+
+                batch.add(refs[i].getURL().getHost(), new Runnable() {
+                        public void run() {
+                            int result = warmResource(entry, res, engine);
+
+                            synchronized (counts) {
+                                tally(counts, result);
+                            }
+                        }
+                    });
+            }
+
+            batch.run();
+        } finally {
+            entry.release();
+        }
+
+        if (counts[0] + counts[2] > 0) {
+            entry.recordWarm(counts[0], counts[1], counts[2]);
+            entry.flush();
+        }
+    }
+
+    /**
+     * Revalidates a single cached resource, downloading it if it changed or was never downloaded.
+     *
+     * @param   entry   the cache entry holding the cached resource
+     * @param   cr      the cached resource
+     * @param   engine  the transfer engine for downloads, or <code>null</code> for the default
+     * @return  the result of warming the cached resource
+     */
+    private int warmResource(CacheEntry entry, CachedResource cr, TransferEngine engine) {
+        long expires;
+        long lastModified;
+        long length;
+        String entityTag;
+        String versionId;
+
+        synchronized (cr.getLock()) {
+            expires = cr.getExpires();
+            lastModified = cr.getLastModified();
+            length = cr.length();
+            entityTag = cr.getEntityTag();
+            versionId = cr.getVersionId();
+
+            cr.setExpires(0L);		// revalidate even if still fresh
+        }
+
+        cr.setTransferEngine(engine);
+
+        try {
+            entry.getResource(cr.getReference(), true);
+        } finally {
+            cr.setTransferEngine(null);
+        }
+
+        synchronized (cr.getLock()) {
+            if (cr.isRevalidationSkipped() || cr.isUpdateFailed() || cr.length() <= 0L) {
+                if (cr.getExpires() == 0L) {
+                    cr.setExpires(expires);
+                }
+
+                return (cr.isRevalidationSkipped()) ? NOT_CHECKED : FAILED;
+            }
+
+            long ttl = Long.getLong(WARM_TTL_PROPERTY, DEFAULT_WARM_TTL).longValue();
+
+            if (ttl > 0L && !cr.isRevalidationRequired()) {
+                cr.setExpires(Math.max(cr.getExpires(), System.currentTimeMillis() + ttl));
+            }
+
+            boolean changed = (cr.getLastModified() != lastModified || cr.length() != length
+                            || !equal(cr.getEntityTag(), entityTag) || !equal(cr.getVersionId(), versionId));
+
+            return (changed) ? UPDATED : CURRENT;
+        }
+    }
+
+    /**
+     * Returns a transfer engine capped at the warm rate, or <code>null</code> if there is no cap.
+     *
+     * @return  the transfer engine for downloads while warming
+     */
+    private TransferEngine createTransferEngine() {
+        long rate = Long.getLong(WARM_RATE_PROPERTY, DEFAULT_WARM_RATE).longValue();
+
+        return (rate > 0L) ? new ThrottledTransferEngine(rate) : null;
+    }
+
+    /**
+     * Returns the references to warm for a cache entry: every jar and nativelib of its descriptor,
+     * or every cached resource if there is no descriptor.
+     *
+     * @param   entry  the cache entry
+     * @param   des    the descriptor of the cache entry, or <code>null</code> if not known
+     * @return  array of references
+     */
+    private static Reference[] references(CacheEntry entry, Descriptor des) {
+        List list = new ArrayList();
+
+        if (des != null && des.getResources() != null) {
+            Resources res = des.getResources();
+
+            for (Enumeration e = res.jars(); e.hasMoreElements();) {
+                list.add(e.nextElement());
+            }
+
+            for (Enumeration e = res.nativelibs(); e.hasMoreElements();) {
+                list.add(e.nextElement());
+            }
+        } else {
+            for (Enumeration e = entry.cachedResources(); e.hasMoreElements();) {
+                list.add(((CachedResource) e.nextElement()).getReference());
+            }
+        }
+
+        return (Reference[]) list.toArray(new Reference[0]);
+    }
+
+    /**
+     * Returns the cached resources of a cache entry by URL, without counting them as cache hits.
+     * URLs are kept as strings so no host names are resolved.
+     *
+     * @param   entry  the cache entry
+     * @return  the (URL string, CachedResource) map of the cached resources
+     */
+    private static Map resourceMap(CacheEntry entry) {
+        Map byUrl = new HashMap();
+
+        for (Enumeration e = entry.cachedResources(); e.hasMoreElements();) {
+            CachedResource cr = (CachedResource) e.nextElement();
+
+            byUrl.put(cr.getReference().getURL().toString(), cr);
+        }
+
+        return byUrl;
+    }
+
+    /**
+     * Returns a lazy copy of a reference.
+     *
+     * @param   ref  the reference
+     * @return  the reference if it is lazy, otherwise a lazy reference to the same resource
+     */
+    private static Reference lazyReference(Reference ref) {
+        if (ref.isLazy()) {
+            return ref;
+        }
+
+        if (ref instanceof NativelibReference) {
+            return new NativelibReference(ref.getURL(), ref.getVersions(), true);
+        }
+
+        return new Reference(ref.getURL(), ref.getVersions(), true);
+    }
+
+    private static void tally(int[] counts, int result) {
+        if (result == NOT_CHECKED) {
+            return;
+        }
+
+        if (result == FAILED) {
+            counts[2]++;
+        } else {
+            counts[0]++;
+
+            if (result == UPDATED) {
+                counts[1]++;
+            }
+        }
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return (o1 == null) ? (o2 == null) : o1.equals(o2);
+    }
+}
@@ -19,24 +19,66 @@ package org.nanode.launcher.cache;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
-import java.net.ProtocolException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.URL;
 import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
 
 import org.nanode.launcher.Reference;
+import org.nanode.launcher.Version;
 
 
 public abstract class CachedResource {
+    /** system property with the milliseconds a resource stays fresh when the origin does not say */
+    public static final String DEFAULT_TTL_PROPERTY = "org.nanode.launcher.cache.defaultTTL";
+
     protected Reference reference;
 
+    private final Object lock = new Object();		// held while the cached resource is swapped
+
     protected long lastModified;
     protected long actualLength;
 
+    /** the entity tag of the cached resource, or <code>null</code> if the server did not send one */
+    protected String entityTag;
+
+    /** the version-id of the cached resource, or <code>null</code> if it was not downloaded by version */
+    protected String versionId;
+
+    /** the time until which the cached resource is used without revalidating it, or 0 */
+    protected long expires;
+
+    private boolean skipped;		// set when the last update did not contact the origin
+
+    private boolean noCache;		// set when the last response said no-cache or no-store
+
+    private boolean updateFailed;		// set when the last update could not reach the origin or was aborted
+
+    private StagedVersion staged;		// a newer version waiting to replace the cached resource, or null
+
     protected Statistics statistics;
 
+    private TransferEngine engine;		// the engine transferring bytes, or null for the default
+
 
     protected CachedResource(Reference ref) {
         reference = ref;
@@ -50,26 +92,222 @@ public abstract class CachedResource {
         return lastModified;
     }
 
+    /**
+     * Returns the entity tag (the HTTP <code>ETag</code> header) of the cached resource.
+     *
+     * @return  the entity tag or <code>null</code> if not known
+     */
+    public String getEntityTag() {
+        return entityTag;
+    }
+
+    /**
+     * Returns the version-id of the cached resource, as returned by the server in the
+     * <code>x-java-jnlp-version-id</code> header of a version-based download.
+     *
+     * @return  the version-id or <code>null</code> if not downloaded by version
+     */
+    public String getVersionId() {
+        return versionId;
+    }
+
     public Reference getReference() {
         return reference;
     }
 
+    /**
+     * Returns the time until which the cached resource is fresh. This is set from the
+     * <code>Cache-Control: max-age</code> or <code>Expires</code> headers of the last response
+     * from the origin, or else from the <code>org.nanode.launcher.cache.defaultTTL</code> system
+     * property.
+     *
+     * @return  the expiration time in milliseconds or 0 if the cached resource is always
+     *          revalidated
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * Sets the time until which the cached resource is fresh. This is used when instantiating
+     * the cached resource from persistent info.
+     *
+     * @param   time  the expiration time in milliseconds or 0
+     */
+    void setExpires(long time) {
+        expires = time;
+    }
+
+    /**
+     * Indicates whether the origin marked the cached resource <code>Cache-Control: no-cache</code>
+     * or <code>no-store</code>, so that it must be revalidated on every use however it was
+     * fetched. A <code>304</code> response without <code>Cache-Control</code> leaves this as it
+     * was.
+     *
+     * @return  <code>true</code> if revalidation is always required; <code>false</code> otherwise
+     */
+    boolean isRevalidationRequired() {
+        return noCache;
+    }
+
+    /**
+     * Sets whether the cached resource must be revalidated on every use. This is used when
+     * instantiating the cached resource from persistent info.
+     *
+     * @param   required  whether revalidation is always required
+     */
+    void setRevalidationRequired(boolean required) {
+        noCache = required;
+    }
+
+    /**
+     * Indicates whether the cached resource is fresh, so that an update uses it as it is
+     * without contacting the origin.
+     *
+     * @return  <code>true</code> if fresh; <code>false</code> otherwise
+     */
+    public boolean isFresh() {
+        return (actualLength > 0L && System.currentTimeMillis() < expires);
+    }
+
+    /**
+     * Indicates whether the last update used the cached resource without revalidating it,
+     * either because it was fresh or because the cache is offline or its host unreachable.
+     *
+     * @return  <code>true</code> if revalidation was skipped; <code>false</code> otherwise
+     * @see     #isFresh
+     * @see     Cache#isOffline
+     * @see     Cache#isUnreachable
+     */
+    public boolean isRevalidationSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Indicates whether the last update failed, either because the origin could not be reached or
+     * because the transfer was aborted. The cached resource is left as it was before the update.
+     *
+     * @return  <code>true</code> if the last update failed; <code>false</code> otherwise
+     */
+    public boolean isUpdateFailed() {
+        return updateFailed;
+    }
+
+    /**
+     * Uses the cached resource as it is instead of updating it. This is done while the cache is
+     * offline, or the host of the cached resource unreachable, for cached resources that may be
+     * used offline.
+     */
+    void skipRevalidation() {
+        skipped = true;
+
+        CacheMetrics.getInstance().recordHit();
+    }
+
+    /**
+     * Returns the transfer engine used to update this cached resource.
+     *
+     * @return  the transfer engine
+     * @see     TransferEngine#getDefault
+     */
+    public TransferEngine getTransferEngine() {
+        return (engine != null) ? engine : TransferEngine.getDefault();
+    }
+
+    /**
+     * Sets the transfer engine used to update this cached resource.
+     *
+     * @param   engine  the transfer engine, or <code>null</code> to use the default engine
+     */
+    public void setTransferEngine(TransferEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Replaces the reference of this cached resource with one to the same url, typically
+     * because the version-ids asked for have changed. The next update brings the cached
+     * resource in line with the new reference.
+     *
+     * @param   ref  the new reference
+     */
+    void setReference(Reference ref) {
+        reference = ref;
+    }
+
+    /**
+     * Returns the object held while the files and validators of the cached resource are
+     * changed, so that they can be read together. The same object is returned whatever the
+     * reference.
+     *
+     * @return  the lock of the cached resource
+     */
+    protected final Object getLock() {
+        return lock;
+    }
+
     public long length() {
         return actualLength;
     }
 
+    /**
+     * Returns the expected length of the resource being transferred. When the transfer is
+     * compressed the length of the decoded resource is not known until the transfer is done, so
+     * it is estimated from how well the bytes received so far have decoded.
+     *
+     * @return  expected length or -1 if not known
+     */
     public long expectedLength() {
+        if (statistics.wireLength > 0L && statistics.wireAmount > 0L) {
+            return statistics.resumedAmount + statistics.transferAmount * statistics.wireLength / statistics.wireAmount;
+        }
+
         return statistics.contentLength;
     }
 
+    /**
+     * Returns the number of bytes of the resource transferred so far by the current transfer.
+     * These are the bytes stored, after any content encoding has been decoded.
+     *
+     * @return  number of bytes transferred
+     */
     public long transferAmount() {
         return statistics.transferAmount;
     }
 
+    /**
+     * Returns the number of bytes received on the wire so far by the current transfer. This is
+     * less than <code>transferAmount</code> when the transfer is compressed.
+     *
+     * @return  number of bytes received
+     * @see     ContentEncoding
+     */
+    public long wireAmount() {
+        return statistics.wireAmount;
+    }
+
+    /**
+     * Returns the number of bytes of the current transfer that were already downloaded by an
+     * earlier, incomplete update and were not transferred again.
+     *
+     * @return  number of resumed bytes
+     */
+    public long resumedAmount() {
+        return statistics.resumedAmount;
+    }
+
     public int transferRate() {
         return statistics.transferRate;
     }
 
+    /**
+     * Indicates whether bytes of the resource are being transferred by an update right now.
+     *
+     * @return  <code>true</code> if a transfer is in progress; <code>false</code> otherwise
+     */
+    public boolean isTransferring() {
+        return statistics.updating;
+    }
+
     public boolean equals(Object obj) {
         return reference.equals(obj);
     }
@@ -78,20 +316,45 @@ public abstract class CachedResource {
         return reference.hashCode();
     }
 
+    /**
+     * Returns the bytes of the cached resource. When the size of the cached resource is known
+     * the bytes are read straight into an array of exactly that size, so the only allocation is
+     * the array returned.
+     *
+     * @return  the bytes of the cached resource
+     * @throws  CacheException if the cached resource can not be read
+     * @see     #openCacheChannel
+     */
     public byte[] getBytes() {
         byte[] bytes = null;
 
-        // copy bytes from cache to ByteArrayInputStream
         try {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            InputStream is = openCacheInputStream();
+            ReadableByteChannel ch = openCacheChannel();
 
-            copy(is, os);
+            try {
+                long size = (ch instanceof FileChannel) ? ((FileChannel) ch).size() : length();
 
-            os.close();
-            is.close();
+                if (size > 0L && size <= Integer.MAX_VALUE) {
+                    bytes = new byte[(int) size];
 
-            bytes = os.toByteArray();
+                    ByteBuffer bb = ByteBuffer.wrap(bytes);
+
+                    while (bb.hasRemaining() && ch.read(bb) != -1) {
+                    }
+
+                    if (bb.hasRemaining()) {
+                        throw new IOException("cached resource truncated");
+                    }
+                } else {
+                    // size not known, so collect the bytes
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+                    getTransferEngine().transfer(ch, Channels.newChannel(os), null);
+                    bytes = os.toByteArray();
+                }
+            } finally {
+                ch.close();
+            }
         } catch (Exception e) {
             throw new CacheException("Error getting bytes from cache");
         }
@@ -99,115 +362,1046 @@ public abstract class CachedResource {
         return bytes;
     }
 
+    /**
+     * Returns the bytes of the cached resource as a read-only buffer. This avoids copying the
+     * bytes onto the heap where the cached resource can be mapped into memory.
+     * <p>
+     * This implementation reads the bytes into a heap buffer with <code>getBytes</code>.
+     *
+     * @return  a read-only buffer of the bytes of the cached resource
+     * @throws  IOException if the cached resource can not be read
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        try {
+            return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+        } catch (CacheException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a new channel to read the cached resource from, as a stream of bytes.
+     * <p>
+     * This implementation wraps <code>openCacheInputStream</code>, using the channel of a file
+     * stream directly.
+     *
+     * @return  a channel reading the cached resource
+     * @throws  IOException if the cached resource can not be read
+     */
+    public ReadableByteChannel openCacheChannel() throws IOException {
+        return TransferEngine.channel(openCacheInputStream());
+    }
+
     public void abortUpdate() {
         statistics.aborted = true;
     }
 
-    protected long getRemoteLastModified() {
-        URLConnection uc = null;
-        long remoteLastModified = 0L;
+    /**
+     * Opens a connection to the referenced resource that only returns the resource if it differs
+     * from what is cached. The last-modified date and entity tag of the cached resource are sent as
+     * the <code>If-Modified-Since</code> and <code>If-None-Match</code> validators, and a
+     * compressed response is accepted. The connection is made to the origin.
+     *
+     * @return  a connection to the referenced resource
+     * @throws  IOException if the connection can not be opened
+     */
+    protected URLConnection openConditionalConnection() throws IOException {
+        return openConditionalConnection(reference.getURL(), null);
+    }
+
+    /**
+     * Opens a conditional connection to the specified url, which is the referenced url or a
+     * version-based request for it. The connection is made to the specified upstream cache
+     * instead, if there is one.
+     *
+     * @param   url  the url to connect to
+     * @param   up   the upstream cache to ask, or <code>null</code> to ask the origin
+     * @return  a connection to the url
+     * @throws  IOException if the connection can not be opened
+     * @see     #openConditionalConnection()
+     */
+    private URLConnection openConditionalConnection(URL url, UpstreamCaches.Upstream up) throws IOException {
+        URLConnection uc = ((up != null) ? up.resolve(url) : url).openConnection();
+
+        ContentEncoding.accept(uc);
+
+        if (lastModified != 0L) {
+            uc.setIfModifiedSince(lastModified);
+        }
+
+        if (entityTag != null) {
+            uc.setRequestProperty("If-None-Match", entityTag);
+        }
+
+        return uc;
+    }
+
+    /**
+     * Opens a connection for a version-based download of the referenced resource. The version-ids
+     * of the reference are sent as the <code>version-id</code> query argument. If a patch is
+     * acceptable the version-id of the cached resource is sent as <code>current-version-id</code>,
+     * so the server can return a JARDiff from the cached version instead of the whole resource.
+     * The request is also conditional, in case the server ignores the version-ids. The
+     * connection is made to the origin.
+     *
+     * @param   patch  whether a JARDiff patch is acceptable
+     * @return  a connection for the version-based download
+     * @throws  IOException if the connection can not be opened
+     */
+    protected URLConnection openVersionedConnection(boolean patch) throws IOException {
+        return openConditionalConnection(versionedURL(patch), null);
+    }
+
+    /**
+     * Returns the url of a version-based download of the referenced resource.
+     *
+     * @param   patch  whether a JARDiff patch is acceptable
+     * @return  the url asking for the version-ids of the reference
+     * @throws  IOException if the url can not be made
+     * @see     #openVersionedConnection
+     */
+    private URL versionedURL(boolean patch) throws IOException {
+        Version[] vers = reference.getVersions();
+        StringBuffer sb = new StringBuffer(reference.getURL().toString());
+
+        sb.append((reference.getURL().getQuery() != null) ? '&' : '?');
+        sb.append("version-id=");
+
+        for (int i = 0; i < vers.length; i++) {
+            sb.append(URLEncoder.encode(vers[i].toString(), "UTF-8"));
+
+            if (i < vers.length - 1) {
+                sb.append('+');		// an encoded space
+            }
+        }
+
+        if (patch) {
+            sb.append("&current-version-id=");
+            sb.append(URLEncoder.encode(versionId, "UTF-8"));
+        }
+
+        return new URL(sb.toString());
+    }
+
+    /**
+     * Determines from the validators returned by the remote side if the referenced resource
+     * differs from the cached resource. Matching entity tags win over last-modified dates; a
+     * resource with neither validator is only considered modified if nothing has been cached.
+     *
+     * @param   remoteLastModified  the remote last-modified date, or 0 if unknown
+     * @param   remoteTag           the remote entity tag, or <code>null</code> if unknown
+     * @return  <code>true</code> if the resource should be transferred; <code>false</code> otherwise
+     */
+    protected boolean isModified(long remoteLastModified, String remoteTag) {
+        if (remoteTag != null && entityTag != null) {
+            return !remoteTag.equals(entityTag);
+        }
+
+        if (remoteLastModified == 0L) {
+            return (lastModified == 0L && entityTag == null);
+        }
+
+        return (remoteLastModified > lastModified);
+    }
+
+    /**
+     * Returns the validator to use with <code>If-Range</code> when resuming a transfer of the
+     * resource described by the specified validators. A strong entity tag is preferred, then the
+     * last-modified date as an HTTP date.
+     *
+     * @param   remoteLastModified  the remote last-modified date, or 0 if unknown
+     * @param   remoteTag           the remote entity tag, or <code>null</code> if unknown
+     * @return  the range validator or <code>null</code> if the transfer can not safely be resumed
+     */
+    protected static String rangeValidator(long remoteLastModified, String remoteTag) {
+        if (remoteTag != null && !remoteTag.startsWith("W/")) {
+            return remoteTag;
+        }
+
+        if (remoteLastModified != 0L) {
+            SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+            return df.format(new Date(remoteLastModified));
+        }
+
+        return null;
+    }
+
+    /**
+     * Updates the cached resource if the referenced resource has changed. This is done with a
+     * single conditional request; a <code>304 Not Modified</code> response (or validators that
+     * match the cached resource) leaves the cached resource alone.
+     * <p>
+     * Bytes are written to a partial download first and only committed as the cached resource
+     * once the transfer completes, so a cached resource is never seen half-written. If a transfer is aborted or fails the partial download is
+     * kept, if possible, and the next update asks for the remainder with a <code>Range</code>
+     * request. Should the resource have changed in the meantime, or the server not support
+     * ranges, the whole resource is transferred again.
+     * <p>
+     * A versioned reference to an HTTP resource uses the version-based download protocol. Nothing
+     * is requested if the version-id of the cached resource satisfies the reference, otherwise
+     * the server is asked for one of the version-ids of the reference. When a jar is cached and
+     * patches can be applied the server may answer with a JARDiff from the cached version, which
+     * is applied to the cached jar and verified before it replaces it. Should that fail the whole
+     * jar is downloaded instead.
+     * <p>
+     * Versions that a newer version replaces may be kept aside. If one of those satisfies the
+     * reference it becomes the cached resource again without any request being made.
+     * <p>
+     * A <code>file:</code> resource is compared by size and last-modified date, without being
+     * opened, and imported directly from the file when it has changed.
+     * <p>
+     * Any other cached resource that is still fresh is used without contacting its origin. The
+     * response to a request that is made decides how long the cached resource stays fresh.
+     * A host that can not be reached is recorded as unreachable for a while.
+     * <p>
+     * If upstream caches are configured the request goes to one of them instead of the origin,
+     * with the same validators. Bytes from an upstream cache are verified against the digest it
+     * sends, and are not used if it sends none. Should the upstream cache fail, be unable to
+     * serve the resource, or send bytes that can not be verified, the request is made to the
+     * origin.
+     *
+     * @return  <code>true</code> if the cached resource was updated; <code>false</code> otherwise
+     * @see     UpstreamCaches
+     */
+    public boolean update() {
+        return update(false);
+    }
+
+    /**
+     * Downloads a newer version of the resource, if there is one, without touching the cached
+     * resource. The new version is staged until <code>promoteStaged</code> makes it the cached
+     * resource, so an app can keep running from the cached resource while the download is
+     * going on. Revalidation works as for <code>update</code>.
+     *
+     * @return  <code>true</code> if a newer version was staged; <code>false</code> otherwise
+     * @see     #promoteStaged
+     */
+    public boolean stage() {
+        return update(true);
+    }
+
+    /**
+     * Indicates whether a newer version of the resource has been staged.
+     *
+     * @return  <code>true</code> if a version is staged; <code>false</code> otherwise
+     */
+    public boolean isStaged() {
+        return (staged != null);
+    }
+
+    /**
+     * Makes the staged version the cached resource. Like any new version, the version it
+     * replaces may be kept aside.
+     *
+     * @return  <code>true</code> if the staged version is now the cached resource; <code>false</code>
+     *          if nothing was staged or it could not be promoted
+     * @see     #stage
+     */
+    public boolean promoteStaged() {
+        synchronized (lock) {
+            StagedVersion sv = staged;
+
+            if (sv == null) {
+                return false;
+            }
+
+            staged = null;
+
+            boolean kept = (versionId != null && sv.versionId != null && !sv.versionId.equals(versionId) && retainVersion());
+
+            try {
+                installStaged();
+            } catch (IOException e) {
+                System.err.println(e);
+
+                if (kept) {
+                    restoreVersion();
+                }
+
+                discardStaged();
+
+                return false;
+            }
+
+            actualLength = sv.length;
+            lastModified = sv.lastModified;
+            entityTag = sv.entityTag;
+            versionId = sv.versionId;
+            expires = sv.expires;
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the staged version in the specified attributes, so it can be promoted by another
+     * virtual machine.
+     *
+     * @param   attrs  the attributes of the cached resource
+     */
+    void storeStaged(Properties attrs) {
+        StagedVersion sv = staged;
+
+        if (sv == null) {
+            return;
+        }
+
+        attrs.setProperty("staged.modtime", Long.toString(sv.lastModified));
+        attrs.setProperty("staged.length", Long.toString(sv.length));
+        attrs.setProperty("staged.expires", Long.toString(sv.expires));
+
+        if (sv.entityTag != null) {
+            attrs.setProperty("staged.etag", sv.entityTag);
+        }
+
+        if (sv.versionId != null) {
+            attrs.setProperty("staged.version", sv.versionId);
+        }
+    }
+
+    /**
+     * Reads the staged version recorded by <code>storeStaged</code>.
+     *
+     * @param   attrs  the attributes of the cached resource
+     */
+    void loadStaged(Properties attrs) {
+        if (attrs.getProperty("staged.length") == null) {
+            return;
+        }
+
+        try {
+            StagedVersion sv = new StagedVersion();
+            sv.lastModified = Long.parseLong(attrs.getProperty("staged.modtime", "0"));
+            sv.length = Long.parseLong(attrs.getProperty("staged.length"));
+            sv.expires = Long.parseLong(attrs.getProperty("staged.expires", "0"));
+            sv.entityTag = attrs.getProperty("staged.etag");
+            sv.versionId = attrs.getProperty("staged.version");
+
+            staged = sv;
+        } catch (NumberFormatException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Does the work of <code>update</code> and <code>stage</code>.
+     *
+     * @param   staging  whether a new version is staged instead of replacing the cached resource
+     * @return  <code>true</code> if the cached resource was updated or a new version staged;
+     *          <code>false</code> otherwise
+     */
+    private boolean update(boolean staging) {
+        skipped = false;
+        updateFailed = false;
 
         // this is a kludge for file URLs because Sun's URLConnection for "file:" doesn't work right
         if ("file".equals(reference.getURL().getProtocol())) {
-            return new File(reference.getURL().getPath()).lastModified();
+            File src = new File(reference.getURL().getPath());
+            long remoteLastModified = src.lastModified();
+
+            if (remoteLastModified == 0L || (remoteLastModified <= lastModified && src.length() == actualLength)) {
+                CacheMetrics.getInstance().recordRevalidation();
+
+                return false;
+            }
+
+            if (src.isFile()) {
+                return importFile(src, remoteLastModified);
+            }
+        }
+
+        String protocol = reference.getURL().getProtocol();
+        boolean versioned = reference.isVersioned() && ("http".equals(protocol) || "https".equals(protocol));
+
+        // a version of a resource never changes, so a cached version that fits needs no request
+        if (versioned && versionId != null && actualLength > 0L && reference.matchesVersion(new Version(versionId))) {
+            CacheMetrics.getInstance().recordRevalidation();
+
+            return false;
+        }
+
+        if (versioned && !staging && selectRetainedVersion()) {
+            CacheMetrics.getInstance().recordHit();
+
+            return true;
+        }
+
+        // the origin said the cached resource needs no revalidation until it expires
+        if (!versioned && isFresh()) {
+            skipRevalidation();
+
+            return false;
         }
 
+        return update(new Attempt(staging, versioned));
+    }
+
+    /**
+     * Makes an attempt at an update. The request is made, a changed resource is transferred to
+     * the partial download, and a completed partial download is committed. Should the attempt
+     * fail in a way that another attempt can fix, the update is retried with a new attempt in
+     * the mode that the failure calls for.
+     *
+     * @param   at  the attempt
+     * @return  <code>true</code> if the cached resource was updated or a new version staged;
+     *          <code>false</code> otherwise
+     */
+    private boolean update(Attempt at) {
+        // do a cache update; the transfer goes to a partial download so it needs no lock
+        statistics.reset();
+
+        at.resumeFrom = partialLength();
+        at.ifRange = (at.resumeFrom > 0L && !at.rangeless) ? partialValidator() : null;
+        at.requestMillis = System.currentTimeMillis();
+
         try {
-            uc = reference.getURL().openConnection();
+            if (request(at)) {
+                transfer(at);
+            }
         } catch (Exception e) {
             System.err.println(e);
+            statistics.aborted = true;
+            at.failed = true;
+
+            if (at.upstream != null) {
+                at.passOver = (at.passOver || !at.retry || at.corrupt);
+                at.retry = true;
+            } else if (e instanceof UnknownHostException || e instanceof ConnectException || e instanceof NoRouteToHostException) {
+                Cache.setReachable(reference.getURL().getHost(), false);
+            }
+
+            // a failed revalidation leaves the cached resource intact
+            at.modified = (at.out != null);
+        }
+
+        // partial download is no good, start over once without a range
+        if (at.refused) {
+            Attempt next = new Attempt(at);
+            next.rangeless = true;
+
+            return update(next);
+        }
+
+        if (at.completed) {
+            commit(at);
+        }
+
+        finish(at);
+
+        // an upstream cache that failed is passed over for the next one, or else the origin
+        if (at.retry && !at.originOnly) {
+            if (at.corrupt || at.unverified) {
+                discardPartial();
+            }
+
+            if (at.passOver) {
+                at.upstream.failed();
+            }
+
+            Attempt next = new Attempt(at);
+            next.originOnly = !at.passOver;
+
+            return update(next);
+        }
+
+        if (!at.modified) {
+            if (!at.failed) {
+                expires = at.remoteExpires;
+            }
+
+            return false;
+        }
+
+        if (at.completed) {
+            return true;
+        }
+
+        // a patch that can not be applied is thrown away and the whole resource downloaded
+        if (at.patchFailed) {
+            discardPartial();
+
+            Attempt next = new Attempt(at);
+            next.wholeOnly = true;
+
+            return update(next);
+        }
+
+        // keep what has been transferred so far only if the transfer can be resumed later
+        if (at.validator == null || partialLength() == 0L) {
+            discardPartial();
+        }
+
+        return false;
+    }
+
+    /**
+     * Makes the request of an attempt at an update, to an upstream cache if one is available,
+     * and reads the validators of the response into the attempt. A partial download that the
+     * response refuses is thrown away and the attempt marked refused.
+     *
+     * @param   at  the attempt
+     * @return  <code>true</code> if the resource has changed and is to be transferred;
+     *          <code>false</code> otherwise
+     * @throws  IOException if the request fails
+     */
+    private boolean request(Attempt at) throws IOException {
+        boolean patchable = at.versioned && !at.wholeOnly && canPatch();
+        URL url = (at.versioned) ? versionedURL(patchable) : reference.getURL();
+
+        at.upstream = (at.originOnly) ? null : UpstreamCaches.getInstance().select(url);
+        at.uc = openConditionalConnection(url, at.upstream);
+
+        URLConnection uc = at.uc;
+        UpstreamCaches.Upstream up = at.upstream;
+        boolean ranged = (at.ifRange != null && uc instanceof HttpURLConnection);
+
+        if (ranged) {
+            // the partial download holds decoded bytes, so the rest must not be encoded
+            uc.setRequestProperty("Range", "bytes=" + at.resumeFrom + "-");
+            uc.setRequestProperty("If-Range", at.ifRange);
+            uc.setRequestProperty("Accept-Encoding", ContentEncoding.IDENTITY);
         }
 
-        if (uc != null) {
-            if (uc instanceof HttpURLConnection) {
-                try {
-                    ((HttpURLConnection) uc).setRequestMethod("HEAD");
-                } catch (ProtocolException e) {
-                    // ignore this exception, not important
+        if (uc instanceof HttpURLConnection) {
+            HttpURLConnection huc = (HttpURLConnection) uc;
+            int code = huc.getResponseCode();
+
+            if (ranged && (code == 416 || code == HttpURLConnection.HTTP_PARTIAL && ContentEncoding.isEncoded(uc))) {
+                huc.disconnect();
+
+                if (!discardPartial()) {
+                    throw new IOException(reference.getURL() + ": partial download is in use");
                 }
+
+                at.refused = true;
+
+                return false;
+            }
+
+            if (code == HttpURLConnection.HTTP_PARTIAL && !(ranged && rangeStart(uc) == at.resumeFrom)) {
+                throw new IOException(reference.getURL() + ": unexpected range " + uc.getHeaderField("Content-Range"));
             }
 
-            remoteLastModified = uc.getLastModified();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL && code != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // an upstream cache that answers but can not serve the resource is not at fault
+                if (up != null) {
+                    at.retry = true;
+                    at.passOver = (code == HttpURLConnection.HTTP_UNAVAILABLE || code == HttpURLConnection.HTTP_GATEWAY_TIMEOUT);
+                }
 
-            if (uc instanceof HttpURLConnection) {
-                ((HttpURLConnection) uc).disconnect();
+                throw new IOException(reference.getURL() + ": " + code + " " + huc.getResponseMessage());
             }
+
+            if (up != null) {
+                up.succeeded(System.currentTimeMillis() - at.requestMillis);
+            } else {
+                Cache.setReachable(reference.getURL().getHost(), true);
+            }
+
+            at.modified = (code != HttpURLConnection.HTTP_NOT_MODIFIED);
+            at.append = (code == HttpURLConnection.HTTP_PARTIAL);
+        } else {
+            at.modified = true;
+        }
+
+        at.remoteTag = uc.getHeaderField("ETag");
+        at.remoteVersion = (at.versioned) ? uc.getHeaderField("x-java-jnlp-version-id") : null;
+        at.remoteLastModified = uc.getLastModified();
+        at.remoteExpires = freshUntil(uc, at.requestMillis);
+        at.patch = (at.modified && uc.getContentType() != null && uc.getContentType().startsWith(JarDiff.MIME_TYPE));
+
+        if (at.patch && !patchable) {
+            throw new IOException(reference.getURL() + ": unexpected " + JarDiff.MIME_TYPE);
+        }
+
+        if (at.modified || uc.getHeaderField("Cache-Control") != null) {
+            noCache = isNoCache(uc);
+        }
+
+        // a different version is always transferred, whatever its last-modified date
+        boolean newVersion = (at.remoteVersion != null && !at.remoteVersion.equals(versionId));
+
+        // servers that ignore the validators still return them, so check them here as well
+        if (at.modified && (at.append || newVersion || isModified(at.remoteLastModified, at.remoteTag))) {
+            return true;
         }
 
-        return remoteLastModified;
+        at.modified = false;
+
+        // the cached resource is current so any partial download is stale
+        if (at.resumeFrom > 0L) {
+            discardPartial();
+        }
+
+        return false;
     }
 
-    public boolean update() {
-        long remoteLastModified = getRemoteLastModified();
+    /**
+     * Transfers the changed resource of an attempt at an update to the partial download. The
+     * attempt is completed once every byte announced has arrived and, for bytes from an upstream
+     * cache, matches the digest the upstream cache sent.
+     *
+     * @param   at  the attempt
+     * @throws  IOException if the transfer fails or the bytes do not match the digest
+     */
+    private void transfer(Attempt at) throws IOException {
+        URLConnection uc = at.uc;
 
-        if (remoteLastModified == 0L || remoteLastModified <= lastModified) {
-            return false;
+        if (!at.append) {
+            at.resumeFrom = 0L;
         }
 
-        // do a cache update
-        synchronized (reference) {
-            statistics.reset();
+        long length = uc.getContentLength();
+        boolean encoded = ContentEncoding.isEncoded(uc);
 
-            InputStream in = null;
-            OutputStream out = null;
+        // the length of an encoded transfer is only the length on the wire
+        statistics.contentLength = (length < 0L || encoded) ? -1L : length + at.resumeFrom;
+        statistics.wireLength = (encoded) ? length : 0L;
+        statistics.resumedAmount = at.resumeFrom;
+        at.validator = (at.append) ? at.ifRange : rangeValidator(at.remoteLastModified, at.remoteTag);
 
-            try {
-                URLConnection uc = reference.getURL().openConnection();
+        at.in = ContentEncoding.decode(uc, new WireCountingInputStream(uc.getInputStream()));
+        at.out = openPartialOutputStream(at.append, at.validator);
 
-                lastModified = uc.getLastModified();
-                statistics.contentLength = uc.getContentLength();
-                in = uc.getInputStream();
-                out = openCacheOutputStream();
+        statistics.updating = true;
+        statistics.aborted = false;
 
-                byte[] buffer = new byte[1024];
-                int bytesRead;
+        getTransferEngine().transfer(TransferEngine.channel(at.in), partialChannel(at.out), statistics);
 
-                long startMillis = System.currentTimeMillis();
-                int secs;
-                statistics.updating = true;
-                statistics.aborted = false;
+        // a dropped connection can look like the end of the stream
+        if (length >= 0L && statistics.wireAmount != length) {
+            statistics.aborted = true;
+        }
 
-                for (boolean done = false; !done && !statistics.aborted;) {
-                    if ((bytesRead = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, bytesRead);
+        // never commit a resource shorter or longer than announced
+        if (statistics.contentLength >= 0L && statistics.resumedAmount + statistics.transferAmount != statistics.contentLength) {
+            statistics.aborted = true;
+        }
 
-                        if ((secs = (int) ((System.currentTimeMillis() - startMillis) / 1000L)) == 0) {
-                            secs = 1;
-                        }
+        at.completed = !statistics.aborted;
 
-                        statistics.transferAmount += bytesRead;
-                        statistics.transferRate = (int) (statistics.transferAmount / (long) secs);
-                    } else {
-                        done = true;
-                    }
-                }
+        // bytes from an upstream cache must match the digest it has for the whole resource
+        if (at.upstream != null && at.completed && !at.patch) {
+            String expected = uc.getHeaderField(UpstreamCaches.DIGEST_HEADER);
+            String actual = (expected != null) ? partialDigest(at.out) : null;
 
-                lastModified = remoteLastModified;
-            } catch (Exception e) {
-                System.err.println(e);
-                statistics.aborted = true;
+            if (actual == null) {
+                // bytes that can not be verified are fetched again from the origin
+                at.unverified = true;
+                at.retry = true;
+                throw new IOException(reference.getURL() + ": no digest to verify from upstream cache " + at.upstream);
             }
 
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e0) { }
+            if (!actual.equalsIgnoreCase(expected)) {
+                at.corrupt = true;
+                throw new IOException(reference.getURL() + ": digest mismatch from upstream cache " + at.upstream);
             }
+        }
+    }
 
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e1) { }
+    /**
+     * Commits the completed partial download of an attempt at an update, as the cached resource
+     * or as the staged version. Should that fail the attempt is no longer completed.
+     *
+     * @param   at  the attempt
+     */
+    private void commit(Attempt at) {
+        try {
+            // only the swap needs to exclude other updaters; readers keep whichever file they opened
+            synchronized (lock) {
+                if (at.staging) {
+                    StagedVersion sv = new StagedVersion();
+                    sv.length = commitStaged(at.out, at.patch);
+                    sv.lastModified = at.remoteLastModified;
+                    sv.entityTag = at.remoteTag;
+                    sv.versionId = at.remoteVersion;
+                    sv.expires = at.remoteExpires;
+
+                    staged = sv;
+                } else {
+                    boolean kept = (versionId != null && at.remoteVersion != null && !at.remoteVersion.equals(versionId) && retainVersion());
+
+                    try {
+                        if (at.patch) {
+                            actualLength = commitPatch(at.out);
+                        } else {
+                            commitPartial(at.out);
+                            actualLength = statistics.resumedAmount + statistics.transferAmount;
+                        }
+                    } catch (IOException e) {
+                        if (kept) {
+                            restoreVersion();
+                        }
+
+                        throw e;
+                    }
+
+                    lastModified = at.remoteLastModified;
+                    entityTag = at.remoteTag;
+                    versionId = at.remoteVersion;
+                    expires = at.remoteExpires;
+
+                    // the cached resource is now at least as new as anything staged
+                    if (staged != null) {
+                        staged = null;
+                        discardStaged();
+                    }
+                }
             }
+        } catch (IOException e) {
+            System.err.println(e);
+            statistics.aborted = true;
+            at.completed = false;
+            at.patchFailed = at.patch;
+        }
+    }
+
+    /**
+     * Closes the connection and streams of an attempt at an update, and records its outcome.
+     *
+     * @param   at  the attempt
+     */
+    private void finish(Attempt at) {
+        if (at.out != null) {
+            try {
+                at.out.close();
+            } catch (IOException e0) { }
+        }
+
+        if (at.in != null) {
+            try {
+                at.in.close();
+            } catch (IOException e1) { }
+        }
+
+        if (at.uc instanceof HttpURLConnection && !at.modified) {
+            ((HttpURLConnection) at.uc).disconnect();
+        }
+
+        statistics.updating = false;
+
+        CacheMetrics metrics = CacheMetrics.getInstance();
+
+        if (statistics.wireAmount > 0L) {
+            metrics.recordBytes(reference.getURL().getHost(), statistics.wireAmount);
+        }
+
+        if (at.completed) {
+            metrics.recordMiss(System.currentTimeMillis() - at.requestMillis);
+        } else if (!at.modified && !at.failed) {
+            metrics.recordRevalidation();
+        }
+
+        updateFailed = (at.failed || (at.modified && !at.completed));
+    }
+
+    /**
+     * Updates the cached resource from a local file. This bypasses the URL connection entirely;
+     * the file is transferred with <code>transferFile</code> into a new partial download which
+     * then replaces the cached resource. Nothing is kept of an incomplete import.
+     *
+     * @param   src                 the file to import
+     * @param   remoteLastModified  the last-modified date of the file
+     * @return  <code>true</code> if the cached resource was updated; <code>false</code> otherwise
+     */
+    private boolean importFile(File src, long remoteLastModified) {
+        statistics.reset();
+        statistics.contentLength = src.length();
+
+        OutputStream out = null;
+        boolean completed = false;
+
+        long requestMillis = System.currentTimeMillis();
+
+        try {
+            out = openPartialOutputStream(false, null);
 
-            actualLength = statistics.transferAmount;
-            statistics.updating = false;
+            statistics.updating = true;
+            statistics.aborted = false;
 
-            if (statistics.aborted) {
-                purge();
+            transferFile(src, out);
+
+            completed = (!statistics.aborted && statistics.transferAmount == statistics.contentLength);
+
+            if (completed) {
+                synchronized (lock) {
+                    commitPartial(out);
+
+                    lastModified = remoteLastModified;
+                    entityTag = null;
+                    actualLength = statistics.transferAmount;
+                }
             }
+        } catch (Exception e) {
+            System.err.println(e);
+            statistics.aborted = true;
+            completed = false;
+        }
+
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e0) { }
+        }
+
+        statistics.updating = false;
+
+        if (!completed) {
+            discardPartial();
         }
 
+        CacheMetrics metrics = CacheMetrics.getInstance();
+
+        metrics.recordBytes(reference.getURL().getHost(), statistics.transferAmount);
+
+        if (completed) {
+            metrics.recordMiss(System.currentTimeMillis() - requestMillis);
+        }
+
+        return completed;
+    }
+
+    /**
+     * Copies a local file to the partial download with the transfer engine, counting the bytes
+     * transferred and stopping early if the update is aborted.
+     *
+     * @param   src  the file to copy
+     * @param   out  the output stream to the partial download
+     * @throws  IOException if the file can not be copied
+     * @see     TransferEngine#transferFile
+     */
+    protected void transferFile(File src, OutputStream out) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+
+        try {
+            getTransferEngine().transferFile(in.getChannel(), partialChannel(out), statistics);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a channel that writes to the partial download through the specified stream.
+     * <p>
+     * This implementation returns a channel wrapping the stream.
+     *
+     * @param   out  the output stream returned by <code>openPartialOutputStream</code>
+     * @return  a channel to the partial download
+     */
+    protected WritableByteChannel partialChannel(OutputStream out) {
+        return TransferEngine.channel(out);
+    }
+
+    /**
+     * Returns the first byte position of the <code>Content-Range</code> of a partial response.
+     *
+     * @param   uc  the connection with a partial response
+     * @return  first byte position or -1 if not known
+     */
+    private static long rangeStart(URLConnection uc) {
+        String range = uc.getHeaderField("Content-Range");
+
+        try {
+            int start = range.indexOf("bytes") + 5;
+
+            return Long.parseLong(range.substring(start, range.indexOf('-', start)).trim());
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Returns the length of the partial download kept from an earlier, incomplete update.
+     * <p>
+     * This implementation keeps no partial downloads and returns 0.
+     *
+     * @return  number of bytes already downloaded, or 0 if there is no partial download
+     */
+    protected long partialLength() {
+        return 0L;
+    }
+
+    /**
+     * Returns the range validator recorded with the partial download when it was started.
+     * <p>
+     * This implementation keeps no partial downloads and returns <code>null</code>.
+     *
+     * @return  the range validator or <code>null</code> if there is none
+     * @see     #rangeValidator
+     */
+    protected String partialValidator() {
+        return null;
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 digest of the completed partial download, so that bytes
+     * from an upstream cache can be verified before they are committed.
+     * <p>
+     * This implementation can not read the partial download back and returns <code>null</code>.
+     *
+     * @param   out  the open output stream to the completed partial download
+     * @return  hex-encoded digest or <code>null</code> if not known
+     * @throws  IOException if the partial download can not be read
+     * @see     UpstreamCaches#DIGEST_HEADER
+     */
+    protected String partialDigest(OutputStream out) throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns a new output stream to the partial download. The range validator is recorded with
+     * the partial download so that it can later be resumed.
+     * <p>
+     * This implementation writes directly to the cached resource and can not append.
+     *
+     * @param   append     <code>true</code> to append to the partial download; <code>false</code>
+     *                     to start a new one
+     * @param   validator  the range validator, or <code>null</code> if the download can not be resumed
+     * @return  output stream to the partial download
+     * @throws  IOException if the output stream can not be opened
+     */
+    protected OutputStream openPartialOutputStream(boolean append, String validator) throws IOException {
+        if (append) {
+            throw new IOException("partial downloads not supported");
+        }
+
+        return openCacheOutputStream();
+    }
+
+    /**
+     * Makes the completed partial download the cached resource. The output stream returned by
+     * <code>openPartialOutputStream</code> is passed in still open, and is closed by this method.
+     * <p>
+     * This implementation simply closes the stream as bytes are written directly to the cached
+     * resource.
+     *
+     * @param   out  the output stream to the completed partial download
+     * @throws  IOException if the partial download can not be committed
+     */
+    protected void commitPartial(OutputStream out) throws IOException {
+        out.close();
+    }
+
+    /**
+     * Indicates whether a JARDiff patch can be applied to the cached resource, so that a
+     * version-based download may ask for one.
+     * <p>
+     * This implementation can not apply patches and returns <code>false</code>.
+     *
+     * @return  <code>true</code> if a patch can be applied; <code>false</code> otherwise
+     * @see     #commitPatch
+     */
+    protected boolean canPatch() {
+        return false;
+    }
+
+    /**
+     * Applies the JARDiff in the completed partial download to the cached resource, making the
+     * patched jar the cached resource. The output stream returned by
+     * <code>openPartialOutputStream</code> is passed in still open, and is closed by this method.
+     * <p>
+     * This implementation can not apply patches and always throws an exception.
+     *
+     * @param   out  the output stream to the completed partial download
+     * @return  the length of the patched resource
+     * @throws  IOException if the patch can not be applied
+     * @see     JarDiff
+     */
+    protected long commitPatch(OutputStream out) throws IOException {
+        out.close();
+
+        throw new IOException("patches not supported");
+    }
+
+    /**
+     * Puts the completed partial download aside as the staged version, leaving the cached
+     * resource as it is. If the partial download is a JARDiff it is applied to the cached
+     * resource. The output stream returned by <code>openPartialOutputStream</code> is passed in
+     * still open, and is closed by this method.
+     * <p>
+     * This implementation can not stage versions and always throws an exception.
+     *
+     * @param   out    the output stream to the completed partial download
+     * @param   patch  whether the partial download is a JARDiff
+     * @return  the length of the staged version
+     * @throws  IOException if the version can not be staged
+     * @see     #stage
+     */
+    protected long commitStaged(OutputStream out, boolean patch) throws IOException {
+        out.close();
+
+        throw new IOException("staging not supported");
+    }
+
+    /**
+     * Makes the staged version the cached resource. This is called by <code>promoteStaged</code>
+     * after the version it replaces may have been kept aside.
+     * <p>
+     * This implementation can not stage versions and always throws an exception.
+     *
+     * @throws  IOException if the staged version can not be installed
+     */
+    protected void installStaged() throws IOException {
+        throw new IOException("staging not supported");
+    }
+
+    /**
+     * Throws away the staged version.
+     * <p>
+     * This implementation does nothing.
+     */
+    protected void discardStaged() {
+    }
+
+    /**
+     * Keeps the version of the cached resource aside as it is about to be replaced by a different
+     * version. This is called with the version-id of the cached resource still set, right before
+     * the new version is committed.
+     * <p>
+     * This implementation keeps no versions aside and returns <code>false</code>.
+     *
+     * @return  <code>true</code> if the version was kept aside; <code>false</code> otherwise
+     * @see     #restoreVersion
+     */
+    protected boolean retainVersion() {
+        return false;
+    }
+
+    /**
+     * Puts back the version kept aside by <code>retainVersion</code>, as the new version could
+     * not be committed after all.
+     * <p>
+     * This implementation does nothing.
+     */
+    protected void restoreVersion() {
+    }
+
+    /**
+     * Makes the best version kept aside that satisfies the reference the cached resource again.
+     * The version it replaces is itself kept aside.
+     * <p>
+     * This implementation keeps no versions aside and returns <code>false</code>.
+     *
+     * @return  <code>true</code> if a version kept aside is now the cached resource; <code>false</code>
+     *          otherwise
+     */
+    protected boolean selectRetainedVersion() {
+        return false;
+    }
+
+    /**
+     * Throws away the partial download.
+     * <p>
+     * This implementation purges the cached resource, as that is where bytes are written.
+     *
+     * @return  <code>true</code> if there is no partial download left; <code>false</code> if it
+     *          could not be thrown away
+     */
+    protected boolean discardPartial() {
+        purge();
+
         return true;
     }
 
@@ -221,25 +1415,199 @@ public abstract class CachedResource {
 
         lastModified = 0L;
         actualLength = 0L;
+        entityTag = null;
+        versionId = null;
+        expires = 0L;
+
+        if (staged != null) {
+            staged = null;
+            discardStaged();
+        }
+    }
+
+    /**
+     * Indicates whether a response forbids using it without revalidation, by
+     * <code>Cache-Control: no-cache</code> or <code>no-store</code>.
+     *
+     * @param   uc  the connection with the response
+     * @return  <code>true</code> if the response must always be revalidated; <code>false</code>
+     *          otherwise
+     */
+    private static boolean isNoCache(URLConnection uc) {
+        String cc = uc.getHeaderField("Cache-Control");
+
+        for (StringTokenizer st = new StringTokenizer((cc != null) ? cc : "", ","); st.hasMoreTokens();) {
+            String directive = st.nextToken().trim().toLowerCase();
+
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the time until which a response is fresh. <code>Cache-Control</code> takes
+     * precedence over <code>Expires</code>, which is taken relative to the <code>Date</code> of
+     * the response so that clocks need not agree. Without either the default TTL applies.
+     *
+     * @param   uc            the connection with the response
+     * @param   requestMillis the time the request was made
+     * @return  the expiration time in milliseconds or 0 if the response must be revalidated
+     */
+    private static long freshUntil(URLConnection uc, long requestMillis) {
+        if (isNoCache(uc)) {
+            return 0L;
+        }
+
+        String cc = uc.getHeaderField("Cache-Control");
+
+        if (cc != null) {
+            for (StringTokenizer st = new StringTokenizer(cc, ","); st.hasMoreTokens();) {
+                String directive = st.nextToken().trim().toLowerCase();
+
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        long age = uc.getHeaderFieldInt("Age", 0);
+                        long maxAge = Long.parseLong(directive.substring(8).trim());
+
+                        return (maxAge > age) ? requestMillis + (maxAge - age) * 1000L : 0L;
+                    } catch (NumberFormatException e) {
+                        return 0L;
+                    }
+                }
+            }
+        }
+
+        if (uc.getHeaderField("Expires") != null) {
+            long expiration = uc.getExpiration();
+            long date = uc.getDate();
+
+            if (expiration <= 0L) {
+                return 0L;			// an invalid date means already expired
+            }
+
+            return (date > 0L) ? requestMillis + (expiration - date) : expiration;
+        }
+
+        long ttl = Long.getLong(DEFAULT_TTL_PROPERTY, 0L).longValue();
+
+        return (ttl > 0L) ? requestMillis + ttl : 0L;
     }
 
 
     public static void copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[1024];
+        TransferEngine.getDefault().transfer(in, out, null);
+    }
+
+
+    /**
+     * An attempt at an update, from the request to the commit. A retried update makes a new
+     * attempt in the mode of the last one, changed as the failure calls for; everything else is
+     * found out by the attempt itself.
+     */
+    private static class Attempt {
+        final boolean staging;		// a new version is staged instead of replacing the cached resource
+        final boolean versioned;		// the version-based download protocol is used
+
+        boolean wholeOnly;		// no patch is asked for, as one could not be applied
+        boolean originOnly;		// the origin is asked, as an upstream cache failed
+        boolean rangeless;		// no range is asked for, as the partial download was refused
+
+        UpstreamCaches.Upstream upstream;	// the upstream cache asked, or null for the origin
+        URLConnection uc;
+        InputStream in;
+        OutputStream out;
+
+        long requestMillis;
+        long resumeFrom;		// length of the partial download, or 0 if starting over
+        String ifRange;		// validator of the partial download, or null if no range is asked for
+        String validator;		// validator recorded with the partial download being written
 
-        for (int read = 0; (read = in.read(buffer)) != -1;) {
-            out.write(buffer, 0, read);
+        long remoteLastModified;
+        long remoteExpires;
+        String remoteTag;
+        String remoteVersion;
+
+        boolean modified;		// the resource changed, or bytes of it were written
+        boolean append;		// the response is the rest of the partial download
+        boolean patch;		// the response is a JARDiff
+        boolean refused;		// the partial download was refused
+        boolean completed;
+        boolean failed;
+        boolean patchFailed;
+        boolean retry;		// another attempt is made, as an upstream cache was asked
+        boolean passOver;		// the upstream cache asked is passed over for a while
+        boolean corrupt;		// bytes from the upstream cache did not match its digest
+        boolean unverified;		// bytes from the upstream cache came without a digest
+
+
+        Attempt(boolean staging, boolean versioned) {
+            this.staging = staging;
+            this.versioned = versioned;
+        }
+
+        Attempt(Attempt last) {
+            this(last.staging, last.versioned);
+
+            wholeOnly = last.wholeOnly;
+            originOnly = last.originOnly;
+            rangeless = last.rangeless;
+        }
+    }
+
+
+    /**
+     * The validators of a version that was staged.
+     */
+    private static class StagedVersion {
+        long lastModified;
+        long length;
+        long expires;
+        String entityTag;
+        String versionId;
+    }
+
+
+    /**
+     * Counts the bytes received on the wire, before any content encoding is decoded.
+     */
+    private class WireCountingInputStream extends FilterInputStream {
+        WireCountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b != -1) {
+                statistics.wireAmount++;
+            }
+
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if (n > 0) {
+                statistics.wireAmount += n;
+            }
+
+            return n;
         }
     }
 
 
-    class Statistics {
+    class Statistics extends TransferEngine.Meter {
         protected long contentLength;
-        protected long transferAmount;
-        protected int transferRate;
+        protected long resumedAmount;
+
+        protected long wireLength;			// length on the wire of an encoded transfer
+        protected long wireAmount;			// bytes received on the wire
 
         protected boolean updating;
-        protected boolean aborted;
 
 
         Statistics() {
@@ -252,7 +1620,10 @@ public abstract class CachedResource {
         protected void reset() {
             contentLength = 0L;
             transferAmount = 0L;
+            resumedAmount = 0L;
             transferRate = 0;
+            wireLength = 0L;
+            wireAmount = 0L;
         }
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Negotiates and decodes HTTP content encodings. Downloads ask for <code>gzip</code> or
+ * <code>deflate</code>, which JNLP descriptors and many jars compress well under, and the
+ * response is decoded while it is read so that only the decoded bytes are stored.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ */
+public class ContentEncoding {
+    /** the value sent as <code>Accept-Encoding</code> */
+    public static final String ACCEPTED = "gzip, deflate";
+
+    /** the value sent as <code>Accept-Encoding</code> when the bytes must not be encoded */
+    public static final String IDENTITY = "identity";
+
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Asks for an encoded response on the specified connection, if it is an HTTP connection.
+     * This must be called before the connection is connected.
+     *
+     * @param   uc  the connection
+     */
+    public static void accept(URLConnection uc) {
+        if (uc instanceof HttpURLConnection) {
+            uc.setRequestProperty("Accept-Encoding", ACCEPTED);
+        }
+    }
+
+    /**
+     * Indicates whether the response on the specified connection is encoded.
+     *
+     * @param   uc  the connection
+     * @return  <code>true</code> if the response has a content encoding other than identity
+     */
+    public static boolean isEncoded(URLConnection uc) {
+        String enc = uc.getContentEncoding();
+
+        return (enc != null && !IDENTITY.equalsIgnoreCase(enc.trim()));
+    }
+
+    /**
+     * Returns a stream of the decoded bytes of a response. The specified stream supplies the
+     * response bytes as received from the connection.
+     * <p>
+     * A <code>deflate</code> response should be in the zlib format, but some servers send raw
+     * deflate data instead; both are accepted.
+     *
+     * @param   uc  the connection
+     * @param   in  the response bytes
+     * @return  the decoded response bytes
+     * @throws  IOException if the encoding is not supported or the encoded data is bad
+     */
+    public static InputStream decode(URLConnection uc, InputStream in) throws IOException {
+        if (!isEncoded(uc)) {
+            return in;
+        }
+
+        String enc = uc.getContentEncoding().trim().toLowerCase();
+
+        if (enc.equals("gzip") || enc.equals("x-gzip")) {
+            return new GZIPInputStream(in);
+        }
+
+        if (enc.equals("deflate")) {
+            PushbackInputStream pis = new PushbackInputStream(in, 2);
+            byte[] header = new byte[2];
+            int n = 0;
+
+            for (int read = 0; n < header.length && (read = pis.read(header, n, header.length - n)) != -1;) {
+                n += read;
+            }
+
+            pis.unread(header, 0, n);
+
+            // a zlib header has compression method 8 and is a multiple of 31
+            int cmf = header[0] & 0xff;
+            boolean zlib = (n == 2 && (cmf & 0x0f) == 8 && ((cmf << 8) | (header[1] & 0xff)) % 31 == 0);
+
+            return new InflaterInputStream(pis, new Inflater(!zlib));
+        }
+
+        throw new IOException(uc.getURL() + ": unsupported content encoding " + enc);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.util.Comparator;
+
+
+/**
+ * Decides the order in which cache entries are evicted when a cache grows beyond its quota.
+ * As a comparator of cache entries, an eviction policy orders the entry that should be evicted
+ * first before all others. Cache entries that are in use are never evicted, whatever their
+ * order.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see FileCache#trimToQuota
+ * @see LRUEvictionPolicy
+ * @see LFUEvictionPolicy
+ */
+public interface EvictionPolicy extends Comparator {
+    /**
+     * Compares two cache entries for eviction order.
+     *
+     * @param   o1  the first cache entry
+     * @param   o2  the second cache entry
+     * @return  a negative integer if the first cache entry should be evicted before the second,
+     *          a positive integer if after, or zero if it does not matter
+     */
+    public int compare(Object o1, Object o2);
+}
@@ -17,7 +17,10 @@
  */
 package org.nanode.launcher.cache;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,14 +28,21 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -55,6 +65,11 @@ import org.nanode.launcher.Gestalt;
  * are stored in ".jnlp/cache/app/<em>vendor</em>/<em>title</em> where <em>vendor</em>
  * and <em>title</title> are the values from the descriptor information used to
  * establish a cache entry.
+ * <p>
+ * The vendor, title and descriptor URL of every cache entry are listed in a manifest,
+ * <em>cache.idx</em>, so the cache starts without reading each cache entry. Cache entries
+ * are read in when first used, and a background pass picks up entry directories that were
+ * added or removed outside of the cache.
  *
  * @author Kevin Herrboldt (<a href="mailto:kevin@nanode.org">kevin@nanode.org</a>)
  */
@@ -68,12 +83,47 @@ public class FileCache extends Cache {
     protected static final File macosxCacheDir = new File(new File(macosxLibraryDir, "Caches"), "OpenJNLP");
 
     protected static final String CACHE_APP = "app";
+    protected static final String CACHE_BLOBS = "blobs";
+    protected static final String CACHE_MANIFEST = "cache.idx";
+
+    private static final int MANIFEST_MAGIC = 0x4f4a4349;		// "OJCI"
+    private static final int MANIFEST_VERSION = 1;
+
+    /** system property that, when <code>true</code>, stores downloaded resources in the shared blob store */
+    public static final String BLOBS_PROPERTY = "org.nanode.launcher.cache.blobs";
+
+    /** system property for the most bytes the cache may use on disk; unlimited if not set */
+    public static final String MAX_SIZE_PROPERTY = "org.nanode.launcher.cache.maxSize";
+
+    /** system property for the most bytes a cache entry may use on disk; unlimited if not set */
+    public static final String MAX_ENTRY_SIZE_PROPERTY = "org.nanode.launcher.cache.maxEntrySize";
+
+    /** system property for the eviction policy: <code>lru</code>, <code>lfu</code> or a class name */
+    public static final String EVICTION_PROPERTY = "org.nanode.launcher.cache.eviction";
+
+
+    private static Map liveCaches = new WeakHashMap();	// caches flushed on exit, as (FileCache, null)
+    private static Thread flushHook;		// flushes the live caches on exit
+    private static Timer reconcileTimer;	// reconciles caches started from a manifest
 
 
     protected File cacheBase;
     protected File cacheApp;
 
-    protected Map entryMap;			// this is a set of (String, FileCacheEntry)
+    protected BlobStore blobStore;		// resource bytes shared by entries
+
+    protected EvictionPolicy evictionPolicy;	// order entries are evicted when over quota
+
+    private Object trimLock = new Object();	// guards usage, trimmer and trimAgain
+    private long usage = -1L;		// bytes on disk at the last trim plus bytes added since, or -1
+    private Thread trimmer;			// thread trimming the cache to its quota, or null
+    private boolean trimAgain;		// another trim was asked for while trimming
+
+    protected Map entryMap;			// this is a set of (String, FileCacheEntry) of entries in use
+    protected Map descriptorMap;	// this is a set of (String, String) of descriptor URL to entry key
+
+    private Map manifest;			// this is a set of (String, String[] { vendor, title, descriptor }) of all entries
+    private boolean manifestDirty;	// manifest needs to be written
 
 
     public FileCache(File cacheDir) {
@@ -93,27 +143,99 @@ public class FileCache extends Cache {
 
         convertOldCache();		// convert old cache if necessary
 
-        entryMap = new HashMap();
+        blobStore = new BlobStore(new File(cacheBase, CACHE_BLOBS), Boolean.getBoolean(BLOBS_PROPERTY));
 
-        // read in any existing entries into the entryHash
-        String[] vendors = cacheApp.list();
-        int cnt = (vendors != null) ? vendors.length : 0;
+        entryMap = new HashMap();
+        descriptorMap = new HashMap();
+        manifest = new HashMap();
+
+        // entries are known from the manifest and only read when used; without one, read them all
+        if (readManifest()) {
+            getReconcileTimer().schedule(new ReconcileTask(this), 0L);
+        } else {
+            reconcile();
+            writeManifest();
+        }
 
-        for (int i = 0; i < cnt; i++) {
-            File cacheVendor = new File(cacheApp, vendors[i]);
-            String[] titles = cacheVendor.list();
-            int cnt1 = (titles != null) ? titles.length : 0;
+        // entries write their persistent info lazily, make sure it's all out before exiting
+        flushOnExit(this);
+    }
 
-            for (int j = 0; j < cnt1; j++) {
-                if (new File(cacheVendor, titles[j]).isDirectory()) {
-                    establishEntry(vendors[i], titles[j]);
-                }
+    /**
+     * Flushes the specified cache when the virtual machine exits. A single shutdown hook flushes
+     * every cache registered, and a cache that is no longer used is dropped without being
+     * flushed; its entries still waiting to be written keep it in use until they are.
+     *
+     * @param   cache  the cache to flush on exit
+     */
+    private static void flushOnExit(FileCache cache) {
+        synchronized (liveCaches) {
+            liveCaches.put(cache, null);
+
+            if (flushHook == null) {
+                flushHook = new Thread("cache flush") {
+                        public void run() {
+                            FileCache[] caches;
+
+                            synchronized (liveCaches) {
+                                caches = (FileCache[]) liveCaches.keySet().toArray(new FileCache[0]);
+                            }
+
+                            for (int i = 0; i < caches.length; i++) {
+                                caches[i].flush();
+                            }
+                        }
+                    };
+
+                Runtime.getRuntime().addShutdownHook(flushHook);
             }
         }
     }
 
+    /**
+     * Returns the timer that reconciles caches started from a manifest, one after the other.
+     *
+     * @return  the reconcile timer
+     */
+    private static synchronized Timer getReconcileTimer() {
+        if (reconcileTimer == null) {
+            reconcileTimer = new Timer(true);
+        }
+
+        return reconcileTimer;
+    }
+
+    /**
+     * Returns the blob store shared by the entries of this cache. Resources are only put in
+     * the blob store if the <code>org.nanode.launcher.cache.blobs</code> system property is
+     * <code>true</code>, but resources already in the blob store can always be read.
+     *
+     * @return  the blob store
+     */
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Returns an iterator over all of the cache entries in this cache. Any cache entries that
+     * have not been used yet are read in first.
+     *
+     * @return  iterator of <code>FileCacheEntry</code> objects
+     */
     public Iterator entries() {
-        return Collections.unmodifiableCollection(entryMap.values()).iterator();
+        String[][] records;
+
+        synchronized (entryMap) {
+            records = (String[][]) manifest.values().toArray(new String[0][]);
+        }
+
+        for (int i = 0; i < records.length; i++) {
+            establishEntry(records[i][0], records[i][1]);
+        }
+
+        synchronized (entryMap) {
+            return Collections.unmodifiableCollection(new ArrayList(entryMap.values())).iterator();
+        }
     }
 
     /**
@@ -139,6 +261,15 @@ public class FileCache extends Cache {
         return entry;
     }
 
+    /**
+     * Returns the cache entry for the specified vendor and title, reading it in if it is in the
+     * manifest but not used yet, or creating it if it is new. Listeners are only notified of
+     * new cache entries.
+     *
+     * @param   vendor  the vendor name
+     * @param   title   the title
+     * @return  the cache entry
+     */
     protected FileCacheEntry establishEntry(String vendor, String title) {
         String key = CacheEntry.createEntryKey(vendor, title);
 
@@ -153,10 +284,17 @@ public class FileCache extends Cache {
                     // no other thread created one, so create and store in set
                     entry = new FileCacheEntry(this, cacheApp, vendor, title);
                     entryMap.put(key, entry);
-                    added = true;
+
+                    if (!manifest.containsKey(key)) {
+                        manifest.put(key, new String[] { vendor, title, null });
+                        manifestDirty = true;
+                        added = true;
+                    }
                 }
             }
 
+            descriptorChanged(entry, null, entry.getMetaInfo(CacheEntry.METAKEY_DESCRIPTOR));
+
             if (added) {
                 fireCacheEntryAdded(entry);
             }
@@ -165,6 +303,516 @@ public class FileCache extends Cache {
         return entry;
     }
 
+    /**
+     * Returns the cache entry whose descriptor meta info is the specified URL. This is a lookup
+     * in an index of descriptor URLs that the cache entries keep up to date, rather than a
+     * search through every cache entry. Only the cache entry found is read in.
+     *
+     * @param   descURL  the descriptor URL
+     * @return  the cache entry or <code>null</code> if no cache entry has the descriptor URL
+     */
+    public CacheEntry entryFromDescriptorURL(URL descURL) {
+        String desc = descURL.toString();
+        String[] rec = null;
+
+        synchronized (entryMap) {
+            String key = (String) descriptorMap.get(desc);
+
+            if (key != null) {
+                rec = (String[]) manifest.get(key);
+            }
+        }
+
+        if (rec == null) {
+            return null;
+        }
+
+        CacheEntry entry = establishEntry(rec[0], rec[1]);
+
+        // the entry may have been changed by another VM, so make sure it still matches
+        if (!desc.equals(entry.getMetaInfo(CacheEntry.METAKEY_DESCRIPTOR))) {
+            synchronized (entryMap) {
+                if (CacheEntry.createEntryKey(rec[0], rec[1]).equals(descriptorMap.get(desc))) {
+                    descriptorMap.remove(desc);
+                }
+            }
+
+            entry = null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Removes the specified cache entry from this cache, deleting everything it has stored.
+     * Listeners are notified of the removal.
+     *
+     * @param   entry  the cache entry to remove
+     * @return  <code>true</code> if the cache entry was removed; <code>false</code> if it is not in this cache
+     */
+    public boolean removeEntry(CacheEntry entry) {
+        String key = CacheEntry.createEntryKey(entry.getVendor(), entry.getTitle());
+
+        if (!manifest.containsKey(key)) {
+            return false;
+        }
+
+        FileCacheEntry removed = establishEntry(entry.getVendor(), entry.getTitle());
+
+        forgetEntry(key);
+
+        removed.delete();
+        fireCacheEntryRemoved(removed);
+
+        return true;
+    }
+
+    /**
+     * Writes out any changes to cache entries in use, and to the manifest, that have not been
+     * made persistent yet. Cache entries that have not been used are not read in.
+     */
+    public void flush() {
+        FileCacheEntry[] entries;
+
+        synchronized (entryMap) {
+            entries = (FileCacheEntry[]) entryMap.values().toArray(new FileCacheEntry[0]);
+        }
+
+        for (int i = 0; i < entries.length; i++) {
+            entries[i].flush();
+        }
+
+        if (manifestDirty) {
+            writeManifest();
+        }
+    }
+
+    /**
+     * Returns the eviction policy used when this cache is over its quota. Unless set, the policy
+     * is the one named by the <code>org.nanode.launcher.cache.eviction</code> system property,
+     * which defaults to least recently used.
+     *
+     * @return  the eviction policy
+     * @see     #trimToQuota
+     */
+    public synchronized EvictionPolicy getEvictionPolicy() {
+        if (evictionPolicy == null) {
+            String name = System.getProperty(EVICTION_PROPERTY, "lru");
+
+            if (name.equalsIgnoreCase("lfu")) {
+                evictionPolicy = new LFUEvictionPolicy();
+            } else if (!name.equalsIgnoreCase("lru")) {
+                try {
+                    evictionPolicy = (EvictionPolicy) Class.forName(name).newInstance();
+                } catch (Exception e) {
+                    System.err.println("Unable to use eviction policy " + name + " - " + e);
+                }
+            }
+
+            if (evictionPolicy == null) {
+                evictionPolicy = new LRUEvictionPolicy();
+            }
+        }
+
+        return evictionPolicy;
+    }
+
+    /**
+     * Sets the eviction policy used when this cache is over its quota.
+     *
+     * @param   policy  the eviction policy
+     */
+    public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+        evictionPolicy = policy;
+    }
+
+    /**
+     * Evicts cache entries until this cache is within its quota. The quota is set by the
+     * <code>org.nanode.launcher.cache.maxSize</code> and <code>org.nanode.launcher.cache.maxEntrySize</code>
+     * system properties; without either this does nothing. Cache entries larger than the entry
+     * limit are evicted, and then cache entries are evicted in the order of the eviction policy
+     * until the whole cache fits. Cache entries that are in use are never evicted. Listeners are
+     * notified of each eviction.
+     * <p>
+     * This measures the bytes this cache uses on disk, and only reads in cache entries that
+     * have not been used yet if some have to be evicted. It is normally run in a background
+     * thread when cached resources change, rather than called directly.
+     *
+     * @return  the number of cache entries evicted
+     * @see     #getEvictionPolicy
+     */
+    public synchronized int trimToQuota() {
+        long maxSize = Long.getLong(MAX_SIZE_PROPERTY, 0L).longValue();
+        long maxEntrySize = Long.getLong(MAX_ENTRY_SIZE_PROPERTY, 0L).longValue();
+
+        if (maxSize <= 0L && maxEntrySize <= 0L) {
+            return 0;
+        }
+
+        long total = (maxSize > 0L) ? diskUsage(cacheApp) + diskUsage(blobStore.getDirectory()) : 0L;
+
+        synchronized (trimLock) {
+            usage = total;
+        }
+
+        if (maxEntrySize <= 0L && total <= maxSize) {
+            return 0;
+        }
+
+        List candidates = new ArrayList();
+
+        for (Iterator iter = entries(); iter.hasNext();) {
+            candidates.add(iter.next());
+        }
+
+        Collections.sort(candidates, getEvictionPolicy());
+
+        int evicted = 0;
+
+        for (Iterator iter = candidates.iterator(); iter.hasNext();) {
+            FileCacheEntry entry = (FileCacheEntry) iter.next();
+
+            boolean overTotal = (maxSize > 0L && total > maxSize);
+
+            if (!overTotal && (maxEntrySize <= 0L || entry.getDiskUsage() <= maxEntrySize)) {
+                continue;
+            }
+
+            long freed = entry.getReclaimableSize();
+
+            // lock out new users while checking and removing
+            synchronized (entry) {
+                if (entry.isInUse() || !removeEntry(entry)) {
+                    continue;
+                }
+            }
+
+            total -= freed;
+            evicted++;
+
+            synchronized (trimLock) {
+                usage -= freed;
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Notes that the cached resources of a cache entry changed size, and trims this cache to its
+     * quota in a background thread if it may now be over. The bytes used on disk are kept as a
+     * running total, measured by each trim and adjusted by the changes noted since, so this
+     * cache is only walked when the total is over quota or has not been measured yet.
+     *
+     * @param   entry  the cache entry whose cached resources changed
+     * @param   bytes  how many bytes the cached resources of the cache entry grew by
+     * @param   size   the bytes used by all of the cached resources of the cache entry
+     * @see     #trimToQuota
+     */
+    void resourcesChanged(FileCacheEntry entry, long bytes, long size) {
+        long maxSize = Long.getLong(MAX_SIZE_PROPERTY, 0L).longValue();
+        long maxEntrySize = Long.getLong(MAX_ENTRY_SIZE_PROPERTY, 0L).longValue();
+
+        if (maxSize <= 0L && maxEntrySize <= 0L) {
+            return;
+        }
+
+        synchronized (trimLock) {
+            if (usage >= 0L) {
+                usage += bytes;
+            }
+
+            boolean overTotal = (maxSize > 0L && (usage < 0L || usage > maxSize));
+
+            if (!overTotal && (maxEntrySize <= 0L || size <= maxEntrySize)) {
+                return;
+            }
+
+            if (trimmer != null) {
+                trimAgain = true;
+                return;
+            }
+
+            trimmer = new Thread("cache trim") {
+                    public void run() {
+                        boolean again;
+
+                        do {
+                            trimToQuota();
+
+                            synchronized (trimLock) {
+                                again = trimAgain;
+                                trimAgain = false;
+
+                                if (!again) {
+                                    trimmer = null;
+                                }
+                            }
+                        } while (again);
+                    }
+                };
+
+            trimmer.setDaemon(true);
+            trimmer.setPriority(Thread.MIN_PRIORITY);
+            trimmer.start();
+        }
+    }
+
+    /**
+     * Brings the manifest in line with the cache entry directories on disk. Cache entries
+     * created outside of this cache are added, and cache entries whose directory is gone are
+     * dropped; listeners are notified of both.
+     */
+    public void reconcile() {
+        Map found = new HashMap();
+
+        // gather (directory path, vendor and title) for every entry directory
+        String[] vendors = cacheApp.list();
+        int cnt = (vendors != null) ? vendors.length : 0;
+
+        for (int i = 0; i < cnt; i++) {
+            File cacheVendor = new File(cacheApp, vendors[i]);
+            String[] titles = cacheVendor.list();
+            int cnt1 = (titles != null) ? titles.length : 0;
+
+            for (int j = 0; j < cnt1; j++) {
+                File dir = new File(cacheVendor, titles[j]);
+
+                if (dir.isDirectory()) {
+                    found.put(dir.getPath(), new String[] { vendors[i], titles[j] });
+                }
+            }
+        }
+
+        String[][] records;
+
+        synchronized (entryMap) {
+            records = (String[][]) manifest.values().toArray(new String[0][]);
+        }
+
+        for (int i = 0; i < records.length; i++) {
+            File dir = entryDirectory(records[i][0], records[i][1]);
+
+            // check the directory again, it may have been created since the listing
+            if (found.remove(dir.getPath()) == null && !dir.isDirectory()) {
+                String key = CacheEntry.createEntryKey(records[i][0], records[i][1]);
+                FileCacheEntry gone = (FileCacheEntry) entryMap.get(key);
+
+                forgetEntry(key);
+
+                if (gone != null) {
+                    fireCacheEntryRemoved(gone);
+                }
+            }
+        }
+
+        for (Iterator iter = found.values().iterator(); iter.hasNext();) {
+            String[] dirNames = (String[]) iter.next();
+
+            establishEntry(dirNames[0], dirNames[1]);
+        }
+
+        if (manifestDirty) {
+            writeManifest();
+        }
+    }
+
+    /**
+     * Updates the index of descriptor URLs when the descriptor URL of a cache entry changes.
+     *
+     * @param   entry    the cache entry
+     * @param   oldDesc  the previous descriptor URL, or <code>null</code> if none
+     * @param   newDesc  the new descriptor URL, or <code>null</code> if none
+     */
+    void descriptorChanged(FileCacheEntry entry, String oldDesc, String newDesc) {
+        String key = CacheEntry.createEntryKey(entry.getVendor(), entry.getTitle());
+
+        synchronized (entryMap) {
+            if (oldDesc != null && key.equals(descriptorMap.get(oldDesc))) {
+                descriptorMap.remove(oldDesc);
+            }
+
+            if (newDesc != null) {
+                descriptorMap.put(newDesc, key);
+            }
+
+            String[] rec = (String[]) manifest.get(key);
+
+            if (rec != null && (rec[2] == null ? newDesc != null : !rec[2].equals(newDesc))) {
+                rec[2] = newDesc;
+                manifestDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Drops a cache entry from the manifest, the entries in use and the descriptor index.
+     *
+     * @param   key  the entry key
+     */
+    private void forgetEntry(String key) {
+        synchronized (entryMap) {
+            entryMap.remove(key);
+
+            if (manifest.remove(key) != null) {
+                manifestDirty = true;
+            }
+
+            descriptorMap.values().remove(key);
+        }
+    }
+
+    /**
+     * Returns the directory of the cache entry with the specified vendor and title.
+     *
+     * @param   vendor  the vendor name
+     * @param   title   the title
+     * @return  the cache entry directory
+     */
+    private File entryDirectory(String vendor, String title) {
+        return new File(new File(cacheApp, vendor.replace(' ', '_')), title);
+    }
+
+    /**
+     * Reads the manifest of all cache entries. The manifest lists the vendor, title and
+     * descriptor URL of each cache entry, so that the cache can start without reading every
+     * cache entry.
+     *
+     * @return  <code>true</code> if the manifest was read; <code>false</code> if it is missing or unusable
+     */
+    private boolean readManifest() {
+        File f = new File(cacheBase, CACHE_MANIFEST);
+
+        if (!f.isFile()) {
+            return false;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            byte[] data = new byte[(int) raf.length()];
+
+            try {
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() > MANIFEST_VERSION) {
+                return false;
+            }
+
+            synchronized (entryMap) {
+                for (int i = in.readInt(); i > 0; i--) {
+                    String[] rec = new String[3];
+
+                    rec[0] = FileCacheEntry.readString(in);
+                    rec[1] = FileCacheEntry.readString(in);
+                    rec[2] = (in.readBoolean()) ? FileCacheEntry.readString(in) : null;
+
+                    String key = CacheEntry.createEntryKey(rec[0], rec[1]);
+
+                    manifest.put(key, rec);
+
+                    if (rec[2] != null) {
+                        descriptorMap.put(rec[2], key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+
+            synchronized (entryMap) {
+                manifest.clear();
+                descriptorMap.clear();
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the manifest of all cache entries. It is written to a temporary file that is then
+     * renamed to <em>cache.idx</em>. Nothing is written if the cache directory has been removed.
+     */
+    private void writeManifest() {
+        if (!cacheBase.isDirectory()) {
+            return;		// the cache was removed
+        }
+
+        File f = new File(cacheBase, CACHE_MANIFEST);
+        File tmp = new File(cacheBase, CACHE_MANIFEST + ".tmp");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            synchronized (entryMap) {
+                manifestDirty = false;
+
+                out.writeInt(MANIFEST_MAGIC);
+                out.writeInt(MANIFEST_VERSION);
+                out.writeInt(manifest.size());
+
+                for (Iterator iter = manifest.values().iterator(); iter.hasNext();) {
+                    String[] rec = (String[]) iter.next();
+
+                    FileCacheEntry.writeString(out, rec[0]);
+                    FileCacheEntry.writeString(out, rec[1]);
+                    out.writeBoolean(rec[2] != null);
+
+                    if (rec[2] != null) {
+                        FileCacheEntry.writeString(out, rec[2]);
+                    }
+                }
+            }
+
+            out.close();
+
+            FileOutputStream fos = new FileOutputStream(tmp);
+
+            // on disk before the rename, so a crash can not leave the renamed file empty
+            try {
+                bytes.writeTo(fos);
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+
+            if (!tmp.renameTo(f) && !(f.delete() && tmp.renameTo(f))) {
+                throw new IOException("Unable to rename " + tmp + " to " + f);
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Returns the number of bytes used by a file, or by all of the files in a directory.
+     *
+     * @param   f  the file or directory
+     * @return  bytes used
+     */
+    static final long diskUsage(File f) {
+        File[] contents = f.listFiles();
+
+        if (contents == null) {
+            return f.length();
+        }
+
+        long size = 0L;
+
+        for (int i = 0; i < contents.length; i++) {
+            size += diskUsage(contents[i]);
+        }
+
+        return size;
+    }
+
     private final void convertOldCache() {
         deltree(new File(cacheBase, "ref"));
     }
@@ -316,4 +964,27 @@ public class FileCache extends Cache {
 
         return new URL("file", "", sb.toString());
     }
+
+
+    /**
+     * Reconciles a cache started from a manifest in the background, unless the cache is no
+     * longer used by the time the task runs.
+     */
+    private static class ReconcileTask extends TimerTask {
+        private WeakReference cacheRef;
+
+
+        ReconcileTask(FileCache cache) {
+            cacheRef = new WeakReference(cache);
+        }
+
+        public void run() {
+            FileCache cache = (FileCache) cacheRef.get();
+
+            if (cache != null) {
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                cache.reconcile();
+            }
+        }
+    }
 }
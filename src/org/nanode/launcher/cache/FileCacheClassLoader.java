@@ -107,9 +107,13 @@ class FileCacheClassLoader extends URLClassLoader {
                     if (lazyLoader.hasMoreJars()) {
                         System.out.println("waiting on lazy jar");
 
+                        long waitMillis = System.currentTimeMillis();
+
                         try {
                             lazyLoader.wait();
                         } catch (InterruptedException e) { }
+
+                        CacheMetrics.getInstance().recordClassLoaderWait(System.currentTimeMillis() - waitMillis);
                     }
                 }
             }
@@ -138,9 +142,13 @@ class FileCacheClassLoader extends URLClassLoader {
                 if (lazyLoader.hasMoreLibs()) {
                     System.out.println("waiting on lazy libs");
 
+                    long waitMillis = System.currentTimeMillis();
+
                     try {
                         lazyLoader.wait();
                     } catch (InterruptedException e) { }
+
+                    CacheMetrics.getInstance().recordClassLoaderWait(System.currentTimeMillis() - waitMillis);
                 }
             }
         }
@@ -167,9 +175,13 @@ class FileCacheClassLoader extends URLClassLoader {
                     if (lazyLoader.hasMoreJars()) {
                         System.out.println("waiting on lazy jar");
 
+                        long waitMillis = System.currentTimeMillis();
+
                         try {
                             lazyLoader.wait();
                         } catch (InterruptedException e) { }
+
+                        CacheMetrics.getInstance().recordClassLoaderWait(System.currentTimeMillis() - waitMillis);
                     }
                 }
             }
@@ -191,9 +203,13 @@ class FileCacheClassLoader extends URLClassLoader {
         if ( lazyLoader != null ) while (lazyLoader.hasMoreJars()) {
             synchronized (lazyLoader) {
                 if (lazyLoader.hasMoreJars()) {
+                    long waitMillis = System.currentTimeMillis();
+
                     try {
                         lazyLoader.wait();
                     } catch (InterruptedException e) { }
+
+                    CacheMetrics.getInstance().recordClassLoaderWait(System.currentTimeMillis() - waitMillis);
                 }
             }
         }
@@ -211,12 +227,11 @@ class FileCacheClassLoader extends URLClassLoader {
            classpath needs to be primed with the eager jars. */
         ArrayList eager = new ArrayList();
         File jarFile;
-        URL jarURL;
 
         // create classpath of URLs to eager jars in cache
         for (Enumeration enum = entry.getDescriptor().getResources().eagerJars(); enum.hasMoreElements();) {
-            jarURL = ((Reference) enum.nextElement()).getURL();
-            jarFile = new File(entry.getResourceDir(), FileCache.cacheName(jarURL));
+            jarFile = entry.getResourceFile((Reference) enum.nextElement());
+            CacheMetrics.getInstance().recordHit();
 
             try {
                 eager.add(jarFile.toURL());
@@ -302,9 +317,9 @@ class FileCacheClassLoader extends URLClassLoader {
          */
         private File updateResource(Reference ref) {
             cacheEntry.addResource(ref);
-            CachedResource cr = cacheEntry.getResource(ref, true);
+            cacheEntry.getResource(ref, true);
 
-            return new File(cacheEntry.getResourceDir(), FileCache.cacheName(cr.getReference().getURL()));
+            return cacheEntry.getResourceFile(ref);
         }
     }
 }
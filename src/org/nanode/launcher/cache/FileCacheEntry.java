@@ -17,19 +17,30 @@
  */
 package org.nanode.launcher.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -43,6 +54,7 @@ import org.nanode.launcher.Descriptor;
 import org.nanode.launcher.NativelibReference;
 import org.nanode.launcher.Reference;
 import org.nanode.launcher.Resources;
+import org.nanode.launcher.Version;
 
 
 /**
@@ -50,8 +62,9 @@ import org.nanode.launcher.Resources;
  * info persistently by using subdirectories and files within the cache entry base directory
  * as determined by the file cache object that creates a file cache entry.
  * <p>
- * All meta info and information about which resources are cached is stored in the file
- * <em>entry.xml</em>. Any resource that is cached by this cache entry is stored in the
+ * All meta info and information about which resources are cached is stored in the binary file
+ * <em>entry.idx</em>; an <em>entry.xml</em> file written by earlier versions is converted to it
+ * when first read. Any resource that is cached by this cache entry is stored in the
  * subdirectory <em>Resources</em>. Finally, any native library jars that are added to this
  * cache entry are expanded into the <em>Library</em> subdirectory.
  * <p>
@@ -59,7 +72,7 @@ import org.nanode.launcher.Resources;
  * <blockquote><pre>
  * SomeCo/
  *     SomeApp/
- *         entry.xml
+ *         entry.idx
  *         Resources/
  *             someapp.jnlp
  *             someappicon.gif
@@ -74,7 +87,30 @@ import org.nanode.launcher.Resources;
  * @see FileCache
  */
 public class FileCacheEntry extends CacheEntry {
-    private static final String persistFileName = "entry.xml";
+    /** system property for the maximum number of resources updated at the same time */
+    public static final String MAX_DOWNLOADS_PROPERTY = "org.nanode.launcher.cache.maxDownloads";
+
+    /** system property for the maximum number of resources updated at the same time from one host */
+    public static final String MAX_HOST_DOWNLOADS_PROPERTY = "org.nanode.launcher.cache.maxHostDownloads";
+
+    /** system property for how many milliseconds changes are held before the persistent info is written */
+    public static final String FLUSH_DELAY_PROPERTY = "org.nanode.launcher.cache.flushDelay";
+
+    private static final int DEFAULT_MAX_DOWNLOADS = 8;
+    private static final int DEFAULT_MAX_HOST_DOWNLOADS = 4;
+    private static final long DEFAULT_FLUSH_DELAY = 2000L;
+
+    private static Timer flushTimer;		// writes persistent info of dirty entries
+
+    private static final String persistFileName = "entry.idx";
+    private static final String xmlFileName = "entry.xml";
+    private static final String lockFileName = "entry.lock";
+
+    private static final int INDEX_MAGIC = 0x4f4a4549;		// "OJEI"
+    private static final int INDEX_VERSION = 1;
+
+    private static final byte RECORD_RESOURCE = 0;
+    private static final byte RECORD_NATIVELIB = 1;
     private static final String rsrcDirName = "Resources";
     private static final String libDirName = "Libraries";
 
@@ -93,6 +129,9 @@ public class FileCacheEntry extends CacheEntry {
     /** where persistent info about the cache entry is stored */
     protected File persistFile;
 
+    /** where persistent info was stored by earlier versions */
+    protected File xmlFile;
+
     /** the last modified date of when the persistent file was last parsed */
     protected long persistLastMod;
 
@@ -111,6 +150,16 @@ public class FileCacheEntry extends CacheEntry {
     private Map resources;			// map of (URL, CachedResource)
     private Properties entryMeta;	// all of the meta info keys and values
 
+    private List batches = new ArrayList();			// TaskBatch objects being run by addResources
+    private List updating = new ArrayList();		// CachedResource objects being updated by addResources
+    private Object announceLock = new Object();
+
+    private boolean dirty;					// persistent info is out of date
+    private TimerTask flushTask;			// pending write of persistent info
+
+    private RandomAccessFile useFile;		// entry.lock, open while this entry is in use
+    private FileLock useLock;				// shared lock telling other VMs this entry is in use
+
 
     /**
      * Creates a cache entry in the file system cache for the specified vendor and title.
@@ -132,10 +181,15 @@ public class FileCacheEntry extends CacheEntry {
         rsrcDir = new File(entryDir, rsrcDirName);
         libDir = new File(entryDir, libDirName);
         persistFile = new File(entryDir, persistFileName);
+        xmlFile = new File(entryDir, xmlFileName);
 
         entryDir.mkdirs();
         rsrcDir.mkdir();
 
+        if (!persistFile.exists() && xmlFile.exists()) {
+            readPersistence();		// converts entry.xml
+        }
+
         checkPersistence();
 
         if (resources == null) {
@@ -170,7 +224,7 @@ public class FileCacheEntry extends CacheEntry {
      * @return  jar manifest or <code>null</code> if the resource is not a jar or has no manifest
      */
     public Manifest getJarManifest(Reference ref) {
-        File f = new File(getResourceDir(), FileCache.cacheName(ref.getURL()));
+        File f = getResourceFile(ref);
         Manifest man = null;
 
         try {
@@ -181,6 +235,23 @@ public class FileCacheEntry extends CacheEntry {
         return man;
     }
 
+    /**
+     * Returns the file that holds the specified referenced resource. This is either in the
+     * resources subdirectory or, if the resource is in the blob store, the blob holding it.
+     *
+     * @param   ref  reference to a resource
+     * @return  file holding the resource; the file may not exist
+     */
+    public File getResourceFile(Reference ref) {
+        Object cr = resources.get(ref.getURL());
+
+        if (cr instanceof FileCachedResource && ((FileCachedResource) cr).getCacheFile() != null) {
+            return ((FileCachedResource) cr).getCacheFile();
+        }
+
+        return new File(getResourceDir(), FileCache.cacheName(ref.getURL()));
+    }
+
     /**
      * Returns the meta info specified by the key. If the meta info for the supplied key
      * is not defined <code>null</code> is returned.
@@ -220,7 +291,11 @@ public class FileCacheEntry extends CacheEntry {
             oldval = (String) entryMeta.remove(key);
         }
 
-        writePersistence();
+        if (CacheEntry.METAKEY_DESCRIPTOR.equals(key)) {
+            descriptorChanged(oldval, value);
+        }
+
+        markDirty();
 
         return oldval;
     }
@@ -306,10 +381,11 @@ public class FileCacheEntry extends CacheEntry {
 
         if (resources.containsKey(ref.getURL())) {
             cr = (CachedResource) resources.get(ref.getURL());
+            refreshReference(cr, ref);
         } else {
             synchronized (resources) {
                 if ((cr = (CachedResource) resources.get(ref.getURL())) == null) {
-                    cr = new FileCachedResource(ref, getResourceDir(), getLibraryDir());
+                    cr = createResource(ref, null);
                     resources.put(ref.getURL(), cr);
                     added = true;
                     setChanged();
@@ -320,21 +396,395 @@ public class FileCacheEntry extends CacheEntry {
         // notify observers if updating cached resource, even if it's already there
         if (cr != null && !cr.getReference().isLazy()) {
             notifyObservers(cr);
-            updated = cr.update();
+            updated = revalidate(cr, false);
         }
 
         if (added) {
             clearChanged();
         }
 
-        // if resource is new or it has been updated, write out persistent info
+        // if resource is new or it has been updated, persistent info needs writing
         if (added || updated) {
-            writePersistence();
+            markDirty();
         }
 
         return added;
     }
 
+    /**
+     * Adds each of the referenced resources to this cache entry and updates all eager resources
+     * in parallel, returning when every update has finished. Observers are notified with each
+     * cached resource as its update starts.
+     * <p>
+     * No more than <code>org.nanode.launcher.cache.maxDownloads</code> updates run at the same
+     * time, and no more than <code>org.nanode.launcher.cache.maxHostDownloads</code> of those
+     * are from the same host. The persistent info is written once for the whole batch.
+     *
+     * @param   refs  the referenced resources
+     * @return  the number of referenced resources that were not already in this cache entry
+     * @see     #addResource
+     * @see     TaskBatch
+     */
+    public int addResources(Reference[] refs) {
+        if (refs == null) {
+            return 0;
+        }
+
+        acquire();
+
+        try {
+            return addResourcesInUse(refs, false);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Adds each of the referenced resources to this cache entry and updates all eager resources
+     * in parallel like <code>addResources</code>, except that eager resources already cached are
+     * staged rather than replaced.
+     *
+     * @param   refs  the referenced resources
+     * @return  the number of referenced resources that were not already in this cache entry
+     * @see     CachedResource#stage
+     */
+    public int stageResources(Reference[] refs) {
+        if (refs == null) {
+            return 0;
+        }
+
+        acquire();
+
+        try {
+            return addResourcesInUse(refs, true);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Makes the staged versions of the cached resources in this cache entry the cached
+     * resources, writing out the persistent info if any were promoted.
+     *
+     * @return  the number of cached resources promoted
+     */
+    public int promoteStaged() {
+        checkPersistence();
+
+        int promoted = super.promoteStaged();
+
+        if (promoted > 0) {
+            markDirty();
+            flush();
+        }
+
+        return promoted;
+    }
+
+    /**
+     * Does the work of <code>addResources</code> and <code>stageResources</code> while this
+     * cache entry is marked as in use. Once the persistent info is written the cache is told how
+     * much the cached resources grew, so it can trim itself to its quota in the background.
+     *
+     * @param   refs     the referenced resources
+     * @param   staging  whether cached resources are staged rather than updated
+     * @return  the number of referenced resources that were not already in this cache entry
+     */
+    private int addResourcesInUse(Reference[] refs, final boolean staging) {
+        checkPersistence();
+
+        final boolean[] updated = { false };
+        int added = 0;
+
+        TaskBatch batch = new TaskBatch("download", Integer.getInteger(MAX_DOWNLOADS_PROPERTY, DEFAULT_MAX_DOWNLOADS).intValue(),
+                                        Integer.getInteger(MAX_HOST_DOWNLOADS_PROPERTY, DEFAULT_MAX_HOST_DOWNLOADS).intValue());
+
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i] == null || refs[i].getURL() == null) {
+                continue;
+            }
+
+            CachedResource cr;
+
+            synchronized (resources) {
+                if ((cr = (CachedResource) resources.get(refs[i].getURL())) == null) {
+                    cr = createResource(refs[i], null);
+                    resources.put(refs[i].getURL(), cr);
+                    added++;
+                } else {
+                    refreshReference(cr, refs[i]);
+                }
+            }
+
+            // only eager resources are updated
+            if (!cr.getReference().isLazy()) {
+                final CachedResource rsrc = cr;
+
+                batch.add(cr.getReference().getURL().getHost(), new Runnable() {
+                        public void run() {
+                            synchronized (updating) {
+                                updating.add(rsrc);
+                            }
+
+                            announceResource(rsrc);
+
+                            try {
+                                if (revalidate(rsrc, staging)) {
+                                    updated[0] = true;
+                                }
+                            } finally {
+                                synchronized (updating) {
+                                    updating.remove(rsrc);
+                                }
+                            }
+                        }
+                    });
+            }
+        }
+
+        long before = resourceSize();
+
+        synchronized (batches) {
+            batches.add(batch);
+        }
+
+        try {
+            batch.run();
+        } finally {
+            synchronized (batches) {
+                batches.remove(batch);
+            }
+        }
+
+        // write out persistent info once for the whole batch
+        if (added > 0 || updated[0]) {
+            markDirty();
+            flush();
+
+            if (cache instanceof FileCache) {
+                long size = resourceSize();
+
+                ((FileCache) cache).resourcesChanged(this, size - before, size);
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Updates a cached resource, unless the cache is offline or the host of the cached resource
+     * unreachable, and the descriptor of this cache entry allows offline use. A cached resource
+     * is then used as it is, without contacting its origin.
+     *
+     * @param   cr       the cached resource
+     * @param   staging  whether a newer version is staged rather than replacing a cached resource
+     * @return  <code>true</code> if the persistent info of the cached resource changed;
+     *          <code>false</code> otherwise
+     * @see     Cache#isOffline
+     * @see     Cache#isUnreachable
+     */
+    private boolean revalidate(CachedResource cr, boolean staging) {
+        Descriptor des = entryDescriptor;
+
+        if (cr.length() > 0L && des != null && des.getInformation() != null && des.getInformation().allowOffline()) {
+            if (Cache.isOffline() || Cache.isUnreachable(cr.getReference().getURL().getHost())) {
+                cr.skipRevalidation();
+
+                return false;
+            }
+        }
+
+        long expires = cr.getExpires();
+
+        boolean changed = (staging && cr.length() > 0L) ? cr.stage() : cr.update();
+
+        return (changed || cr.getExpires() != expires);
+    }
+
+    /**
+     * Gives a cached resource the specified reference to its url if it differs from the current
+     * reference, so that the next update fetches the version now asked for. Version-ids are
+     * compared as written, as a version-id with a modifier is equal to the versions it matches.
+     *
+     * @param   cr   the cached resource
+     * @param   ref  the reference to the url of the cached resource
+     */
+    private void refreshReference(CachedResource cr, Reference ref) {
+        if (!cr.getReference().toString().equals(ref.toString())) {
+            cr.setReference(ref);
+        }
+    }
+
+    /**
+     * Aborts any updates of cached resources in this cache entry that are in progress. Resources
+     * waiting to be updated by <code>addResources</code> are skipped.
+     */
+    public void abortUpdates() {
+        synchronized (batches) {
+            for (Iterator iter = batches.iterator(); iter.hasNext();) {
+                ((TaskBatch) iter.next()).abort();
+            }
+        }
+
+        synchronized (updating) {
+            for (Iterator iter = updating.iterator(); iter.hasNext();) {
+                ((CachedResource) iter.next()).abortUpdate();
+            }
+        }
+    }
+
+    /**
+     * Marks this cache entry as in use. While in use a shared lock is held on <em>entry.lock</em>
+     * so that caches in other virtual machines do not evict it either.
+     */
+    public synchronized void acquire() {
+        super.acquire();
+
+        if (useFile == null) {
+            try {
+                useFile = new RandomAccessFile(new File(entryDir, lockFileName), "rw");
+                useLock = useFile.getChannel().tryLock(0L, Long.MAX_VALUE, true);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    /**
+     * Releases a use of this cache entry, giving up the lock on <em>entry.lock</em> once it is
+     * no longer in use.
+     */
+    public synchronized void release() {
+        super.release();
+
+        if (!super.isInUse() && useFile != null) {
+            try {
+                if (useLock != null) {
+                    useLock.release();
+                }
+
+                useFile.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+
+            useFile = null;
+            useLock = null;
+        }
+    }
+
+    /**
+     * Indicates whether this cache entry is in use, either in this virtual machine or in another
+     * one that shares the cache.
+     *
+     * @return  <code>true</code> if this cache entry is in use; <code>false</code> otherwise
+     */
+    public synchronized boolean isInUse() {
+        if (super.isInUse()) {
+            return true;
+        }
+
+        File f = new File(entryDir, lockFileName);
+
+        if (!f.exists()) {
+            return false;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+
+            try {
+                FileLock lock = raf.getChannel().tryLock();
+
+                if (lock == null) {
+                    return true;
+                }
+
+                lock.release();
+            } catch (OverlappingFileLockException e) {
+                return true;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of bytes this cache entry uses on disk, including blobs it shares with
+     * other cache entries.
+     *
+     * @return  bytes used
+     */
+    public long getDiskUsage() {
+        return FileCache.diskUsage(entryDir) + blobUsage(false);
+    }
+
+    /**
+     * Returns the number of bytes held by the cached resources of this cache entry, as they
+     * know them, without looking at the disk.
+     *
+     * @return  bytes held by cached resources
+     */
+    private long resourceSize() {
+        long size = 0L;
+
+        synchronized (resources) {
+            for (Iterator iter = resources.values().iterator(); iter.hasNext();) {
+                size += ((CachedResource) iter.next()).length();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes that removing this cache entry would free on disk. Blobs that
+     * are shared with other cache entries are not counted.
+     *
+     * @return  bytes freed by removing this cache entry
+     */
+    long getReclaimableSize() {
+        return FileCache.diskUsage(entryDir) + blobUsage(true);
+    }
+
+    /**
+     * Returns the number of bytes used by blobs holding the cached resources of this cache entry.
+     *
+     * @param   unsharedOnly  whether to count only blobs that no other cache entry refers to
+     * @return  bytes used by blobs
+     */
+    private long blobUsage(boolean unsharedOnly) {
+        if (!(cache instanceof FileCache)) {
+            return 0L;
+        }
+
+        BlobStore store = ((FileCache) cache).getBlobStore();
+        CachedResource[] rsrc;
+        long size = 0L;
+
+        checkPersistence();
+
+        synchronized (resources) {
+            rsrc = (CachedResource[]) resources.values().toArray(new CachedResource[0]);
+        }
+
+        for (int i = 0; i < rsrc.length; i++) {
+            String[] digests = (rsrc[i] instanceof FileCachedResource) ? ((FileCachedResource) rsrc[i]).getDigests() : new String[0];
+
+            for (int j = 0; j < digests.length; j++) {
+                if (!unsharedOnly || store.referenceCount(digests[j]) <= 1) {
+                    size += store.blobFile(digests[j]).length();
+                }
+            }
+        }
+
+        return size;
+    }
+
     /**
      * Removes a referenced resource from this cache entry.
      * <p>
@@ -365,7 +815,7 @@ public class FileCacheEntry extends CacheEntry {
         if (cr != null) {
             notifyObservers(cr);
             cr.purge();
-            writePersistence();
+            markDirty();
         }
 
         if (removed) {
@@ -403,12 +853,16 @@ public class FileCacheEntry extends CacheEntry {
 
         CachedResource cr = (CachedResource) resources.get(ref.getURL());
 
+        if (cr != null && !update) {
+            CacheMetrics.getInstance().recordHit();
+        }
+
         if (cr != null && update) {
             notifyObservers(cr);
 
-            // if resource is updated, write out persistent info
-            if (cr.update()) {
-                writePersistence();
+            // if resource is updated, persistent info needs writing
+            if (revalidate(cr, false)) {
+                markDirty();
             }
         }
 
@@ -453,17 +907,32 @@ public class FileCacheEntry extends CacheEntry {
         return rsrcDir;
     }
 
+    /**
+     * Notifies observers that the specified cached resource is about to be updated. Updates run
+     * in parallel so this is serialized on its own lock, otherwise one thread could clear the
+     * changed state before another thread notifies.
+     *
+     * @param   cr  the cached resource
+     */
+    protected void announceResource(CachedResource cr) {
+        synchronized (announceLock) {
+            setChanged();
+            notifyObservers(cr);
+        }
+    }
+
     /**
      * Checks the entry persistent file to see if it's out of date with the contents in this object.
      * If the file has been modified since the last time it was read, this method will re-read the
      * file, reloading all information.
      * <p>
      * <strong>Note:</strong> this will minimize synchronization problems if multiple virtual machines
-     * try to update the same entry file, although it is not a perfect solution.
+     * try to update the same entry file, although it is not a perfect solution. The file is not
+     * re-read while there are changes that have not been written yet.
      */
     protected void checkPersistence() {
-        if (persistLastMod >= persistFile.lastModified()) {
-            return;
+        if (dirty || persistLastMod >= persistFile.lastModified()) {
+            return;		// unwritten changes are newer than the file
         }
 
         synchronized (persistFile) {
@@ -473,39 +942,204 @@ public class FileCacheEntry extends CacheEntry {
 
     /**
      * Reads the persistent info from a file in the cache entry. When called the persistent
-     * info for this cache entry is loaded from the persistent info file, which is <em>entry.xml</em>
-     * within the cache entry directory. It is parsed using a SAX2 content handler.
+     * info for this cache entry is loaded from the persistent info file, which is <em>entry.idx</em>
+     * within the cache entry directory. The file is read in one go and then decoded.
+     * <p>
+     * If there is no <em>entry.idx</em> but there is an <em>entry.xml</em> written by an earlier
+     * version, that is parsed instead and immediately written out as <em>entry.idx</em>.
+     *
+     * @see     #writePersistence
      */
     protected void readPersistence() {
         if (!persistFile.exists()) {
+            if (xmlFile.exists()) {
+                readXMLPersistence();
+                return;
+            }
+
             convertOldEntry();		// if no persistent file, assume old entry and convert
         }
 
-        // parse persistent info file
+        try {
+            synchronized (this) {
+                RandomAccessFile raf = new RandomAccessFile(persistFile, "r");
+                byte[] data = new byte[(int) raf.length()];
+
+                try {
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+
+                CacheMetrics.getInstance().recordIndexRead();
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+                if (in.readInt() != INDEX_MAGIC) {
+                    throw new IOException(persistFile + " is not a cache entry index");
+                }
+
+                if (in.readInt() > INDEX_VERSION) {
+                    throw new IOException(persistFile + " was written by a newer version");
+                }
+
+                readString(in);		// vendor
+                readString(in);		// title
+
+                Properties meta = new Properties();
+
+                for (int i = in.readInt(); i > 0; i--) {
+                    String key = readString(in);
+
+                    meta.setProperty(key, readString(in));
+                }
+
+                Map resMap = new HashMap();
+
+                for (int i = in.readInt(); i > 0; i--) {
+                    byte kind = in.readByte();
+                    URL url = new URL(readString(in));
+                    Properties attrs = new Properties();
+
+                    for (int j = in.readInt(); j > 0; j--) {
+                        String key = readString(in);
+
+                        attrs.setProperty(key, readString(in));
+                    }
+
+                    Version[] vers = Version.parseVersions(attrs.getProperty("version"));
+                    Reference ref = (kind == RECORD_NATIVELIB) ? new NativelibReference(url, vers, false) : new Reference(url, vers, false);
+
+                    resMap.put(url, createResource(ref, attrs));
+                }
+
+                setPersistentInfo(meta, resMap);
+                persistLastMod = persistFile.lastModified();
+            }
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Replaces the meta info and cached resources with those read from the persistent info. The
+     * file cache is told if this changes the descriptor URL.
+     *
+     * @param   meta    the meta info
+     * @param   resMap  the (URL, CachedResource) map of cached resources
+     */
+    private void setPersistentInfo(Properties meta, Map resMap) {
+        String oldDesc = (entryMeta != null) ? entryMeta.getProperty(CacheEntry.METAKEY_DESCRIPTOR) : null;
+
+        entryMeta = meta;
+        resources = resMap;
+
+        descriptorChanged(oldDesc, meta.getProperty(CacheEntry.METAKEY_DESCRIPTOR));
+    }
+
+    /**
+     * Tells the file cache that the descriptor URL of this cache entry changed, so it can keep
+     * its index of descriptor URLs current.
+     *
+     * @param   oldDesc  the previous descriptor URL, or <code>null</code> if none
+     * @param   newDesc  the new descriptor URL, or <code>null</code> if none
+     */
+    private void descriptorChanged(String oldDesc, String newDesc) {
+        if (cache instanceof FileCache && (oldDesc == null ? newDesc != null : !oldDesc.equals(newDesc))) {
+            ((FileCache) cache).descriptorChanged(this, oldDesc, newDesc);
+        }
+    }
+
+    /**
+     * Reads the persistent info from an <em>entry.xml</em> file written by an earlier version and
+     * converts it to <em>entry.idx</em>. The XML file is parsed using a SAX2 content handler and
+     * removed once converted.
+     */
+    private void readXMLPersistence() {
         try {
             XMLReader xmlReader = FileCache.createXMLReader(null);
             xmlReader.setContentHandler(new EntryContentHandler());
 
             synchronized (this) {
-                FileReader fr = new FileReader(persistFile);
+                FileReader fr = new FileReader(xmlFile);
 
                 xmlReader.parse(new InputSource(fr));
 
                 fr.close();
-
-                persistLastMod = persistFile.lastModified();
             }
+
+            CacheMetrics.getInstance().recordIndexRead();
         } catch (Exception e) {
             System.err.println(e);
+            return;
+        }
+
+        writePersistence();
+
+        if (persistFile.exists()) {
+            xmlFile.delete();
+        }
+    }
+
+    /**
+     * Marks the persistent info as out of date. It is written out after a delay of
+     * <code>org.nanode.launcher.cache.flushDelay</code> milliseconds, so that a burst of changes
+     * results in a single write, or sooner if <code>flush</code> is called.
+     *
+     * @see     #flush
+     */
+    protected void markDirty() {
+        long delay = Long.getLong(FLUSH_DELAY_PROPERTY, DEFAULT_FLUSH_DELAY).longValue();
+
+        synchronized (persistFile) {
+            dirty = true;
+
+            if (delay <= 0L) {
+                flush();
+            } else if (flushTask == null) {
+                flushTask = new TimerTask() {
+                        public void run() {
+                            flush();
+                        }
+                    };
+
+                getFlushTimer().schedule(flushTask, delay);
+            }
+        }
+    }
+
+    /**
+     * Writes out the persistent info if there are changes that have not been written yet.
+     */
+    public void flush() {
+        synchronized (persistFile) {
+            if (flushTask != null) {
+                flushTask.cancel();
+                flushTask = null;
+            }
+
+            if (dirty) {
+                writePersistence();
+            }
         }
     }
 
     /**
      * Writes the persistent info to a file in the cache entry. When called the persistent
-     * info for this cache entry is written to the persistent info file as XML. The XML data are
-     * written to the <em>entry.xml</em> file within the cache entry directory.
+     * info for this cache entry is encoded and written to a temporary file that is then renamed
+     * to the <em>entry.idx</em> file within the cache entry directory, so the file is never seen
+     * half-written.
+     * <p>
+     * The file starts with a magic number and a format version, followed by the vendor and title,
+     * the meta info as key/value pairs, and a record for each cached resource. A record holds the
+     * kind of resource, its URL and its attributes as key/value pairs so that attributes can be
+     * added without changing the format.
+     *
+     * @see     #resourceAttributes
      */
     protected void writePersistence() {
+        File tmpFile = new File(entryDir, persistFileName + ".tmp");
+
         try {
             CachedResource[] rsrc = new CachedResource[0];
 
@@ -514,53 +1148,227 @@ public class FileCacheEntry extends CacheEntry {
             }
 
             synchronized (this) {
-                FileWriter fw = new FileWriter(persistFile);
+                dirty = false;
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+                DataOutputStream out = new DataOutputStream(bytes);
 
-                fw.write("<?xml version=\"1.0\"?>\n\n");
-                fw.write("<entry vendor=\"");
-                fw.write(xmlEncodeAttribute(getVendor()));
-                fw.write("\" title=\"");
-                fw.write(xmlEncodeAttribute(getTitle()));
-                fw.write("\">\n");
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                writeString(out, getVendor());
+                writeString(out, getTitle());
 
                 if (entryMeta != null) {
+                    out.writeInt(entryMeta.size());
+
                     for (Enumeration enum = entryMeta.propertyNames(); enum.hasMoreElements();) {
                         String key = (String) enum.nextElement();
 
-                        fw.write("  <meta name=\"");
-                        fw.write(xmlEncodeAttribute(key));
-                        fw.write("\">");
-                        fw.write(xmlEncodeContent(entryMeta.getProperty(key)));
-                        fw.write("</meta>\n");
+                        writeString(out, key);
+                        writeString(out, entryMeta.getProperty(key));
                     }
-
-                    fw.write("\n");
+                } else {
+                    out.writeInt(0);
                 }
 
+                out.writeInt(rsrc.length);
+
                 for (int i = 0; i < rsrc.length; i++) {
-                    if (rsrc[i].getReference() instanceof NativelibReference) {
-                        fw.write("  <nativelib href=\"");
-                    } else {
-                        fw.write("  <resource href=\"");
+                    Properties attrs = resourceAttributes(rsrc[i]);
+
+                    out.writeByte((rsrc[i].getReference() instanceof NativelibReference) ? RECORD_NATIVELIB : RECORD_RESOURCE);
+                    writeString(out, rsrc[i].getReference().getURL().toString());
+                    out.writeInt(attrs.size());
+
+                    for (Enumeration enum = attrs.propertyNames(); enum.hasMoreElements();) {
+                        String key = (String) enum.nextElement();
+
+                        writeString(out, key);
+                        writeString(out, attrs.getProperty(key));
                     }
+                }
 
-                    fw.write(xmlEncodeAttribute(rsrc[i].getReference().getURL().toString()));
-                    fw.write("\" modtime=\"");
-                    fw.write(xmlEncodeAttribute(Long.toString(rsrc[i].getLastModified())));
-                    fw.write("\" />\n");
+                out.close();
+
+                FileOutputStream fos = new FileOutputStream(tmpFile);
+
+                // on disk before the rename, so a crash can not leave the renamed file empty
+                try {
+                    bytes.writeTo(fos);
+                    fos.getFD().sync();
+                } finally {
+                    fos.close();
                 }
 
-                fw.write("</entry>\n");
+                if (!tmpFile.renameTo(persistFile) && !(persistFile.delete() && tmpFile.renameTo(persistFile))) {
+                    throw new IOException("Unable to rename " + tmpFile + " to " + persistFile);
+                }
 
-                fw.close();
+                CacheMetrics.getInstance().recordIndexWrite();
 
                 persistLastMod = persistFile.lastModified();
             }
         } catch (Exception e) {
             System.err.println(e);
+            tmpFile.delete();
         }
     }
 
+    /**
+     * Returns the attributes of a cached resource that are written to the persistent info.
+     *
+     * @param   cr  the cached resource
+     * @return  attributes as key/value pairs
+     * @see     #createResource
+     */
+    protected Properties resourceAttributes(CachedResource cr) {
+        Properties attrs = new Properties();
+
+        attrs.setProperty("modtime", Long.toString(cr.getLastModified()));
+
+        if (cr.getEntityTag() != null) {
+            attrs.setProperty("etag", cr.getEntityTag());
+        }
+
+        if (cr.getVersionId() != null) {
+            attrs.setProperty("version", cr.getVersionId());
+        }
+
+        if (cr.getExpires() > 0L) {
+            attrs.setProperty("expires", Long.toString(cr.getExpires()));
+        }
+
+        if (cr.isRevalidationRequired()) {
+            attrs.setProperty("nocache", "true");
+        }
+
+        if (cr instanceof FileCachedResource && ((FileCachedResource) cr).getDigest() != null) {
+            attrs.setProperty("digest", ((FileCachedResource) cr).getDigest());
+        }
+
+        if (cr instanceof FileCachedResource && ((FileCachedResource) cr).getChecksum() != null) {
+            attrs.setProperty("sha256", ((FileCachedResource) cr).getChecksum());
+        }
+
+        if (cr instanceof FileCachedResource) {
+            ((FileCachedResource) cr).storeRetained(attrs);
+        }
+
+        cr.storeStaged(attrs);
+
+        return attrs;
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.
+     *
+     * @param   out  the output to write to
+     * @param   s    the string to write
+     * @throws  IOException if writing fails
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Reads a string written by <code>writeString</code>.
+     *
+     * @param   in  the input to read from
+     * @return  the string read
+     * @throws  IOException if reading fails
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+
+        in.readFully(b);
+
+        return new String(b, "UTF-8");
+    }
+
+    /**
+     * Removes this cache entry from storage. Updates in progress are aborted, every cached
+     * resource is purged and the cache entry directory is deleted. Nothing is written back.
+     *
+     * @see     FileCache#removeEntry
+     */
+    void delete() {
+        abortUpdates();
+
+        synchronized (persistFile) {
+            if (flushTask != null) {
+                flushTask.cancel();
+                flushTask = null;
+            }
+
+            dirty = false;
+        }
+
+        CachedResource[] rsrc;
+
+        synchronized (resources) {
+            rsrc = (CachedResource[]) resources.values().toArray(new CachedResource[0]);
+            resources.clear();
+        }
+
+        for (int i = 0; i < rsrc.length; i++) {
+            rsrc[i].purge();
+        }
+
+        FileCache.deltree(entryDir);
+    }
+
+    /**
+     * Returns the timer that writes out persistent info of cache entries.
+     *
+     * @return  the flush timer
+     */
+    private static synchronized Timer getFlushTimer() {
+        if (flushTimer == null) {
+            flushTimer = new Timer(true);
+        }
+
+        return flushTimer;
+    }
+
+    /**
+     * Creates a cached resource for the specified reference in this cache entry. The cached
+     * resource uses the blob store of the file cache, if any.
+     *
+     * @param   ref    the reference to cache
+     * @param   attrs  the attributes read from the persistent info, or <code>null</code> if the
+     *                 resource is new
+     * @return  the cached resource
+     * @see     #resourceAttributes
+     */
+    protected FileCachedResource createResource(Reference ref, Properties attrs) {
+        FileCachedResource cr;
+
+        if (attrs == null) {
+            cr = new FileCachedResource(ref, getResourceDir(), getLibraryDir());
+        } else {
+            cr = new FileCachedResource(ref, Long.parseLong(attrs.getProperty("modtime", "0")), attrs.getProperty("etag"), getResourceDir(), getLibraryDir());
+        }
+
+        if (cache instanceof FileCache) {
+            cr.setBlobStore(((FileCache) cache).getBlobStore());
+        }
+
+        if (attrs != null) {
+            cr.setDigest(attrs.getProperty("digest"));
+            cr.setVersionId(attrs.getProperty("version"));
+            cr.setChecksum(attrs.getProperty("sha256"));
+            cr.setExpires(Long.parseLong(attrs.getProperty("expires", "0")));
+            cr.setRevalidationRequired(Boolean.valueOf(attrs.getProperty("nocache")).booleanValue());
+            cr.loadRetained(attrs);
+            cr.loadStaged(attrs);
+        }
+
+        return cr;
+    }
+
     /**
      * Converts old-style cache into current format. Makes sure there's a meta file in the entry
      * when done. If the old-style meta file <em>entry.properties</em> exists, its contents are
@@ -594,63 +1402,9 @@ public class FileCacheEntry extends CacheEntry {
         }
     }
 
-    /**
-     * Returns an XML attribute parsing-safe encoded string. If the supplied string contains
-     * any character that will confuse parsing of an attribute it will be encoded using XML
-     * entities where appropriate.
-     *
-     * @param   s  the string to encode
-     * @return  a parsing-safe string that will be encoded if necessary
-     */
-    protected static String xmlEncodeAttribute(String s) {
-        if (s.indexOf('"') != -1 || s.indexOf('\'') != -1 || s.indexOf('&') != -1) {
-            StringBuffer sb = new StringBuffer();
-
-            for (int i = 0; i < s.length(); i++) {
-                switch (s.charAt(i)) {
-                    case '"':	sb.append("&quot;");	break;
-                    case '\'':	sb.append("&apos;");	break;
-                    case '&':	sb.append("&amp;");		break;
-                    default:	sb.append(s.charAt(i));	break;
-                }
-            }
-
-            s = sb.toString();
-        }
-
-        return s;
-    }
-
-    /**
-     * Returns an XML content parsing-safe encoded string. If the supplied string contains
-     * any character that will confuse parsing of content it will be encoded using XML
-     * entities where appropriate.
-     *
-     * @param   s  the string to encode
-     * @return  a parsing-safe string that will be encoded if necessary
-     */
-    protected static String xmlEncodeContent(String s) {
-        if (s.indexOf('<') != -1 || s.indexOf('>') != -1 || s.indexOf('&') != -1) {
-            StringBuffer sb = new StringBuffer();
-
-            for (int i = 0; i < s.length(); i++) {
-                switch (s.charAt(i)) {
-                    case '<':	sb.append("&lt;");		break;
-                    case '>':	sb.append("&gt;");		break;
-                    case '&':	sb.append("&amp;");		break;
-                    default:	sb.append(s.charAt(i));	break;
-                }
-            }
-
-            s = sb.toString();
-        }
-
-        return s;
-    }
-
 
     /**
-     * Handles the XML content for the XML cache entry meta file. This parses the content into
+     * Handles the XML content of an <em>entry.xml</em> file written by earlier versions. This parses the content into
      * meta info and cached resources in the file cache entry.
      * <p>
      * The XML content is exemplified as:
@@ -659,7 +1413,7 @@ public class FileCacheEntry extends CacheEntry {
      *   &lt;meta name="metakey"&gt;metadata&lt;/meta&gt;
      *   .
      *   .
-     *   &lt;resource href="http://someurl.." modtime="0"&gt;
+     *   &lt;resource href="http://someurl.." modtime="0" etag="&amp;quot;abc&amp;quot;" digest="9f86d0..."&gt;
      *   .
      *   .
      * &lt;/entry&gt;
@@ -703,8 +1457,7 @@ public class FileCacheEntry extends CacheEntry {
          * @throws  SAXException  if a parsing error occurs
          */
         public void endDocument() throws SAXException {
-            entryMeta = meta;
-            resources = resMap;
+            setPersistentInfo(meta, resMap);
         }
 
         /**
@@ -827,7 +1580,7 @@ public class FileCacheEntry extends CacheEntry {
             try {
                 Reference ref = new NativelibReference(new URL(attrs.getValue("href")));
 
-                resMap.put(ref.getURL(), new FileCachedResource(ref, Long.parseLong(attrs.getValue("modtime")), getResourceDir(), getLibraryDir()));
+                resMap.put(ref.getURL(), createResource(ref, toProperties(attrs)));
             } catch (Exception e) {
                 System.err.println(e);
             }
@@ -850,12 +1603,31 @@ public class FileCacheEntry extends CacheEntry {
             try {
                 Reference ref = new Reference(new URL(attrs.getValue("href")));
 
-                resMap.put(ref.getURL(), new FileCachedResource(ref, Long.parseLong(attrs.getValue("modtime")), getResourceDir(), getLibraryDir()));
+                resMap.put(ref.getURL(), createResource(ref, toProperties(attrs)));
             } catch (Exception e) {
                 System.err.println(e);
             }
         }
 
+        /**
+         * Converts the attributes of a resource tag, other than <em>href</em>, to the
+         * attributes of a cached resource.
+         *
+         * @param   attrs  the tag attributes
+         * @return  attributes as key/value pairs
+         */
+        private Properties toProperties(Attributes attrs) {
+            Properties props = new Properties();
+
+            for (int i = 0; i < attrs.getLength(); i++) {
+                if (!"href".equals(attrs.getQName(i))) {
+                    props.setProperty(attrs.getQName(i), attrs.getValue(i));
+                }
+            }
+
+            return props;
+        }
+
         /**
          * Changes the state based on the current tag and the desired tag. If entering the state changes
          * from parent to the new state; leaving the state changes from new state to parent. An exception
@@ -17,17 +17,35 @@
  */
 package org.nanode.launcher.cache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.nanode.launcher.NativelibReference;
 import org.nanode.launcher.Reference;
+import org.nanode.launcher.Version;
 
 
 /**
@@ -37,10 +55,26 @@ import org.nanode.launcher.Reference;
  * <p>
  * This also will unjar native libraries if the reference is to a native library jar and a
  * library dir is specified.
+ * <p>
+ * If a blob store is set and enabled, the cached bytes are kept in the blob store instead of
+ * the resource dir so that they can be shared with other cache entries.
+ * <p>
+ * When a different version of a versioned resource replaces the cached version, up to
+ * <code>org.nanode.launcher.cache.retainedVersions</code> of the versions it replaces are kept
+ * side by side with it, either as files named after their version-id or as blobs. Going back
+ * to one of those versions then needs no download.
  *
  * @author Kevin Herrboldt (kevin@nanode.org)
  */
 public class FileCachedResource extends CachedResource {
+    /** system property for how many replaced versions of a versioned resource are kept */
+    public static final String RETAINED_VERSIONS_PROPERTY = "org.nanode.launcher.cache.retainedVersions";
+
+    private static final int DEFAULT_RETAINED_VERSIONS = 2;
+
+    private static final long MAP_THRESHOLD = 16 * 1024L;	// smaller files are read rather than mapped
+
+
     /** where resources are stored */
     private File rsrcDir;
 
@@ -50,6 +84,30 @@ public class FileCachedResource extends CachedResource {
     /** the cached resource file */
     private File cacheFile;
 
+    /** the partial download of the cached resource file */
+    private File partFile;
+
+    /** the shared store of resource bytes, if any */
+    private BlobStore blobStore;
+
+    /** the digest of the blob holding this cached resource, or <code>null</code> if not in the blob store */
+    private String digest;
+
+    /** holds the range validator of the partial download */
+    private File partInfoFile;
+
+    /** records the native libraries extracted from this cached resource */
+    private File extractFile;
+
+    /** the digest of the cached resource file when not in the blob store, or <code>null</code> if not known */
+    private String checksum;
+
+    /** the digest of the staged file, or <code>null</code> if not known */
+    private String stagedChecksum;
+
+    /** versions kept aside as (version-id, RetainedVersion), in the order they were replaced */
+    private Map retained = new LinkedHashMap();
+
 
     /**
      * Creates a cached resource in the resource dir for the specified reference.
@@ -82,6 +140,9 @@ public class FileCachedResource extends CachedResource {
             rsrcDir.mkdirs();
 
             cacheFile = new File(rsrcDir, resourceCacheName());
+            partFile = new File(rsrcDir, resourceCacheName() + ".part");
+            partInfoFile = new File(rsrcDir, resourceCacheName() + ".part.info");
+            extractFile = new File(rsrcDir, resourceCacheName() + ".libs");
         }
 
         if (cacheFile != null) {
@@ -111,12 +172,218 @@ public class FileCachedResource extends CachedResource {
     }
 
     /**
-     * Returns the file reference to this cached resource.
+     * Creates a cached resource in the resource dir for the specified reference with the
+     * specified last-modified date and entity tag. This is used primarily when instantiating
+     * the cache entry from the file system.
+     *
+     * @param   ref      the reference to cache
+     * @param   lastMod  the last-modified date of this cached resource
+     * @param   etag     the entity tag of this cached resource, or <code>null</code> if none
+     * @param   rsrc     the directory in which to cache the reference
+     * @param   libs     the directory in which to extract native libraries
+     */
+    public FileCachedResource(Reference ref, long lastMod, String etag, File rsrc, File libs) {
+        this(ref, lastMod, rsrc, libs);
+
+        entityTag = etag;
+    }
+
+    /**
+     * Returns the file reference to this cached resource. This is the blob holding the cached
+     * resource if it is in the blob store.
      *
      * @return  file reference to cached resource
      */
     public File getCacheFile() {
-        return cacheFile;
+        return (digest != null && blobStore != null) ? blobStore.blobFile(digest) : cacheFile;
+    }
+
+    /**
+     * Returns the digest of the blob holding this cached resource.
+     *
+     * @return  hex-encoded digest or <code>null</code> if not in the blob store
+     * @see     BlobStore
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Sets the blob store used for this cached resource. If the blob store is enabled,
+     * downloads are put in it.
+     *
+     * @param   store  the blob store
+     */
+    void setBlobStore(BlobStore store) {
+        blobStore = store;
+    }
+
+    /**
+     * Sets the digest of the blob already holding this cached resource. This is used when
+     * instantiating the cache entry from the file system and does not acquire a reference.
+     *
+     * @param   digest  hex-encoded digest or <code>null</code> if not in the blob store
+     */
+    void setDigest(String digest) {
+        this.digest = digest;
+
+        if (getCacheFile() != null && getCacheFile().exists()) {
+            actualLength = getCacheFile().length();
+        }
+    }
+
+    /**
+     * Returns the digest of the cached resource file as it was committed, which the scrubber
+     * checks the file against. A resource in the blob store is checked against the digest of its
+     * blob instead.
+     *
+     * @return  hex-encoded digest or <code>null</code> if not known
+     * @see     CacheScrubber
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Sets the digest of the cached resource file. This is used when instantiating the cache
+     * entry from the file system, and by the scrubber for a file that has none yet.
+     *
+     * @param   sum  hex-encoded digest or <code>null</code> if not known
+     */
+    void setChecksum(String sum) {
+        checksum = sum;
+    }
+
+    /**
+     * Sets the version-id of the cached resource. This is used when instantiating the cache
+     * entry from the file system.
+     *
+     * @param   ver  the version-id or <code>null</code> if not downloaded by version
+     */
+    void setVersionId(String ver) {
+        versionId = ver;
+    }
+
+    /**
+     * Returns the digests of all blobs held by this cached resource, including those of versions
+     * kept aside.
+     *
+     * @return  array of hex-encoded digests
+     */
+    synchronized String[] getDigests() {
+        List digests = new ArrayList();
+
+        if (digest != null) {
+            digests.add(digest);
+        }
+
+        for (Iterator iter = retained.values().iterator(); iter.hasNext();) {
+            RetainedVersion rv = (RetainedVersion) iter.next();
+
+            if (rv.digest != null) {
+                digests.add(rv.digest);
+            }
+        }
+
+        return (String[]) digests.toArray(new String[digests.size()]);
+    }
+
+    /**
+     * Adds the versions kept aside to the attributes written to the persistent info. The
+     * version-ids are listed under <em>retained</em>, and each version is described under
+     * <em>retained.</em><code>version-id</code> by its digest (or "-"), last-modified date and
+     * entity tag.
+     *
+     * @param   attrs  the attributes of this cached resource
+     * @see     #loadRetained
+     */
+    synchronized void storeRetained(Properties attrs) {
+        if (retained.isEmpty()) {
+            return;
+        }
+
+        StringBuffer sb = new StringBuffer();
+
+        for (Iterator iter = retained.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry me = (Map.Entry) iter.next();
+            RetainedVersion rv = (RetainedVersion) me.getValue();
+
+            sb.append(me.getKey());
+            sb.append(iter.hasNext() ? " " : "");
+
+            attrs.setProperty("retained." + me.getKey(), ((rv.digest != null) ? rv.digest : "-") + " " + rv.lastModified
+                              + ((rv.entityTag != null) ? " " + rv.entityTag : ""));
+        }
+
+        attrs.setProperty("retained", sb.toString());
+    }
+
+    /**
+     * Reads the versions kept aside from the attributes read from the persistent info. This is
+     * used when instantiating the cache entry from the file system.
+     *
+     * @param   attrs  the attributes of this cached resource
+     * @see     #storeRetained
+     */
+    synchronized void loadRetained(Properties attrs) {
+        String vers = attrs.getProperty("retained");
+
+        if (vers == null) {
+            return;
+        }
+
+        for (StringTokenizer st = new StringTokenizer(vers, " "); st.hasMoreTokens();) {
+            String ver = st.nextToken();
+            String value = attrs.getProperty("retained." + ver);
+
+            if (value == null) {
+                continue;
+            }
+
+            int i = value.indexOf(' ');
+            int j = value.indexOf(' ', i + 1);
+
+            if (i < 0) {
+                continue;
+            }
+
+            RetainedVersion rv = new RetainedVersion();
+            rv.digest = (value.startsWith("-")) ? null : value.substring(0, i);
+            rv.lastModified = Long.parseLong((j < 0) ? value.substring(i + 1) : value.substring(i + 1, j));
+            rv.entityTag = (j < 0) ? null : value.substring(j + 1);
+
+            retained.put(ver, rv);
+        }
+    }
+
+    /**
+     * Adopts the blob the blob store last stored for the referenced resource, along with its
+     * validators and expiration time, provided nothing is cached yet. While the adopted blob is
+     * fresh the update does not revalidate it.
+     *
+     * @return  <code>true</code> if a blob was adopted; <code>false</code> otherwise
+     */
+    private boolean adoptBlob() {
+        if (blobStore == null || !blobStore.isEnabled() || digest != null || (cacheFile != null && cacheFile.exists())) {
+            return false;
+        }
+
+        String[] rec = blobStore.lookup(reference.getURL());
+
+        if (rec == null || !blobStore.acquire(rec[0])) {
+            return false;
+        }
+
+        synchronized (getLock()) {
+            digest = rec[0];
+            checksum = null;
+            lastModified = Long.parseLong(rec[1]);
+            entityTag = rec[2];
+            expires = Long.parseLong(rec[3]);
+            actualLength = getCacheFile().length();
+        }
+
+        return true;
     }
 
     /**
@@ -140,49 +407,227 @@ public class FileCachedResource extends CachedResource {
     /**
      * Updates the cached resource if necessary.
      * <p>
+     * If the blob store is enabled and this resource is not cached yet, a blob already stored
+     * for the referenced resource is adopted first; the update then only revalidates it, and
+     * not at all while it is fresh.
+     * <p>
      * If this cached resource is a native library jar, any native libraries at the root level
      * in the jar are extracted into the cache entry library directory.
      *
      * @return  <code>true</code> if resource is updated; <code>false</code> otherwise
      */
     public boolean update() {
-        boolean status = super.update();
+        boolean adopted = adoptBlob();
+        boolean status = super.update() || adopted;
 
         // if not updated, nothing more to do
-        if (!status) {
-            return status;
+        if (status) {
+            installed();
+        }
+
+        return status;
+    }
+
+    /**
+     * Makes the staged version the cached resource. As after an update, native libraries in a
+     * native library jar are extracted.
+     *
+     * @return  <code>true</code> if the staged version is now the cached resource; <code>false</code>
+     *          if nothing was staged or it could not be promoted
+     */
+    public boolean promoteStaged() {
+        if (!super.promoteStaged()) {
+            return false;
         }
 
-        getCacheFile().setLastModified(getLastModified());	// update last modified date on file
+        installed();
+
+        return true;
+    }
+
+    /**
+     * Finishes putting a new version in place: the blob store remembers it, or the cached
+     * resource file gets its last-modified date, and native libraries are extracted.
+     */
+    private void installed() {
+        if (digest != null) {
+            blobStore.remember(reference.getURL(), digest, getLastModified(), getEntityTag(), getExpires());
+        } else {
+            getCacheFile().setLastModified(getLastModified());	// update last modified date on file
+        }
 
         // if this is a nativelib, extract the files at the root level of the jar
         if (getCacheFile() !=null && getLibraryDir() != null && reference instanceof NativelibReference) {
             try {
-                ZipFile zf = new ZipFile(getCacheFile());
+                extractLibraries();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Extracts the native libraries at the root level of the cached jar into the library
+     * directory. The name, CRC and size of each library extracted are recorded in an extraction
+     * manifest next to the cached resource, so only libraries that changed since the last
+     * extraction are written, and libraries no longer in the jar are removed.
+     * <p>
+     * Each library is written to a temporary file that is renamed into place, so a library is
+     * never seen half-written. When several libraries changed they are extracted in parallel.
+     *
+     * @throws  IOException if the jar can not be read
+     */
+    private void extractLibraries() throws IOException {
+        final ZipFile zf = new ZipFile(getCacheFile());
 
-                for (Enumeration entries = zf.entries(); entries.hasMoreElements();) {
-                    ZipEntry ze = (ZipEntry) entries.nextElement();
+        try {
+            Properties extracted = readExtracted();
+            Properties current = new Properties();
+            List changed = new ArrayList();
 
-                    if (ze.isDirectory() || ze.getName().indexOf('/') > 0) {
-                        continue;
-                    }
+            for (Enumeration entries = zf.entries(); entries.hasMoreElements();) {
+                ZipEntry ze = (ZipEntry) entries.nextElement();
 
-                    InputStream is = zf.getInputStream(ze);
-                    OutputStream os = new FileOutputStream(new File(getLibraryDir(), ze.getName()));
-                    CachedResource.copy(is, os);
-                    os.close();
-                    is.close();
+                if (ze.isDirectory() || ze.getName().indexOf('/') > 0) {
+                    continue;
                 }
 
-                zf.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+                String rec = Long.toHexString(ze.getCrc()) + " " + ze.getSize();
+                File lib = new File(getLibraryDir(), ze.getName());
+
+                current.setProperty(ze.getName(), rec);
+
+                if (ze.getCrc() == -1L || !rec.equals(extracted.getProperty(ze.getName())) || lib.length() != ze.getSize()) {
+                    changed.add(ze);
+                }
+            }
+
+            // remove libraries that are no longer in the jar
+            for (Enumeration names = extracted.propertyNames(); names.hasMoreElements();) {
+                String name = (String) names.nextElement();
+
+                if (current.getProperty(name) == null) {
+                    new File(getLibraryDir(), name).delete();
+                }
+            }
+
+            final List failed = new ArrayList();
+
+            if (changed.size() == 1) {
+                extractLibrary(zf, (ZipEntry) changed.get(0));
+            } else if (changed.size() > 1) {
+                TaskBatch batch = new TaskBatch("extract", Runtime.getRuntime().availableProcessors(), Integer.MAX_VALUE);
+
+                for (Iterator iter = changed.iterator(); iter.hasNext();) {
+                    final ZipEntry ze = (ZipEntry) iter.next();
+
+                    batch.add(new Runnable() {
+                            public void run() {
+                                try {
+                                    extractLibrary(zf, ze);
+                                } catch (IOException e) {
+                                    System.err.println(e);
+
+                                    synchronized (failed) {
+                                        failed.add(ze.getName());
+                                    }
+                                }
+                            }
+                        });
+                }
+
+                batch.run();
             }
+
+            // a library that failed is extracted again next time
+            for (Iterator iter = failed.iterator(); iter.hasNext();) {
+                current.remove(iter.next());
+            }
+
+            writeExtracted(current);
+        } finally {
+            zf.close();
         }
+    }
 
-        return status;
+    /**
+     * Extracts a single native library into the library directory, by way of a temporary file
+     * that is renamed over the library.
+     *
+     * @param   zf  the cached jar
+     * @param   ze  the entry of the library
+     * @throws  IOException if the library can not be extracted
+     */
+    private void extractLibrary(ZipFile zf, ZipEntry ze) throws IOException {
+        File lib = new File(getLibraryDir(), ze.getName());
+        File tmp = new File(getLibraryDir(), ze.getName() + ".tmp");
+
+        InputStream is = zf.getInputStream(ze);
+
+        try {
+            OutputStream os = new FileOutputStream(tmp);
+
+            try {
+                CachedResource.copy(is, os);
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+
+        if (!renameFile(tmp, lib)) {
+            tmp.delete();
+
+            throw new IOException("Unable to rename " + tmp + " to " + lib);
+        }
     }
-    
+
+    /**
+     * Reads the extraction manifest of (library name, CRC and size) records.
+     *
+     * @return  the extraction manifest, empty if there is none
+     */
+    private Properties readExtracted() {
+        Properties props = new Properties();
+
+        if (extractFile != null && extractFile.exists()) {
+            try {
+                InputStream is = new FileInputStream(extractFile);
+
+                props.load(is);
+                is.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+
+        return props;
+    }
+
+    /**
+     * Writes the extraction manifest to a temporary file that is renamed over the manifest.
+     *
+     * @param   props  the extraction manifest
+     * @throws  IOException if the manifest can not be written
+     */
+    private void writeExtracted(Properties props) throws IOException {
+        File tmp = new File(rsrcDir, resourceCacheName() + ".libs.tmp");
+        OutputStream os = new FileOutputStream(tmp);
+
+        try {
+            props.store(os, "OpenJNLP extracted libraries");
+        } finally {
+            os.close();
+        }
+
+        if (!renameFile(tmp, extractFile)) {
+            tmp.delete();
+
+            throw new IOException("Unable to write " + extractFile);
+        }
+    }
+
     /**
      * Converts the referenced resource into a name to be used relative to the resource
      * directory for storing the cached resource.
@@ -213,6 +658,35 @@ public class FileCachedResource extends CachedResource {
         return is;
     }
 
+    /**
+     * Returns the bytes of the cached resource file mapped read-only into memory, so they are
+     * not copied onto the heap. Files too small to be worth mapping are read instead.
+     * <p>
+     * The mapping stays valid after the cached resource is updated, as updates replace the file
+     * rather than write to it. Some platforms can not replace a file while it is mapped, so the
+     * buffer should not be held on to longer than needed.
+     *
+     * @return  a read-only buffer of the bytes of the cached resource
+     * @throws  IOException if the cached resource file can not be read
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        File f = getCacheFile();
+
+        if (f == null || f.length() < MAP_THRESHOLD) {
+            return super.getByteBuffer();
+        }
+
+        FileInputStream fis = new FileInputStream(f);
+
+        try {
+            FileChannel fc = fis.getChannel();
+
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size());
+        } finally {
+            fis.close();
+        }
+    }
+
     /**
      * Returns a new output stream to the file that this cached resource represents.
      *
@@ -232,38 +706,782 @@ public class FileCachedResource extends CachedResource {
     }
 
     /**
-     * Purges the resource from the cache. This is done by removing the file in the file cache
-     * entry resources directory.
-     * <p>
-     * If this cached resource is a native library jar, any extracted native libraries are
-     * removed from the cache entry library directory.
+     * Returns the length of the partial download file, if any.
+     *
+     * @return  length of the partial download file or 0 if there is none
      */
-    protected void purge() {
-        super.purge();
+    protected long partialLength() {
+        return (partFile != null && partInfoFile.exists()) ? partFile.length() : 0L;
+    }
 
-        // if this is a nativelib, delete any extracted files from the library directory
-        if (getCacheFile() != null && getLibraryDir() != null && reference instanceof NativelibReference) {
-            try {
-                ZipFile zf = new ZipFile(getCacheFile());
+    /**
+     * Returns the range validator stored alongside the partial download file.
+     *
+     * @return  the range validator or <code>null</code> if there is none
+     */
+    protected String partialValidator() {
+        if (partInfoFile == null || !partInfoFile.exists()) {
+            return null;
+        }
 
-                for (Enumeration entries = zf.entries(); entries.hasMoreElements();) {
-                    ZipEntry ze = (ZipEntry) entries.nextElement();
+        try {
+            InputStream is = new FileInputStream(partInfoFile);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
 
-                    if (ze.isDirectory() || ze.getName().indexOf('/') > 0) {
-                        continue;
-                    }
+            CachedResource.copy(is, os);
+            is.close();
 
-                    new File(getLibraryDir(), ze.getName()).delete();
-                }
+            return (os.size() > 0) ? new String(os.toByteArray(), "UTF-8") : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-                zf.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+    /**
+     * Returns a new output stream to the partial download file. When starting a new partial
+     * download the range validator, if any, is written to a file next to it.
+     * <p>
+     * The partial download file is locked for as long as the stream is open, so no other
+     * updater in this or another VM writes to it at the same time.
+     *
+     * @param   append     whether to append to the partial download file
+     * @param   validator  the range validator or <code>null</code> if there is none
+     * @return  output stream to the partial download file
+     * @throws  IOException if the output stream can not be opened or the file is locked
+     */
+    protected OutputStream openPartialOutputStream(boolean append, String validator) throws IOException {
+        if (partFile == null) {
+            return super.openPartialOutputStream(append, validator);
+        }
+
+        PartialOutputStream os = new PartialOutputStream(append);
+
+        if (!append) {
+            partInfoFile.delete();
+
+            if (validator != null) {
+                OutputStream vos = new FileOutputStream(partInfoFile);
+
+                vos.write(validator.getBytes("UTF-8"));
+                vos.close();
             }
         }
 
-        if (getCacheFile() != null) {
-            getCacheFile().delete();
+        return os;
+    }
+
+    /**
+     * Replaces the cached resource file with the completed partial download file. The partial
+     * download is forced to disk and renamed over the cached resource file, so the cached
+     * resource file is always either the old or the new version. Anyone that already has the
+     * old file open keeps reading the old version. The digest recorded for the cached resource
+     * was worked out as the bytes were written, so the file is not read again.
+     * <p>
+     * If the blob store is enabled the completed download is moved into the blob store instead,
+     * and the reference to any previous blob is released.
+     *
+     * @param   out  the open output stream to the partial download file
+     * @throws  IOException if the partial download file could not be moved into place
+     */
+    protected void commitPartial(OutputStream out) throws IOException {
+        if (!(out instanceof PartialOutputStream)) {
+            super.commitPartial(out);
+            return;
+        }
+
+        String oldDigest = digest;
+        String sum = ((PartialOutputStream) out).digest();
+
+        if (blobStore != null && blobStore.isEnabled()) {
+            File staged = File.createTempFile("blob", ".tmp", rsrcDir);
+
+            try {
+                ((PartialOutputStream) out).commit(staged);
+                digest = blobStore.store(staged, sum);
+            } finally {
+                staged.delete();
+            }
+
+            cacheFile.delete();		// the blob replaces any private copy
+            checksum = null;
+        } else {
+            ((PartialOutputStream) out).commit(cacheFile);
+            checksum = sum;
+            digest = null;
+        }
+
+        if (oldDigest != null) {
+            blobStore.release(oldDigest);
+        }
+
+        partInfoFile.delete();
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 digest of the completed partial download file, as worked
+     * out while it was written.
+     *
+     * @param   out  the open output stream to the partial download file
+     * @return  hex-encoded digest or <code>null</code> if not known
+     * @throws  IOException if the partial download file can not be read
+     */
+    protected String partialDigest(OutputStream out) throws IOException {
+        return (out instanceof PartialOutputStream) ? ((PartialOutputStream) out).digest() : super.partialDigest(out);
+    }
+
+    /**
+     * Returns the channel of the partial download file, so that the transfer engine writes to the
+     * file directly.
+     *
+     * @param   out  the output stream returned by <code>openPartialOutputStream</code>
+     * @return  a channel to the partial download file
+     */
+    protected WritableByteChannel partialChannel(OutputStream out) {
+        return (out instanceof PartialOutputStream) ? ((PartialOutputStream) out).getChannel() : super.partialChannel(out);
+    }
+
+    /**
+     * Indicates whether a JARDiff patch can be applied to the cached resource. This is the case
+     * if a version of the resource is cached and partial downloads are kept in files.
+     *
+     * @return  <code>true</code> if a patch can be applied; <code>false</code> otherwise
+     */
+    protected boolean canPatch() {
+        return (partFile != null && versionId != null && getCacheFile() != null && getCacheFile().isFile());
+    }
+
+    /**
+     * Applies the JARDiff in the completed partial download file to the cached resource file.
+     * The patched jar is written to a temporary file and verified, then renamed over the cached
+     * resource file or moved into the blob store, so the cached resource file is always either
+     * the old or the new version. The partial download file is removed either way.
+     *
+     * @param   out  the open output stream to the partial download file
+     * @return  the length of the patched jar
+     * @throws  IOException if the patch can not be applied or the patched jar fails verification
+     * @see     JarDiff
+     */
+    protected long commitPatch(OutputStream out) throws IOException {
+        if (!(out instanceof PartialOutputStream)) {
+            return super.commitPatch(out);
+        }
+
+        File staged = File.createTempFile("patch", ".tmp", rsrcDir);
+
+        // if the cached version was kept aside that is where it is now
+        RetainedVersion base = (RetainedVersion) retained.get(versionId);
+
+        try {
+            String sum = JarDiff.apply((base != null) ? retainedFile(versionId, base) : getCacheFile(), partFile, staged);
+            JarDiff.verify(staged);
+
+            long length = staged.length();
+            String oldDigest = digest;
+
+            if (blobStore != null && blobStore.isEnabled()) {
+                digest = blobStore.store(staged, sum);
+                cacheFile.delete();		// the blob replaces any private copy
+                checksum = null;
+            } else {
+                if (!renameFile(staged, cacheFile)) {
+                    throw new IOException("Unable to rename " + staged + " to " + cacheFile);
+                }
+
+                checksum = sum;
+                digest = null;
+            }
+
+            if (oldDigest != null) {
+                blobStore.release(oldDigest);
+            }
+
+            return length;
+        } finally {
+            staged.delete();
+            out.close();
+            partFile.delete();
+            partInfoFile.delete();
+        }
+    }
+
+    /**
+     * Moves the completed partial download, or the jar patched with it, to the staged file next
+     * to the cached resource file. The cached resource file is left as it is.
+     *
+     * @param   out    the open output stream to the partial download file
+     * @param   patch  whether the partial download is a JARDiff
+     * @return  the length of the staged file
+     * @throws  IOException if the staged file can not be written
+     */
+    protected long commitStaged(OutputStream out, boolean patch) throws IOException {
+        if (!(out instanceof PartialOutputStream)) {
+            return super.commitStaged(out, patch);
+        }
+
+        File stagedFile = stagedFile();
+
+        stagedChecksum = null;
+
+        if (!patch) {
+            String sum = ((PartialOutputStream) out).digest();
+
+            ((PartialOutputStream) out).commit(stagedFile);
+            partInfoFile.delete();
+            stagedChecksum = sum;
+
+            return stagedFile.length();
+        }
+
+        File patched = File.createTempFile("patch", ".tmp", rsrcDir);
+        RetainedVersion base = (RetainedVersion) retained.get(versionId);
+
+        try {
+            String sum = JarDiff.apply((base != null) ? retainedFile(versionId, base) : getCacheFile(), partFile, patched);
+            JarDiff.verify(patched);
+
+            if (!renameFile(patched, stagedFile)) {
+                throw new IOException("Unable to rename " + patched + " to " + stagedFile);
+            }
+
+            stagedChecksum = sum;
+
+            return stagedFile.length();
+        } finally {
+            patched.delete();
+            out.close();
+            partFile.delete();
+            partInfoFile.delete();
+        }
+    }
+
+    /**
+     * Moves the staged file over the cached resource file, or into the blob store if it is
+     * enabled.
+     *
+     * @throws  IOException if the staged file is missing or can not be moved
+     */
+    protected void installStaged() throws IOException {
+        File stagedFile = stagedFile();
+
+        if (stagedFile == null || !stagedFile.isFile()) {
+            throw new IOException("Staged version missing for " + reference.getURL());
+        }
+
+        String oldDigest = digest;
+
+        // the digest worked out when staging is only missing if staged by an older version
+        String sum = (stagedChecksum != null) ? stagedChecksum : BlobStore.digest(stagedFile);
+
+        if (blobStore != null && blobStore.isEnabled()) {
+            digest = blobStore.store(stagedFile, sum);
+            cacheFile.delete();		// the blob replaces any private copy
+            checksum = null;
+        } else {
+            if (!renameFile(stagedFile, cacheFile)) {
+                throw new IOException("Unable to rename " + stagedFile + " to " + cacheFile);
+            }
+
+            checksum = sum;
+            digest = null;
+        }
+
+        stagedChecksum = null;
+
+        if (oldDigest != null) {
+            blobStore.release(oldDigest);
+        }
+    }
+
+    /**
+     * Removes the staged file.
+     */
+    protected void discardStaged() {
+        stagedChecksum = null;
+
+        if (stagedFile() != null) {
+            stagedFile().delete();
+        }
+    }
+
+    /**
+     * Records the staged version in the specified attributes, along with the digest of the
+     * staged file as <em>staged.checksum</em>.
+     *
+     * @param   attrs  the attributes of the cached resource
+     */
+    void storeStaged(Properties attrs) {
+        super.storeStaged(attrs);
+
+        if (isStaged() && stagedChecksum != null) {
+            attrs.setProperty("staged.checksum", stagedChecksum);
+        }
+    }
+
+    /**
+     * Reads the staged version recorded by <code>storeStaged</code>.
+     *
+     * @param   attrs  the attributes of the cached resource
+     */
+    void loadStaged(Properties attrs) {
+        super.loadStaged(attrs);
+
+        stagedChecksum = (isStaged()) ? attrs.getProperty("staged.checksum") : null;
+    }
+
+    /**
+     * Returns the file holding the staged version of this cached resource.
+     *
+     * @return  the staged file or <code>null</code> if there is no resource directory
+     */
+    private File stagedFile() {
+        return (cacheFile != null) ? new File(rsrcDir, cacheFile.getName() + ".staged") : null;
+    }
+
+    /**
+     * Keeps the cached version aside. Unless it is a blob, the cached resource file is renamed
+     * after its version-id. The oldest versions kept aside are removed to keep no more than
+     * <code>org.nanode.launcher.cache.retainedVersions</code> of them.
+     *
+     * @return  <code>true</code> if the version was kept aside; <code>false</code> otherwise
+     */
+    protected synchronized boolean retainVersion() {
+        int max = Integer.getInteger(RETAINED_VERSIONS_PROPERTY, DEFAULT_RETAINED_VERSIONS).intValue();
+
+        if (max <= 0 || rsrcDir == null || versionId == null || !getCacheFile().isFile()) {
+            return false;
+        }
+
+        if (digest == null && !renameFile(cacheFile, versionFile(versionId))) {
+            return false;
+        }
+
+        RetainedVersion rv = new RetainedVersion();
+        rv.digest = digest;
+        rv.lastModified = lastModified;
+        rv.entityTag = entityTag;
+
+        digest = null;			// the kept version now holds the blob reference
+        checksum = null;
+        retained.remove(versionId);
+        retained.put(versionId, rv);
+
+        // forget the versions kept aside the longest
+        for (Iterator iter = retained.entrySet().iterator(); retained.size() > max && iter.hasNext();) {
+            Map.Entry me = (Map.Entry) iter.next();
+
+            if (!me.getKey().equals(versionId)) {
+                dropRetained((String) me.getKey(), (RetainedVersion) me.getValue());
+                iter.remove();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Puts back the cached version kept aside by <code>retainVersion</code>.
+     */
+    protected synchronized void restoreVersion() {
+        RetainedVersion rv = (RetainedVersion) retained.remove(versionId);
+
+        if (rv == null) {
+            return;
+        }
+
+        if (rv.digest == null) {
+            renameFile(versionFile(versionId), cacheFile);
+        }
+
+        digest = rv.digest;
+        checksum = null;
+    }
+
+    /**
+     * Makes the highest version kept aside that satisfies the reference the cached resource
+     * again, keeping the current version aside in its place.
+     *
+     * @return  <code>true</code> if a version kept aside is now the cached resource; <code>false</code>
+     *          otherwise
+     */
+    protected boolean selectRetainedVersion() {
+        synchronized (getLock()) {
+            synchronized (this) {
+                String best = null;
+
+                for (Iterator iter = retained.keySet().iterator(); iter.hasNext();) {
+                    String ver = (String) iter.next();
+
+                    if (reference.matchesVersion(new Version(ver)) && (best == null || new Version(ver).compareTo(new Version(best)) > 0)) {
+                        best = ver;
+                    }
+                }
+
+                if (best == null) {
+                    return false;
+                }
+
+                RetainedVersion rv = (RetainedVersion) retained.remove(best);
+
+                if (!retainedFile(best, rv).isFile()) {
+                    dropRetained(best, rv);
+                    return false;
+                }
+
+                if (!retainVersion() && digest != null) {
+                    blobStore.release(digest);
+                    digest = null;
+                }
+
+                if (rv.digest == null) {
+                    if (!renameFile(versionFile(best), cacheFile)) {
+                        retained.put(best, rv);
+                        return false;
+                    }
+                } else {
+                    digest = rv.digest;
+                    cacheFile.delete();		// the blob replaces any private copy
+                }
+
+                lastModified = rv.lastModified;
+                entityTag = rv.entityTag;
+                versionId = best;
+                checksum = null;
+                actualLength = getCacheFile().length();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the file a version is kept aside in when it is not a blob.
+     *
+     * @param   ver  the version-id
+     * @return  file named after the cached resource and the version-id
+     */
+    private File versionFile(String ver) {
+        StringBuffer sb = new StringBuffer(resourceCacheName());
+
+        sb.append('@');
+
+        for (int i = 0; i < ver.length(); i++) {
+            char c = ver.charAt(i);
+
+            sb.append((Character.isLetterOrDigit(c) || ".-_".indexOf(c) >= 0) ? c : '_');
+        }
+
+        return new File(rsrcDir, sb.toString());
+    }
+
+    /**
+     * Returns the file holding a version kept aside.
+     *
+     * @param   ver  the version-id
+     * @param   rv   the version kept aside
+     * @return  the blob or the version file
+     */
+    private File retainedFile(String ver, RetainedVersion rv) {
+        return (rv.digest != null && blobStore != null) ? blobStore.blobFile(rv.digest) : versionFile(ver);
+    }
+
+    /**
+     * Removes a version kept aside from storage.
+     *
+     * @param   ver  the version-id
+     * @param   rv   the version kept aside
+     */
+    private void dropRetained(String ver, RetainedVersion rv) {
+        if (rv.digest != null && blobStore != null) {
+            blobStore.release(rv.digest);
+        } else {
+            versionFile(ver).delete();
+        }
+    }
+
+    /**
+     * Renames a file, replacing the target file if the platform won't rename over it.
+     *
+     * @param   from  the file to rename
+     * @param   to    the new name
+     * @return  <code>true</code> if renamed; <code>false</code> otherwise
+     */
+    private static boolean renameFile(File from, File to) {
+        return (from.renameTo(to) || (to.delete() && from.renameTo(to)));
+    }
+
+    /**
+     * Removes the partial download file and its range validator. Nothing is removed if
+     * another updater is currently writing the partial download file.
+     *
+     * @return  <code>true</code> if there is no partial download left; <code>false</code> if it
+     *          is in use or could not be removed
+     */
+    protected boolean discardPartial() {
+        if (partFile == null) {
+            return super.discardPartial();
+        }
+
+        // taking the lock makes sure nobody else is using the file
+        try {
+            new PartialOutputStream(false).close();
+        } catch (IOException e) {
+            return false;
+        }
+
+        partInfoFile.delete();
+
+        return (partFile.delete() || !partFile.exists());
+    }
+
+    /**
+     * Purges the resource from the cache. This is done by removing the file in the file cache
+     * entry resources directory, or by releasing the blob holding the resource.
+     * <p>
+     * If this cached resource is a native library jar, any extracted native libraries are
+     * removed from the cache entry library directory.
+     */
+    protected void purge() {
+        super.purge();
+
+        // if this is a nativelib, delete any extracted files from the library directory
+        if (extractFile != null && getLibraryDir() != null && extractFile.exists()) {
+            Properties extracted = readExtracted();
+
+            for (Enumeration names = extracted.propertyNames(); names.hasMoreElements();) {
+                new File(getLibraryDir(), (String) names.nextElement()).delete();
+            }
+
+            extractFile.delete();
+        } else if (getCacheFile() != null && getLibraryDir() != null && reference instanceof NativelibReference) {
+            try {
+                ZipFile zf = new ZipFile(getCacheFile());
+
+                for (Enumeration entries = zf.entries(); entries.hasMoreElements();) {
+                    ZipEntry ze = (ZipEntry) entries.nextElement();
+
+                    if (ze.isDirectory() || ze.getName().indexOf('/') > 0) {
+                        continue;
+                    }
+
+                    new File(getLibraryDir(), ze.getName()).delete();
+                }
+
+                zf.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (cacheFile != null) {
+            cacheFile.delete();
+        }
+
+        checksum = null;
+
+        if (digest != null && blobStore != null) {
+            blobStore.release(digest);
+            digest = null;
+        }
+
+        if (partFile != null) {
+            partFile.delete();
+            partInfoFile.delete();
+        }
+
+        synchronized (this) {
+            for (Iterator iter = retained.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry me = (Map.Entry) iter.next();
+
+                dropRetained((String) me.getKey(), (RetainedVersion) me.getValue());
+            }
+
+            retained.clear();
+        }
+    }
+
+
+    /**
+     * A version of the resource kept aside.
+     */
+    private static class RetainedVersion {
+        String digest;				// digest of the blob, or null if in a version file
+        long lastModified;
+        String entityTag;
+    }
+
+
+    /**
+     * An output stream to the partial download file that holds an exclusive lock on the file for
+     * as long as it is open. The digest of the file is worked out as bytes are written, so the
+     * file need not be read again when it is committed.
+     */
+    private class PartialOutputStream extends OutputStream {
+        private RandomAccessFile raf;
+        private FileLock lock;
+        private MessageDigest md;			// digest of the bytes in the file so far
+        private byte[] scratch;			// bytes of a direct buffer being digested
+
+
+        /**
+         * Opens and locks the partial download file, either appending to or truncating it.
+         *
+         * @param   append  whether to append to the partial download file
+         * @throws  IOException if the file can not be opened or is locked by someone else
+         */
+        PartialOutputStream(boolean append) throws IOException {
+            raf = new RandomAccessFile(partFile, "rw");
+
+            try {
+                lock = raf.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+
+            if (lock == null) {
+                raf.close();
+                raf = null;
+
+                throw new IOException(partFile + " is being updated elsewhere");
+            }
+
+            try {
+                md = MessageDigest.getInstance(BlobStore.DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                close();
+
+                throw new IOException(e.getMessage());
+            }
+
+            if (append) {
+                // only the bytes of a resumed download are read back
+                FileChannel fc = raf.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+                for (long pos = 0L, n; (n = fc.read(buffer, pos)) > 0; pos += n) {
+                    buffer.flip();
+                    md.update(buffer.array(), 0, buffer.limit());
+                    buffer.clear();
+                }
+
+                raf.seek(raf.length());
+            } else {
+                raf.setLength(0L);
+            }
+        }
+
+        /**
+         * Returns a channel to the partial download file, positioned where writing continues.
+         * The bytes written through it are digested as well.
+         *
+         * @return  the channel
+         */
+        WritableByteChannel getChannel() {
+            final FileChannel fc = raf.getChannel();
+
+            return new WritableByteChannel() {
+                    public int write(ByteBuffer src) throws IOException {
+                        ByteBuffer written = src.duplicate();
+                        int n = fc.write(src);
+
+                        written.limit(written.position() + n);
+                        update(written);
+
+                        return n;
+                    }
+
+                    public boolean isOpen() {
+                        return fc.isOpen();
+                    }
+
+                    public void close() throws IOException {
+                        PartialOutputStream.this.close();
+                    }
+                };
+        }
+
+        /**
+         * Returns the hex-encoded digest of everything written to the partial download file.
+         *
+         * @return  hex-encoded digest
+         * @throws  IOException if the digest can not be worked out
+         */
+        String digest() throws IOException {
+            try {
+                // a copy, so that the digest can be asked for more than once
+                return BlobStore.toHex(((MessageDigest) md.clone()).digest());
+            } catch (CloneNotSupportedException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        /**
+         * Adds the remaining bytes of the specified buffer to the digest.
+         *
+         * @param   bb  the bytes written
+         */
+        private void update(ByteBuffer bb) {
+            if (bb.hasArray()) {
+                md.update(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+                return;
+            }
+
+            if (scratch == null) {
+                scratch = new byte[8192];
+            }
+
+            while (bb.hasRemaining()) {
+                int n = Math.min(bb.remaining(), scratch.length);
+
+                bb.get(scratch, 0, n);
+                md.update(scratch, 0, n);
+            }
+        }
+
+        public void write(int b) throws IOException {
+            raf.write(b);
+            md.update((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            raf.write(b, off, len);
+            md.update(b, off, len);
+        }
+
+        /**
+         * Forces the partial download file to disk and renames it to the target file. This is
+         * done while still holding the lock so nobody can start writing to the file between the
+         * two; only if the platform won't rename an open file is the lock dropped first.
+         *
+         * @param   target  the file to replace
+         * @throws  IOException if the file can not be renamed
+         */
+        void commit(File target) throws IOException {
+            raf.getFD().sync();
+
+            if (partFile.renameTo(target)) {
+                close();
+                return;
+            }
+
+            close();
+
+            // on some platforms neither an open file nor an existing target can be renamed
+            if (!partFile.renameTo(target) && !(target.delete() && partFile.renameTo(target))) {
+                throw new IOException("Unable to rename " + partFile + " to " + target);
+            }
+        }
+
+        public void close() throws IOException {
+            if (raf == null) {
+                return;
+            }
+
+            try {
+                lock.release();
+            } finally {
+                raf.close();
+                raf = null;
+            }
         }
     }
 }
@@ -0,0 +1,319 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+
+/**
+ * Applies JARDiff patches, as returned by the version-based download protocol, to cached jars.
+ * A JARDiff is itself a jar holding every entry that is new or changed in the new version of
+ * the jar, along with an index named <em>META-INF/INDEX.JD</em> that lists the entries to remove
+ * and the entries to move. The index is made up of lines of the form:
+ * <blockquote><code>
+ * version 1.0<br />
+ * remove <em>name</em><br />
+ * move <em>oldname</em> <em>newname</em>
+ * </code></blockquote>
+ * A space in a name is escaped with a backslash. Entries of the old jar that are not mentioned
+ * are copied to the new jar unchanged.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CachedResource#update
+ */
+public class JarDiff {
+    /** the MIME type of a JARDiff */
+    public static final String MIME_TYPE = "application/x-java-archive-diff";
+
+    /** the name of the index in a JARDiff */
+    public static final String INDEX_NAME = "META-INF/INDEX.JD";
+
+    private static final String VERSION_HEADER = "version 1.0";
+    private static final String REMOVE_COMMAND = "remove";
+    private static final String MOVE_COMMAND = "move";
+
+
+    /**
+     * Not instantiable, this class is only a collection of static methods.
+     */
+    private JarDiff() {
+    }
+
+    /**
+     * Applies a JARDiff to a jar, writing the patched jar to a new file. The manifest, if any,
+     * is written first so that the patched jar can also be read as a stream. The new file is
+     * synced to disk before this returns, so it can be renamed into place safely.
+     *
+     * @param   oldJar  the jar to patch
+     * @param   diff    the JARDiff
+     * @param   newJar  the file to write the patched jar to
+     * @return  the hex-encoded digest of the patched jar, worked out as it was written
+     * @throws  IOException if either jar can not be read, the JARDiff does not fit the old jar,
+     *                      or the patched jar can not be written
+     * @see     BlobStore#digest
+     */
+    public static String apply(File oldJar, File diff, File newJar) throws IOException {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance(BlobStore.DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        ZipFile oldZip = new ZipFile(oldJar);
+        ZipFile diffZip = null;
+        FileOutputStream fos = null;
+        JarOutputStream os = null;
+
+        try {
+            diffZip = new ZipFile(diff);
+
+            Set removed = new HashSet();
+            Map moved = new LinkedHashMap();		// (new name, old name) of moved entries
+
+            readIndex(diffZip, removed, moved);
+
+            // work out where every entry of the patched jar comes from
+            Map plan = new LinkedHashMap();			// (name, ZipEntry) of the patched jar
+            Map sources = new LinkedHashMap();		// (name, ZipFile) of the patched jar
+
+            for (Enumeration e = diffZip.entries(); e.hasMoreElements();) {
+                ZipEntry ze = (ZipEntry) e.nextElement();
+
+                if (!ze.getName().equals(INDEX_NAME)) {
+                    plan.put(ze.getName(), ze);
+                    sources.put(ze.getName(), diffZip);
+                }
+            }
+
+            Set implicit = new HashSet();
+
+            for (Enumeration e = oldZip.entries(); e.hasMoreElements();) {
+                implicit.add(((ZipEntry) e.nextElement()).getName());
+            }
+
+            implicit.removeAll(plan.keySet());
+            implicit.removeAll(removed);
+
+            for (Iterator iter = moved.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry move = (Map.Entry) iter.next();
+                ZipEntry ze = oldZip.getEntry((String) move.getValue());
+
+                if (ze == null) {
+                    throw new IOException(diff + ": no entry " + move.getValue() + " to move in " + oldJar);
+                }
+
+                plan.put(move.getKey(), ze);
+                sources.put(move.getKey(), oldZip);
+                implicit.remove(move.getValue());
+            }
+
+            for (Enumeration e = oldZip.entries(); e.hasMoreElements();) {
+                ZipEntry ze = (ZipEntry) e.nextElement();
+
+                if (implicit.contains(ze.getName()) && !plan.containsKey(ze.getName())) {
+                    plan.put(ze.getName(), ze);
+                    sources.put(ze.getName(), oldZip);
+                }
+            }
+
+            // write the patched jar, manifest first
+            List names = new ArrayList(plan.keySet());
+
+            if (names.remove(JarFile.MANIFEST_NAME)) {
+                names.add(0, JarFile.MANIFEST_NAME);
+            }
+
+            fos = new FileOutputStream(newJar);
+            os = new JarOutputStream(new DigestOutputStream(fos, md));
+
+            byte[] buffer = new byte[8192];
+
+            for (Iterator iter = names.iterator(); iter.hasNext();) {
+                String name = (String) iter.next();
+                ZipEntry src = (ZipEntry) plan.get(name);
+                ZipEntry ze = new ZipEntry(name);
+
+                ze.setTime(src.getTime());
+                os.putNextEntry(ze);
+
+                InputStream is = ((ZipFile) sources.get(name)).getInputStream(src);
+
+                try {
+                    for (int read = 0; (read = is.read(buffer)) != -1;) {
+                        os.write(buffer, 0, read);
+                    }
+                } finally {
+                    is.close();
+                }
+
+                os.closeEntry();
+            }
+
+            os.finish();
+            os.flush();
+            fos.getFD().sync();
+
+            return BlobStore.toHex(md.digest());
+        } finally {
+            if (os != null) {
+                os.close();
+            } else if (fos != null) {
+                fos.close();
+            }
+
+            if (diffZip != null) {
+                diffZip.close();
+            }
+
+            oldZip.close();
+        }
+    }
+
+    /**
+     * Verifies a jar by reading every entry in full. This checks the CRC of every entry and,
+     * if the jar is signed, the signature of every signed entry.
+     *
+     * @param   jar  the jar to verify
+     * @throws  IOException if the jar is corrupt or fails signature verification
+     */
+    public static void verify(File jar) throws IOException {
+        JarFile jf = new JarFile(jar, true);
+
+        try {
+            byte[] buffer = new byte[8192];
+
+            for (Enumeration e = jf.entries(); e.hasMoreElements();) {
+                JarEntry je = (JarEntry) e.nextElement();
+                InputStream is = jf.getInputStream(je);
+
+                try {
+                    while (is.read(buffer) != -1) {
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+        } catch (SecurityException e) {
+            throw new IOException(jar + ": " + e.getMessage());
+        } finally {
+            jf.close();
+        }
+    }
+
+    /**
+     * Reads the index of a JARDiff into the set of entries to remove and the map of entries to
+     * move.
+     *
+     * @param   diffZip  the JARDiff
+     * @param   removed  the set to add the names of removed entries to
+     * @param   moved    the map to add (new name, old name) pairs of moved entries to
+     * @throws  IOException if the index is missing or malformed
+     */
+    private static void readIndex(ZipFile diffZip, Set removed, Map moved) throws IOException {
+        ZipEntry ze = diffZip.getEntry(INDEX_NAME);
+
+        if (ze == null) {
+            throw new IOException(diffZip.getName() + " has no " + INDEX_NAME);
+        }
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(diffZip.getInputStream(ze), "UTF-8"));
+
+        try {
+            String line = br.readLine();
+
+            if (line == null || !line.trim().equals(VERSION_HEADER)) {
+                throw new IOException(diffZip.getName() + ": unsupported JARDiff " + line);
+            }
+
+            while ((line = br.readLine()) != null) {
+                List args = splitLine(line);
+
+                if (args.size() == 0) {
+                    continue;
+                }
+
+                String cmd = (String) args.get(0);
+
+                if (cmd.equals(REMOVE_COMMAND) && args.size() == 2) {
+                    removed.add(args.get(1));
+                } else if (cmd.equals(MOVE_COMMAND) && args.size() == 3) {
+                    moved.put(args.get(2), args.get(1));
+                } else {
+                    throw new IOException(diffZip.getName() + ": bad index line " + line);
+                }
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Splits an index line into words at unescaped spaces.
+     *
+     * @param   line  the line to split
+     * @return  list of words as strings
+     */
+    private static List splitLine(String line) {
+        List words = new ArrayList();
+        StringBuffer sb = new StringBuffer();
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (c == '\\' && i + 1 < line.length()) {
+                sb.append(line.charAt(++i));
+            } else if (c == ' ') {
+                if (sb.length() > 0) {
+                    words.add(sb.toString());
+                    sb.setLength(0);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+
+        if (sb.length() > 0) {
+            words.add(sb.toString());
+        }
+
+        return words;
+    }
+}
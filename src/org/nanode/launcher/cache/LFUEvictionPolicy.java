@@ -0,0 +1,35 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+
+/**
+ * An eviction policy that evicts the least frequently launched cache entry first. Cache entries
+ * launched equally often are evicted least recently launched first.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see CacheEntry#getLaunchCount
+ */
+public class LFUEvictionPolicy extends LRUEvictionPolicy {
+    public int compare(Object o1, Object o2) {
+        int c1 = ((CacheEntry) o1).getLaunchCount();
+        int c2 = ((CacheEntry) o2).getLaunchCount();
+
+        return (c1 != c2) ? ((c1 < c2) ? -1 : 1) : super.compare(o1, o2);
+    }
+}
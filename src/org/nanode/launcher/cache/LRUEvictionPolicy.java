@@ -0,0 +1,35 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+
+/**
+ * An eviction policy that evicts the least recently launched cache entry first. Cache entries
+ * that were never launched are evicted before any that were.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see CacheEntry#getLastLaunch
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+    public int compare(Object o1, Object o2) {
+        long l1 = ((CacheEntry) o1).getLastLaunch();
+        long l2 = ((CacheEntry) o2).getLastLaunch();
+
+        return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+
+/**
+ * The results of the scrubber checking the cached resources of a cache entry. A cached resource
+ * is corrupt if its file is missing, has the wrong length or does not match its digest. A corrupt
+ * resource is repaired by downloading it again, or evicted from the cache entry if that fails.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CacheScrubber
+ */
+public class ScrubEvent extends CacheEvent {
+    protected int checked;
+    protected int corrupt;
+    protected int repaired;
+    protected int evicted;
+
+
+    public ScrubEvent(Cache source, CacheEntry entry, int checked, int corrupt, int repaired, int evicted) {
+        super(source, ENTRY_SCRUBBED, entry);
+
+        this.checked = checked;
+        this.corrupt = corrupt;
+        this.repaired = repaired;
+        this.evicted = evicted;
+    }
+
+    /**
+     * Returns the number of cached resources checked.
+     *
+     * @return  resources checked
+     */
+    public int getChecked() {
+        return checked;
+    }
+
+    /**
+     * Returns the number of cached resources found to be corrupt.
+     *
+     * @return  corrupt resources
+     */
+    public int getCorrupt() {
+        return corrupt;
+    }
+
+    /**
+     * Returns the number of corrupt cached resources downloaded again.
+     *
+     * @return  repaired resources
+     */
+    public int getRepaired() {
+        return repaired;
+    }
+
+    /**
+     * Returns the number of corrupt cached resources removed from the cache entry.
+     *
+     * @return  evicted resources
+     */
+    public int getEvicted() {
+        return evicted;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A batch of tasks that are run in parallel by a bounded number of worker threads. Each task
+ * may be added with a key (such as a host name) and no more than a limited number of tasks
+ * with the same key will run at the same time.
+ * <p>
+ * A batch is run once; <code>run</code> blocks the calling thread until every task has
+ * finished or the batch has been aborted and all running tasks have returned. Aborting a batch
+ * only prevents tasks that have not been started from running, it is up to the caller to stop
+ * tasks that are already running.
+ *
+ * @author agent (agent@local)
+ */
+public class TaskBatch {
+    /** name used for the worker threads */
+    private String name;
+
+    /** maximum number of tasks run at the same time */
+    private int maxThreads;
+
+    /** maximum number of tasks with the same key run at the same time */
+    private int maxPerKey;
+
+    /** priority of the worker threads */
+    private int priority;
+
+    private List pending;			// list of Task objects not yet started
+    private Map keyCounts;			// map of (Object, int[]) with running tasks per key
+    private int running;
+
+    private boolean started;
+    private boolean aborted;
+
+
+    /**
+     * Creates an empty task batch.
+     *
+     * @param   name        name prefix for the worker threads
+     * @param   maxThreads  maximum number of tasks that run at the same time
+     * @param   maxPerKey   maximum number of tasks with the same key that run at the same time
+     */
+    public TaskBatch(String name, int maxThreads, int maxPerKey) {
+        this.name = name;
+        this.maxThreads = Math.max(1, maxThreads);
+        this.maxPerKey = Math.max(1, maxPerKey);
+
+        priority = Thread.NORM_PRIORITY;
+        pending = new ArrayList();
+        keyCounts = new HashMap();
+    }
+
+    /**
+     * Adds a task with no key to this batch. Tasks with no key are only limited by the maximum
+     * number of threads.
+     *
+     * @param   task  the task to run
+     */
+    public void add(Runnable task) {
+        add(null, task);
+    }
+
+    /**
+     * Adds a task to this batch. Tasks can not be added once the batch is running.
+     *
+     * @param   key   the key used to limit concurrency, may be <code>null</code>
+     * @param   task  the task to run
+     * @throws  IllegalStateException if the batch has already been run
+     */
+    public synchronized void add(Object key, Runnable task) {
+        if (started) {
+            throw new IllegalStateException("batch already run");
+        }
+
+        pending.add(new Task(key, task));
+    }
+
+    /**
+     * Returns the number of tasks in this batch that have not been started.
+     *
+     * @return  number of pending tasks
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Sets the priority of the worker threads. This must be called before the batch is run.
+     *
+     * @param   newPriority  the thread priority
+     */
+    public void setPriority(int newPriority) {
+        priority = Math.min(Thread.MAX_PRIORITY, Math.max(Thread.MIN_PRIORITY, newPriority));
+    }
+
+    /**
+     * Prevents any task that has not been started from running.
+     */
+    public synchronized void abort() {
+        aborted = true;
+        pending.clear();
+
+        notifyAll();
+    }
+
+    /**
+     * Indicates whether this batch was aborted.
+     *
+     * @return  <code>true</code> if aborted; <code>false</code> otherwise
+     */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Runs all of the tasks in this batch, returning only when all have finished. A batch with a
+     * single task runs it in the calling thread.
+     */
+    public void run() {
+        int workers;
+
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("batch already run");
+            }
+
+            started = true;
+            workers = Math.min(maxThreads, pending.size());
+        }
+
+        if (workers <= 1) {
+            new Worker().run();
+            return;
+        }
+
+        for (int i = 0; i < workers; i++) {
+            Thread t = new Thread(new Worker(), name + "-" + (i + 1));
+            t.setDaemon(true);
+            t.setPriority(priority);
+            t.start();
+        }
+
+        // wait until no tasks are left and none are running
+        synchronized (this) {
+            while (pending.size() > 0 || running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the next task that is allowed to run from the pending list, waiting if all pending
+     * tasks are held back by their key limits.
+     *
+     * @return  the next task or <code>null</code> if there are none left
+     */
+    private synchronized Task nextTask() {
+        while (pending.size() > 0) {
+            for (int i = 0; i < pending.size(); i++) {
+                Task t = (Task) pending.get(i);
+                int[] count = keyCount(t.key);
+
+                if (count == null || count[0] < maxPerKey) {
+                    pending.remove(i);
+
+                    if (count != null) {
+                        count[0]++;
+                    }
+
+                    running++;
+
+                    return t;
+                }
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                abort();
+            }
+        }
+
+        return null;
+    }
+
+    private synchronized void taskDone(Task t) {
+        int[] count = keyCount(t.key);
+
+        if (count != null) {
+            count[0]--;
+        }
+
+        running--;
+
+        notifyAll();
+    }
+
+    private int[] keyCount(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        int[] count = (int[]) keyCounts.get(key);
+
+        if (count == null) {
+            keyCounts.put(key, count = new int[1]);
+        }
+
+        return count;
+    }
+
+
+    private static class Task {
+        Object key;
+        Runnable task;
+
+
+        Task(Object key, Runnable task) {
+            this.key = key;
+            this.task = task;
+        }
+    }
+
+
+    private class Worker implements Runnable {
+        public void run() {
+            for (Task t; (t = nextTask()) != null;) {
+                try {
+                    t.task.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                } finally {
+                    taskDone(t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * A transfer engine that keeps all of its transfers together under a bandwidth cap. Bytes read
+ * from the network are counted against the cap and reading waits once the transfers are ahead
+ * of it, so several cached resources updated with the same engine share the bandwidth. Copying
+ * files is not throttled.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CachedResource#setTransferEngine
+ */
+public class ThrottledTransferEngine extends TransferEngine {
+    private long bytesPerSecond;		// bandwidth cap
+    private long nextRead;			// time in microseconds the next read is allowed under the cap
+    private long owed;			// bytes times 1000000 read but not yet scheduled, less than bytesPerSecond
+
+
+    /**
+     * Creates a transfer engine that reads no more than the specified number of bytes per second.
+     *
+     * @param   bytesPerSecond  the bandwidth cap in bytes per second
+     */
+    public ThrottledTransferEngine(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(1L, bytesPerSecond);
+    }
+
+    /**
+     * Returns the bandwidth cap of this engine.
+     *
+     * @return  bytes per second
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Transfers everything from a channel to another channel, reading no faster than the
+     * bandwidth cap allows.
+     *
+     * @param   in     the channel to read from
+     * @param   out    the channel to write to
+     * @param   meter  the meter to record progress on, or <code>null</code> for none
+     * @return  the number of bytes transferred
+     * @throws  IOException if reading or writing fails
+     */
+    public long transfer(final ReadableByteChannel in, WritableByteChannel out, Meter meter) throws IOException {
+        ReadableByteChannel throttled = new ReadableByteChannel() {
+                public int read(ByteBuffer dst) throws IOException {
+                    int read = in.read(dst);
+
+                    if (read > 0) {
+                        throttle(read);
+                    }
+
+                    return read;
+                }
+
+                public boolean isOpen() {
+                    return in.isOpen();
+                }
+
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+
+        return super.transfer(throttled, out, meter);
+    }
+
+    /**
+     * Waits long enough that reading the specified number of bytes keeps all reads throttled by
+     * this engine together under the bandwidth cap. The time each read takes up is kept in
+     * microseconds, with the remainder carried over to the next read, so that small reads are
+     * charged in full. Nothing waits until the reads are at least a millisecond ahead.
+     *
+     * @param   amount  number of bytes just read
+     */
+    void throttle(long amount) {
+        long wait;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis() * 1000L;
+
+            if (nextRead < now) {
+                nextRead = now;
+            }
+
+            owed += amount * 1000000L;
+            nextRead += owed / bytesPerSecond;
+            owed %= bytesPerSecond;
+
+            wait = (nextRead - now) / 1000L;
+        }
+
+        if (wait > 0L) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
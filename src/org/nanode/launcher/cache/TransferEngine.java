@@ -0,0 +1,430 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+
+/**
+ * Moves bytes between channels and streams for cached resources. Transfers go through direct
+ * buffers of <code>org.nanode.launcher.cache.transferBufferSize</code> bytes which are pooled and
+ * reused, and transfers from a file use <code>FileChannel.transferTo</code>.
+ * <p>
+ * The progress of a transfer is kept in a <code>Meter</code>. Transferring only adds to the amount
+ * on the meter; the transfer rate is sampled by a timer, so nothing is timed per read.
+ * <p>
+ * The default engine is shared by everything that updates cached resources, including the
+ * external launcher when it updates itself. Another engine can be plugged in by naming its class
+ * in <code>org.nanode.launcher.cache.transferEngine</code>, or set with <code>setDefault</code>.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CachedResource#getTransferEngine
+ */
+public class TransferEngine {
+    /** system property for the class name of the default transfer engine */
+    public static final String ENGINE_PROPERTY = "org.nanode.launcher.cache.transferEngine";
+
+    /** system property for the size of the transfer buffers in bytes */
+    public static final String BUFFER_SIZE_PROPERTY = "org.nanode.launcher.cache.transferBufferSize";
+
+    private static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final long SAMPLE_PERIOD = 500L;			// milliseconds between rate samples
+    private static final long FILE_CHUNK = 1024L * 1024L;	// bytes per transferTo call
+
+    private static TransferEngine defaultEngine;
+
+
+    private int bufferSize;
+
+    private LinkedList pool;		// direct buffers not in use
+    private List meters;			// meters of transfers in progress
+    private Timer sampler;			// samples the transfer rate of the meters
+
+
+    /**
+     * Creates a transfer engine with buffers of <code>org.nanode.launcher.cache.transferBufferSize</code>
+     * bytes.
+     */
+    public TransferEngine() {
+        this(Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE).intValue());
+    }
+
+    /**
+     * Creates a transfer engine with buffers of the specified size.
+     *
+     * @param   bufferSize  the size of the transfer buffers in bytes
+     */
+    public TransferEngine(int bufferSize) {
+        this.bufferSize = Math.max(bufferSize, 1024);
+
+        pool = new LinkedList();
+        meters = new ArrayList();
+    }
+
+    /**
+     * Returns the size of the transfer buffers.
+     *
+     * @return  buffer size in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Transfers everything from a channel to another channel.
+     *
+     * @param   in     the channel to read from
+     * @param   out    the channel to write to
+     * @param   meter  the meter to record progress on, or <code>null</code> for none
+     * @return  the number of bytes transferred
+     * @throws  IOException if reading or writing fails
+     */
+    public long transfer(ReadableByteChannel in, WritableByteChannel out, Meter meter) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        long total = 0L;
+
+        startMetering(meter);
+
+        try {
+            for (boolean done = false; !done && (meter == null || !meter.aborted);) {
+                try {
+                    done = (in.read(buffer) == -1);
+                } catch (IOException e) {
+                    // keep what was read before the failure, so a resumed transfer need not read it again
+                    total += drain(buffer, out, meter);
+                    throw e;
+                }
+
+                total += drain(buffer, out, meter);
+            }
+        } finally {
+            stopMetering(meter);
+            releaseBuffer(buffer);
+        }
+
+        return total;
+    }
+
+    /**
+     * Writes out everything in a buffer and clears it, recording the bytes written on the meter.
+     *
+     * @param   buffer  the buffer being filled
+     * @param   out     the channel to write to
+     * @param   meter   the meter to record progress on, or <code>null</code> for none
+     * @return  the number of bytes written
+     * @throws  IOException if writing fails
+     */
+    private static int drain(ByteBuffer buffer, WritableByteChannel out, Meter meter) throws IOException {
+        buffer.flip();
+
+        int n = buffer.remaining();
+
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+
+        buffer.clear();
+
+        if (meter != null) {
+            meter.transferAmount += n;
+        }
+
+        return n;
+    }
+
+    /**
+     * Transfers everything from an input stream to an output stream. File streams are
+     * transferred through their channels.
+     *
+     * @param   in     the stream to read from
+     * @param   out    the stream to write to
+     * @param   meter  the meter to record progress on, or <code>null</code> for none
+     * @return  the number of bytes transferred
+     * @throws  IOException if reading or writing fails
+     */
+    public long transfer(InputStream in, OutputStream out, Meter meter) throws IOException {
+        return transfer(channel(in), channel(out), meter);
+    }
+
+    /**
+     * Transfers the rest of a file, from its current position, to a channel with
+     * <code>FileChannel.transferTo</code>. This lets the operating system move the bytes without
+     * copying them through the virtual machine. The file is transferred in chunks so progress is
+     * recorded and an abort is noticed.
+     *
+     * @param   in     the file channel to read from
+     * @param   out    the channel to write to
+     * @param   meter  the meter to record progress on, or <code>null</code> for none
+     * @return  the number of bytes transferred
+     * @throws  IOException if reading or writing fails
+     */
+    public long transferFile(FileChannel in, WritableByteChannel out, Meter meter) throws IOException {
+        long pos = in.position();
+        long size = in.size();
+        long total = 0L;
+
+        startMetering(meter);
+
+        try {
+            while (pos < size && (meter == null || !meter.aborted)) {
+                long n = in.transferTo(pos, Math.min(FILE_CHUNK, size - pos), out);
+
+                if (n <= 0L) {
+                    break;			// the file was truncated
+                }
+
+                pos += n;
+                total += n;
+
+                if (meter != null) {
+                    meter.transferAmount += n;
+                }
+            }
+        } finally {
+            stopMetering(meter);
+        }
+
+        in.position(pos);
+
+        return total;
+    }
+
+    /**
+     * Takes a direct buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return  an empty buffer
+     */
+    protected ByteBuffer acquireBuffer() {
+        synchronized (pool) {
+            if (!pool.isEmpty()) {
+                return (ByteBuffer) pool.removeFirst();
+            }
+        }
+
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers beyond what the pool keeps are left to the garbage
+     * collector.
+     *
+     * @param   buffer  the buffer to return
+     */
+    protected void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED_BUFFERS) {
+                pool.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * Starts sampling the transfer rate of a meter.
+     *
+     * @param   meter  the meter, or <code>null</code> for none
+     */
+    private void startMetering(Meter meter) {
+        if (meter == null) {
+            return;
+        }
+
+        meter.startMillis = System.currentTimeMillis();
+
+        synchronized (meters) {
+            meters.add(meter);
+
+            if (sampler == null) {
+                sampler = new Timer(true);
+                sampler.schedule(new TimerTask() {
+                        public void run() {
+                            sampleMeters();
+                        }
+                    }, SAMPLE_PERIOD, SAMPLE_PERIOD);
+            }
+        }
+    }
+
+    /**
+     * Stops sampling the transfer rate of a meter, taking one last sample.
+     *
+     * @param   meter  the meter, or <code>null</code> for none
+     */
+    private void stopMetering(Meter meter) {
+        if (meter == null) {
+            return;
+        }
+
+        synchronized (meters) {
+            meters.remove(meter);
+        }
+
+        meter.sample(System.currentTimeMillis());
+    }
+
+    /**
+     * Samples the transfer rate of every transfer in progress.
+     */
+    private void sampleMeters() {
+        long now = System.currentTimeMillis();
+
+        synchronized (meters) {
+            for (Iterator iter = meters.iterator(); iter.hasNext();) {
+                ((Meter) iter.next()).sample(now);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the default transfer engine, creating it on first use.
+     *
+     * @return  the default transfer engine
+     */
+    public static synchronized TransferEngine getDefault() {
+        if (defaultEngine == null) {
+            String name = System.getProperty(ENGINE_PROPERTY);
+
+            if (name != null) {
+                try {
+                    defaultEngine = (TransferEngine) Class.forName(name).newInstance();
+                } catch (Exception e) {
+                    System.err.println("Unable to use transfer engine " + name + " - " + e);
+                }
+            }
+
+            if (defaultEngine == null) {
+                defaultEngine = new TransferEngine();
+            }
+        }
+
+        return defaultEngine;
+    }
+
+    /**
+     * Sets the default transfer engine.
+     *
+     * @param   engine  the new default transfer engine
+     */
+    public static synchronized void setDefault(TransferEngine engine) {
+        defaultEngine = engine;
+    }
+
+    /**
+     * Returns a channel that reads from the specified stream. A file stream is read through its
+     * own channel.
+     *
+     * @param   in  the stream
+     * @return  a channel reading from the stream
+     */
+    public static ReadableByteChannel channel(InputStream in) {
+        return (in instanceof FileInputStream) ? ((FileInputStream) in).getChannel() : Channels.newChannel(in);
+    }
+
+    /**
+     * Returns a channel that writes to the specified stream. A file stream is written through
+     * its own channel.
+     *
+     * @param   out  the stream
+     * @return  a channel writing to the stream
+     */
+    public static WritableByteChannel channel(OutputStream out) {
+        return (out instanceof FileOutputStream) ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+    }
+
+
+    /**
+     * The progress of a transfer. The amount transferred is added to as bytes are transferred,
+     * the transfer rate is sampled while the transfer is in progress and once when it ends.
+     */
+    public static class Meter {
+        /** the number of bytes transferred */
+        protected volatile long transferAmount;
+
+        /** the average transfer rate in bytes per second, as last sampled */
+        protected volatile int transferRate;
+
+        /** whether the transfer should stop */
+        protected volatile boolean aborted;
+
+        private long startMillis;
+
+
+        /**
+         * Returns the number of bytes transferred.
+         *
+         * @return  bytes transferred
+         */
+        public long getTransferAmount() {
+            return transferAmount;
+        }
+
+        /**
+         * Returns the average transfer rate as last sampled.
+         *
+         * @return  bytes per second
+         */
+        public int getTransferRate() {
+            return transferRate;
+        }
+
+        /**
+         * Asks the transfer to stop. The transfer stops after the buffer or chunk in progress.
+         */
+        public void abort() {
+            aborted = true;
+        }
+
+        /**
+         * Indicates whether the transfer was asked to stop.
+         *
+         * @return  <code>true</code> if aborted; <code>false</code> otherwise
+         */
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        /**
+         * Works out the average transfer rate since the transfer started.
+         *
+         * @param   now  the current time
+         */
+        void sample(long now) {
+            long secs = Math.max((now - startMillis) / 1000L, 1L);
+
+            transferRate = (int) (transferAmount / secs);
+        }
+    }
+}
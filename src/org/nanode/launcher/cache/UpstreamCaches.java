@@ -0,0 +1,213 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License Version 1.1 (the "License");
+ * you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis, WITHOUT WARRANTY OF
+ * ANY KIND, either express or implied. See the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * The Original Code is openjnlp.nanode.org code.
+ *
+ * The Initial Developer of the Original Code is agent. Portions created by agent are
+ * Copyright (C) 2026 agent. All Rights Reserved.
+ *
+ * Contributor(s):
+ *    agent <agent@local>
+ */
+package org.nanode.launcher.cache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+
+/**
+ * The upstream caches that cached resources are updated from before their origin. Each
+ * upstream cache is a <code>CacheServer</code>, asked for a resource by its origin URL and the
+ * validators of the cached resource. The upstream caches are listed in
+ * <code>org.nanode.launcher.cache.upstreams</code> as a comma-separated list of base URLs.
+ * <p>
+ * The upstream cache that has been answering fastest is asked first. One that can not be
+ * reached is passed over for a while, longer each time it fails again, and the next one or
+ * else the origin is asked instead.
+ *
+ * @author agent (<a href="mailto:agent@local">agent@local</a>)
+ * @see     CacheServer
+ * @see     CachedResource#update
+ */
+public class UpstreamCaches {
+    /** system property with a comma-separated list of base URLs of upstream caches */
+    public static final String UPSTREAMS_PROPERTY = "org.nanode.launcher.cache.upstreams";
+
+    /** the response header with the hex-encoded SHA-256 digest of the whole resource */
+    public static final String DIGEST_HEADER = "X-Content-SHA256";
+
+    private static final long MIN_BACKOFF = 30L * 1000L;
+    private static final long MAX_BACKOFF = 10L * 60L * 1000L;
+
+    private static UpstreamCaches instance;
+    private static String instanceList;		// the property value the instance was created from
+
+
+    private Upstream[] upstreams;
+
+
+    /**
+     * Creates the upstream caches from a comma-separated list of base URLs. URLs that are not
+     * valid are ignored.
+     *
+     * @param   list  the base URLs, or <code>null</code> for none
+     */
+    public UpstreamCaches(String list) {
+        List ups = new ArrayList();
+
+        if (list != null) {
+            for (StringTokenizer st = new StringTokenizer(list, ", "); st.hasMoreTokens();) {
+                String base = st.nextToken();
+
+                try {
+                    ups.add(new Upstream(new URL(base.endsWith("/") ? base : base + "/")));
+                } catch (MalformedURLException e) {
+                    System.err.println("ignoring bad upstream cache: " + base);
+                }
+            }
+        }
+
+        upstreams = (Upstream[]) ups.toArray(new Upstream[0]);
+    }
+
+    /**
+     * Returns all of the upstream caches.
+     *
+     * @return  array of upstream caches
+     */
+    public Upstream[] getUpstreams() {
+        return (Upstream[]) upstreams.clone();
+    }
+
+    /**
+     * Selects the upstream cache to ask for a resource: the fastest of those not being passed
+     * over. Upstream caches that have not answered yet are tried first.
+     *
+     * @param   url  the origin URL of the resource
+     * @return  the upstream cache or <code>null</code> if the origin should be asked
+     */
+    public Upstream select(URL url) {
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Upstream best = null;
+
+        for (int i = 0; i < upstreams.length; i++) {
+            Upstream up = upstreams[i];
+
+            if (up.isAvailable(now) && (best == null || up.getLatency() < best.getLatency())) {
+                best = up;
+            }
+        }
+
+        return best;
+    }
+
+
+    /**
+     * Returns the upstream caches listed in <code>org.nanode.launcher.cache.upstreams</code>.
+     * They are created again if the property changed.
+     *
+     * @return  the upstream caches
+     */
+    public static synchronized UpstreamCaches getInstance() {
+        String list = System.getProperty(UPSTREAMS_PROPERTY);
+
+        if (instance == null || !((list == null) ? instanceList == null : list.equals(instanceList))) {
+            instance = new UpstreamCaches(list);
+            instanceList = list;
+        }
+
+        return instance;
+    }
+
+
+    /**
+     * An upstream cache, with how fast it has been answering and whether it is being passed over.
+     */
+    public static class Upstream {
+        private URL base;
+        private long latency;		// average milliseconds until a response, or 0 if not known
+        private int failures;		// failures in a row
+        private long retryAt;		// time until which this upstream cache is passed over
+
+
+        Upstream(URL base) {
+            this.base = base;
+        }
+
+        /**
+         * Returns the base URL of this upstream cache.
+         *
+         * @return  the base URL
+         */
+        public URL getBase() {
+            return base;
+        }
+
+        /**
+         * Returns how long this upstream cache has been taking to respond, on average.
+         *
+         * @return  milliseconds until a response, or 0 if not known yet
+         */
+        public synchronized long getLatency() {
+            return latency;
+        }
+
+        /**
+         * Indicates whether this upstream cache is asked for resources at the specified time, or
+         * passed over after failing.
+         *
+         * @param   now  the current time in milliseconds
+         * @return  <code>true</code> if available; <code>false</code> if passed over
+         */
+        public synchronized boolean isAvailable(long now) {
+            return (now >= retryAt);
+        }
+
+        /**
+         * Returns the URL to ask this upstream cache for a resource.
+         *
+         * @param   url  the origin URL of the resource, with any query arguments
+         * @return  the URL of the resource on this upstream cache
+         * @throws  MalformedURLException if the URL can not be formed
+         */
+        public URL resolve(URL url) throws MalformedURLException {
+            return new URL(base, CacheServer.serverPath(url).substring(1));
+        }
+
+        /**
+         * Records a response from this upstream cache.
+         *
+         * @param   millis  milliseconds until the response
+         */
+        synchronized void succeeded(long millis) {
+            latency = (latency == 0L) ? Math.max(1L, millis) : Math.max(1L, (latency * 3L + millis) / 4L);
+            failures = 0;
+            retryAt = 0L;
+        }
+
+        /**
+         * Records a failure of this upstream cache, passing it over for a while.
+         */
+        synchronized void failed() {
+            failures++;
+            retryAt = System.currentTimeMillis() + Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures - 1, 5));
+        }
+
+        public String toString() {
+            return base.toString();
+        }
+    }
+}